@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a synchronized MaxSizeHashMap with ConcurrentBoundedCache on a
+ * read-mostly workload whose keys are twice the cache size, so about half
+ * of the reads miss and one in ten operations is a write.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class BoundedCacheBenchmark
+{
+	@Param( { "1024", "65536" } )
+	public int size;
+
+	@Param( { "synchronized", "concurrent" } )
+	public String map;
+
+	private Map<Integer, Integer> cache;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		cache = "synchronized".equals( map ) ?
+			Collections.synchronizedMap( new MaxSizeHashMap<>( size ) ) :
+			new ConcurrentBoundedCache<>( size );
+		for ( int i = 0; i < size; i++ )
+		{
+			cache.put( i, i );
+		}
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public Integer getOrPut()
+	{
+		return access();
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public Integer getOrPutContended()
+	{
+		return access();
+	}
+
+	private Integer access()
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int key = random.nextInt( size * 2 );
+		if ( random.nextInt( 10 ) == 0 )
+		{
+			return cache.put( key, key );
+		}
+		return cache.get( key );
+	}
+}
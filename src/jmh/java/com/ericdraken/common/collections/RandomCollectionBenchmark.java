@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures weighted sampling with RandomCollection, AliasRandomCollection
+ * and ConcurrentRandomCollection over collections of different sizes,
+ * from one thread and from several threads sharing the same collection,
+ * and ConcurrentRandomCollection draws while another thread re-weights.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class RandomCollectionBenchmark
+{
+	private static final int BATCH = 1000;
+
+	@Param( { "16", "1024", "65536" } )
+	public int size;
+
+	private RandomCollection<Integer> collection;
+
+	private AliasRandomCollection<Integer> alias;
+
+	private ConcurrentRandomCollection<Integer> concurrent;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		// Fixed seed so every run samples the same weights
+		Random random = new Random( 42 );
+		collection = new RandomCollection<>();
+		AliasRandomCollection.Builder<Integer> builder = AliasRandomCollection.builder();
+		concurrent = new ConcurrentRandomCollection<>();
+		for ( int i = 0; i < size; i++ )
+		{
+			double weight = 1.0 + random.nextInt( 100 );
+			collection.add( 1, weight, i );
+			builder.add( 1, weight, i );
+			concurrent.add( 1, weight, i );
+		}
+		alias = builder.build();
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public Integer next()
+	{
+		return collection.next();
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public Integer nextContended()
+	{
+		return collection.next();
+	}
+
+	// One batch of BATCH draws, compare against BATCH calls to next()
+	@Benchmark
+	@Threads( 1 )
+	@OperationsPerInvocation( BATCH )
+	public Integer[] fill()
+	{
+		Integer[] out = new Integer[BATCH];
+		collection.fill( out );
+		return out;
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public Integer aliasNext()
+	{
+		return alias.next();
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public Integer aliasNextContended()
+	{
+		return alias.next();
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public Integer concurrentNext()
+	{
+		return concurrent.next();
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public Integer concurrentNextContended()
+	{
+		return concurrent.next();
+	}
+
+	// Re-weights an element on every call while the other threads draw
+	@Benchmark
+	@Group( "churn" )
+	@GroupThreads( 1 )
+	public boolean churnWrite()
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return concurrent.setWeight( random.nextInt( size ), 1.0 + random.nextInt( 100 ) );
+	}
+
+	@Benchmark
+	@Group( "churn" )
+	@GroupThreads( 3 )
+	public Integer churnNext()
+	{
+		return concurrent.next();
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures task hand-off throughput of BlockingExecutor, including the time
+ * producers spend blocked on permits, with one producer and with several
+ * producers contending for the same permits.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class BlockingExecutorBenchmark
+{
+	@Param( { "1", "4", "16" } )
+	public int poolSize;
+
+	@Param( { "SEMAPHORE", "STRIPED" } )
+	public BlockingExecutor.Mode permits;
+
+	// CPU work per task in JMH tokens, 0 measures pure overhead
+	@Param( { "0", "1000" } )
+	public int work;
+
+	private BlockingExecutor exec;
+
+	private Runnable task;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		exec = new BlockingExecutor( poolSize, "jmh", permits );
+		int tokens = work;
+		task = () -> Blackhole.consumeCPU( tokens );
+	}
+
+	// Drain between iterations so queued work is not counted twice
+	@TearDown( Level.Iteration )
+	public void drain() throws InterruptedException
+	{
+		exec.awaitQuiescence();
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		exec.waitAndShutdown();
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public void execute()
+	{
+		exec.execute( task );
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public void executeContended()
+	{
+		exec.execute( task );
+	}
+}
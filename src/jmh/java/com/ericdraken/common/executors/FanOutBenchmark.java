@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Compares BlockingExecutor with ForkJoinBlockingExecutor on a fan-out
+ * workload shaped like walking a directory tree and then checksumming
+ * each file. With BlockingExecutor the tree is walked by the producer,
+ * since a worker blocking on a permit could deadlock the pool. With
+ * ForkJoinBlockingExecutor each directory task submits its children.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class FanOutBenchmark
+{
+	private static final byte[] FILE = new byte[16 * 1024];
+
+	@Param( { "8" } )
+	public int fanOut;
+
+	@Param( { "3", "5" } )
+	public int depth;
+
+	// Each walk shuts its executor down, so every invocation needs a new one
+	@State( Scope.Thread )
+	public static class Blocking
+	{
+		BlockingExecutor exec;
+
+		@Setup( Level.Invocation )
+		public void setup()
+		{
+			exec = new BlockingExecutor( Runtime.getRuntime().availableProcessors(), "jmh-blocking" );
+		}
+	}
+
+	@State( Scope.Thread )
+	public static class ForkJoin
+	{
+		ForkJoinBlockingExecutor exec;
+
+		@Setup( Level.Invocation )
+		public void setup()
+		{
+			exec = new ForkJoinBlockingExecutor( Runtime.getRuntime().availableProcessors(), "jmh-forkjoin" );
+		}
+	}
+
+	@Benchmark
+	public long blockingExecutor( Blocking state )
+	{
+		LongAdder sink = new LongAdder();
+		walk( state.exec, fanOut, depth, sink );
+		state.exec.waitAndShutdown();
+		return sink.sum();
+	}
+
+	@Benchmark
+	public long forkJoinBlockingExecutor( ForkJoin state )
+	{
+		LongAdder sink = new LongAdder();
+		state.exec.execute( new Directory( state.exec, fanOut, depth, sink ) );
+		state.exec.waitAndShutdown();
+		return sink.sum();
+	}
+
+	// The producer walks the whole tree and submits each file
+	private static void walk( BlockingExecutor exec, int fanOut, int depth, LongAdder sink )
+	{
+		if ( depth == 0 )
+		{
+			exec.execute( () -> sink.add( checksum() ) );
+			return;
+		}
+		for ( int i = 0; i < fanOut; i++ )
+		{
+			walk( exec, fanOut, depth - 1, sink );
+		}
+	}
+
+	private static long checksum()
+	{
+		CRC32 crc = new CRC32();
+		crc.update( FILE, 0, FILE.length );
+		return crc.getValue();
+	}
+
+	// Each directory submits its children from inside the pool
+	private static class Directory implements Runnable
+	{
+		private final ForkJoinBlockingExecutor exec;
+		private final int fanOut;
+		private final int depth;
+		private final LongAdder sink;
+
+		Directory( ForkJoinBlockingExecutor exec, int fanOut, int depth, LongAdder sink )
+		{
+			this.exec = exec;
+			this.fanOut = fanOut;
+			this.depth = depth;
+			this.sink = sink;
+		}
+
+		@Override
+		public void run()
+		{
+			if ( depth == 0 )
+			{
+				sink.add( checksum() );
+				return;
+			}
+			for ( int i = 0; i < fanOut; i++ )
+			{
+				exec.execute( new Directory( exec, fanOut, depth - 1, sink ) );
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures durable writes with MapWriter.writeNumberForKey() for maps of
+ * different sizes and storage engines, with and without group commit,
+ * from one thread and from several threads sharing the same file.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class MapWriterBenchmark
+{
+	@Param( { "16", "1024" } )
+	public int keys;
+
+	@Param( { "JSON", "MAPPED", "LOG" } )
+	public MapWriter.Storage storage;
+
+	// Zero writes through on every update
+	@Param( { "0", "10" } )
+	public int flushMillis;
+
+	private File file;
+
+	private MapWriter writer;
+
+	private String[] names;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException
+	{
+		file = File.createTempFile( "mapwriter", ".json" );
+		Files.delete( file.toPath() );
+		MapWriter.Builder builder = MapWriter.builder( file ).storage( storage );
+		if ( flushMillis > 0 )
+		{
+			builder.flushInterval( Duration.ofMillis( flushMillis ) );
+		}
+		writer = builder.build();
+
+		names = new String[keys];
+		for ( int i = 0; i < keys; i++ )
+		{
+			names[i] = "key-" + i;
+			writer.writeNumberForKey( names[i], i );
+		}
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() throws IOException
+	{
+		writer.close();
+		Files.deleteIfExists( file.toPath() );
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public boolean writeNumberForKey()
+	{
+		return write();
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public boolean writeNumberForKeyContended()
+	{
+		return write();
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public Number readNumberForKeyContended()
+	{
+		return writer.readNumberForKey( names[ThreadLocalRandom.current().nextInt( keys )] );
+	}
+
+	private boolean write()
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return writer.writeNumberForKey( names[random.nextInt( keys )], random.nextLong() );
+	}
+}
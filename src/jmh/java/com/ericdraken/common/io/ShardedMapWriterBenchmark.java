@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures durable writes from several threads spread over different
+ * numbers of shards, to compare with MapWriterBenchmark.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ShardedMapWriterBenchmark
+{
+	@Param( { "1", "4", "16" } )
+	public int shards;
+
+	@Param( { "1024" } )
+	public int keys;
+
+	@Param( { "JSON", "LOG" } )
+	public MapWriter.Storage storage;
+
+	private File dir;
+
+	private ShardedMapWriter writer;
+
+	private String[] names;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory( "sharded" ).toFile();
+		writer = new ShardedMapWriter( new File( dir, "map.json" ), shards, storage );
+
+		names = new String[keys];
+		for ( int i = 0; i < keys; i++ )
+		{
+			names[i] = "key-" + i;
+			writer.writeNumberForKey( names[i], i );
+		}
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		writer.close();
+		File[] files = dir.listFiles();
+		if ( files != null )
+		{
+			for ( File file : files )
+			{
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public boolean writeNumberForKeyContended()
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return writer.writeNumberForKey( names[random.nextInt( keys )], random.nextLong() );
+	}
+}
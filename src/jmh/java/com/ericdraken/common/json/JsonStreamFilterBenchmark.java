@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures JsonStreamFilter.streamFilter() on documents of different sizes,
+ * removing a flat and a nested property from every element, from one
+ * thread and from several threads at once.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class JsonStreamFilterBenchmark
+{
+	private static final List<String> REMOVE = List.of( "secret", "history" );
+
+	@Param( { "100", "10000" } )
+	public int elements;
+
+	private String json;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		StringBuilder sb = new StringBuilder( "[" );
+		for ( int i = 0; i < elements; i++ )
+		{
+			if ( i > 0 )
+			{
+				sb.append( ',' );
+			}
+			sb.append( "{\"id\":" ).append( i )
+				.append( ",\"name\":\"element-" ).append( i ).append( '"' )
+				.append( ",\"price\":" ).append( i ).append( ".25" )
+				.append( ",\"active\":" ).append( i % 2 == 0 )
+				.append( ",\"secret\":\"s3cr3t\"" )
+				.append( ",\"history\":{\"seen\":[1,2,3],\"by\":null}}" );
+		}
+		json = sb.append( ']' ).toString();
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public String streamFilter() throws IOException
+	{
+		return filter();
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public String streamFilterContended() throws IOException
+	{
+		return filter();
+	}
+
+	private String filter() throws IOException
+	{
+		StringWriter out = new StringWriter( json.length() );
+		try ( JsonReader reader = new JsonReader( new StringReader( json ) );
+		      JsonWriter writer = new JsonWriter( out ) )
+		{
+			JsonStreamFilter.streamFilter( reader, writer, REMOVE );
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.zip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+/**
+ * Measures Zip.zipFile() on source files of different sizes, from one
+ * thread and from several threads each writing their own archive, and
+ * Zip.zipFiles() on the same bytes split over many files, deflated on the
+ * calling thread or in parallel on the common pool. zipFileParallel()
+ * deflates blocks of the single file on the common pool. The stored
+ * methods measure STORED entries copied in and out with transferTo.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ZipBenchmark
+{
+	@Param( { "65536", "8388608" } )
+	public int size;
+
+	private static final int FILES = 32;
+
+	private Path source;
+
+	private final Map<Path, String> sources = new LinkedHashMap<>();
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException
+	{
+		// Half random and half repeated so deflate has some work to do
+		byte[] data = new byte[size];
+		new Random( 42 ).nextBytes( data );
+		for ( int i = size / 2; i < size; i++ )
+		{
+			data[i] = (byte) (i % 64);
+		}
+		source = Files.createTempFile( "zipbench", ".bin" );
+		Files.write( source, data );
+
+		// The same bytes as FILES smaller files
+		int part = size / FILES;
+		for ( int i = 0; i < FILES; i++ )
+		{
+			Path file = Files.createTempFile( "zipbench", ".bin" );
+			Files.write( file, Arrays.copyOfRange( data, i * part, (i + 1) * part ) );
+			sources.put( file, "data-" + i + ".bin" );
+		}
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists( source );
+		for ( Path file : sources.keySet() )
+		{
+			Files.deleteIfExists( file );
+		}
+	}
+
+	// Each thread writes its own archive
+	@State( Scope.Thread )
+	public static class Target
+	{
+		Path out;
+
+		Path extracted;
+
+		@Setup( Level.Trial )
+		public void setup() throws IOException
+		{
+			out = Files.createTempFile( "zipbench", ".zip" );
+			extracted = Files.createTempFile( "zipbench", ".bin" );
+		}
+
+		@TearDown( Level.Trial )
+		public void tearDown() throws IOException
+		{
+			Files.deleteIfExists( out );
+			Files.deleteIfExists( extracted );
+		}
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public void zipFile( Target target ) throws IOException
+	{
+		Zip.zipFile( source, target.out, "data.bin" );
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public void zipFileContended( Target target ) throws IOException
+	{
+		Zip.zipFile( source, target.out, "data.bin" );
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public void zipFilesSequential( Target target ) throws IOException
+	{
+		Zip.zipFiles( sources, target.out, Runnable::run );
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public void zipFilesParallel( Target target ) throws IOException
+	{
+		Zip.zipFiles( sources, target.out );
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public void zipFileParallel( Target target ) throws IOException
+	{
+		Zip.zipFileParallel( source, target.out, "data.bin" );
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public void zipFileStored( Target target ) throws IOException
+	{
+		Zip.zipFile( source, target.out, "data.bin", ZipEntry.STORED );
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public void zipUnzipFileStored( Target target ) throws IOException
+	{
+		Zip.zipFile( source, target.out, "data.bin", ZipEntry.STORED );
+		Zip.unzipFile( target.out, Paths.get( "data.bin" ), target.extracted, true );
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An immutable weighted random collection which draws in constant time
+ * using Vose's alias method. Each slot holds one element, the probability
+ * of keeping it, and an alias to return otherwise, so a draw is a single
+ * random number and two array reads. There is no locking; draws use
+ * ThreadLocalRandom or a caller-supplied SplittableRandom, so any number
+ * of threads may draw concurrently.
+ * <p>
+ * Build one with the same add( numElements, weight, result ) calls as
+ * RandomCollection:
+ * <pre>
+ * AliasRandomCollection&lt;String&gt; c = AliasRandomCollection.&lt;String&gt;builder()
+ *     .add( 1, 3.0, "a" )
+ *     .add( 1, 1.0, "b" )
+ *     .build();
+ * </pre>
+ *
+ * @param <E> Element type
+ */
+public final class AliasRandomCollection<E>
+{
+	private final Object[] results;
+	private final double[] probability;
+	private final int[] alias;
+	private final int numInitialElements;
+
+	private AliasRandomCollection( List<E> results, List<Double> weights, int numInitialElements )
+	{
+		int n = results.size();
+		this.results = results.toArray();
+		this.probability = new double[n];
+		this.alias = new int[n];
+		this.numInitialElements = numInitialElements;
+
+		double total = 0;
+		for ( double weight : weights )
+		{
+			total += weight;
+		}
+
+		// Scale the weights so the average slot is exactly 1.0
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int numSmall = 0;
+		int numLarge = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			scaled[i] = weights.get( i ) * n / total;
+			if ( scaled[i] < 1.0 )
+			{
+				small[numSmall++] = i;
+			}
+			else
+			{
+				large[numLarge++] = i;
+			}
+		}
+
+		// Top up each small slot with the excess of a large one
+		while ( numSmall > 0 && numLarge > 0 )
+		{
+			int less = small[--numSmall];
+			int more = large[--numLarge];
+			probability[less] = scaled[less];
+			alias[less] = more;
+			scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+			if ( scaled[more] < 1.0 )
+			{
+				small[numSmall++] = more;
+			}
+			else
+			{
+				large[numLarge++] = more;
+			}
+		}
+
+		// Whatever is left is full up to rounding error, so alias itself
+		while ( numLarge > 0 )
+		{
+			int full = large[--numLarge];
+			probability[full] = 1.0;
+			alias[full] = full;
+		}
+		while ( numSmall > 0 )
+		{
+			int full = small[--numSmall];
+			probability[full] = 1.0;
+			alias[full] = full;
+		}
+	}
+
+	/**
+	 * @param <E> Element type
+	 * @return A new builder
+	 */
+	public static <E> Builder<E> builder()
+	{
+		return new Builder<>();
+	}
+
+	/**
+	 * Draw a weighted random element using the calling thread's random source
+	 *
+	 * @return Element, or null if the collection is empty
+	 */
+	public E next()
+	{
+		return results.length == 0 ? null : draw( ThreadLocalRandom.current().nextDouble() );
+	}
+
+	/**
+	 * Draw a weighted random element using the given random source, e.g.
+	 * one split off per worker for reproducible draws
+	 *
+	 * @param random Random source, not shared between threads
+	 * @return Element, or null if the collection is empty
+	 */
+	public E next( SplittableRandom random )
+	{
+		return results.length == 0 ? null : draw( random.nextDouble() );
+	}
+
+	// One uniform double picks both the slot and the coin toss
+	@SuppressWarnings( "unchecked" )
+	private E draw( double u )
+	{
+		double scaled = u * results.length;
+		int slot = Math.min( (int) scaled, results.length - 1 );
+		return (E) results[scaled - slot < probability[slot] ? slot : alias[slot]];
+	}
+
+	public long size()
+	{
+		return results.length;
+	}
+
+	/**
+	 * Return the number of initial elements in the collection
+	 *
+	 * @return int
+	 */
+	public int getNumInitialElements()
+	{
+		return numInitialElements;
+	}
+
+	/**
+	 * Collects weighted elements for an AliasRandomCollection.
+	 * Builders are not thread safe.
+	 *
+	 * @param <E> Element type
+	 */
+	public static final class Builder<E>
+	{
+		private final List<E> results = new ArrayList<>();
+		private final List<Double> weights = new ArrayList<>();
+		private int numInitialElements = 0;
+
+		private Builder()
+		{
+		}
+
+		public Builder<E> add( long numElements, double weight, E result )
+		{
+			if ( weight <= 0.00001 )
+			{
+				return this;
+			}
+			if ( numElements <= 0 )
+			{
+				return this;
+			}
+
+			numInitialElements += numElements;
+			results.add( result );
+			weights.add( weight );
+			return this;
+		}
+
+		public AliasRandomCollection<E> build()
+		{
+			return new AliasRandomCollection<>( results, weights, numInitialElements );
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Estimates the heap footprint of common cache keys and values: strings,
+ * boxed primitives, primitive arrays, collections, maps, and Jackson and
+ * Gson JSON trees, which covers parsed JSON documents from Jackson, Gson
+ * and json-path. Estimates assume a 64-bit JVM with compressed references and
+ * count UTF-16 characters, so they err on the high side. Other objects
+ * count as a bare object header, and nesting deeper than MAX_DEPTH is not
+ * counted. It is meant as a cache weigher, not an exact measurement.
+ */
+public class ByteSizeEstimator
+{
+	private static final int MAX_DEPTH = 32;
+
+	private static final long OBJECT = 16;
+	private static final long REFERENCE = 4;
+	private static final long ARRAY = 16;
+
+	// A HashMap.Node, or a LinkedHashMap.Entry rounded down
+	private static final long MAP_ENTRY = 32;
+
+	private ByteSizeEstimator()
+	{
+	}
+
+	/**
+	 * @return A weigher which estimates the bytes of a key and its value
+	 */
+	public static <K, V> ToLongBiFunction<K, V> weigher()
+	{
+		return ( k, v ) -> estimate( k ) + estimate( v );
+	}
+
+	/**
+	 * Estimate the bytes retained by an object
+	 *
+	 * @param o Object, may be null
+	 * @return Approximate size in bytes
+	 */
+	public static long estimate( Object o )
+	{
+		return estimate( o, 0 );
+	}
+
+	private static long estimate( Object o, int depth )
+	{
+		if ( o == null )
+		{
+			return 0;
+		}
+		if ( depth > MAX_DEPTH )
+		{
+			return OBJECT;
+		}
+		if ( o instanceof String )
+		{
+			// The String plus its byte[] value
+			return align( 24 ) + align( ARRAY + 2L * ((String) o).length() );
+		}
+		if ( o instanceof Number || o instanceof Boolean || o instanceof Character )
+		{
+			return o instanceof BigDecimal || o instanceof BigInteger ?
+				align( 40 ) + align( ARRAY + 4L * 4 ) :
+				align( OBJECT + 8 );
+		}
+		if ( o instanceof byte[] )
+		{
+			return align( ARRAY + ((byte[]) o).length );
+		}
+		if ( o instanceof char[] )
+		{
+			return align( ARRAY + 2L * ((char[]) o).length );
+		}
+		if ( o instanceof int[] )
+		{
+			return align( ARRAY + 4L * ((int[]) o).length );
+		}
+		if ( o instanceof long[] )
+		{
+			return align( ARRAY + 8L * ((long[]) o).length );
+		}
+		if ( o instanceof double[] )
+		{
+			return align( ARRAY + 8L * ((double[]) o).length );
+		}
+		if ( o instanceof Object[] )
+		{
+			Object[] array = (Object[]) o;
+			long size = align( ARRAY + REFERENCE * array.length );
+			for ( Object element : array )
+			{
+				size += estimate( element, depth + 1 );
+			}
+			return size;
+		}
+		if ( o instanceof Map )
+		{
+			Map<?, ?> map = (Map<?, ?>) o;
+
+			// The map, its table at the default load factor, and its entries
+			long size = align( 48 ) + align( ARRAY + REFERENCE * map.size() * 4 / 3 );
+			for ( Map.Entry<?, ?> entry : map.entrySet() )
+			{
+				size += MAP_ENTRY + estimate( entry.getKey(), depth + 1 ) + estimate( entry.getValue(), depth + 1 );
+			}
+			return size;
+		}
+		if ( o instanceof Collection )
+		{
+			Collection<?> collection = (Collection<?>) o;
+			long size = align( 24 ) + align( ARRAY + REFERENCE * collection.size() );
+			for ( Object element : collection )
+			{
+				size += estimate( element, depth + 1 );
+			}
+			return size;
+		}
+		if ( o instanceof JsonNode )
+		{
+			return estimate( (JsonNode) o, depth );
+		}
+		if ( o instanceof JsonElement )
+		{
+			return estimate( (JsonElement) o, depth );
+		}
+		return OBJECT;
+	}
+
+	private static long estimate( JsonElement element, int depth )
+	{
+		if ( element instanceof JsonObject )
+		{
+			// JsonObject wraps a LinkedTreeMap, with a header node and a node per field
+			JsonObject object = (JsonObject) element;
+			long size = align( OBJECT + REFERENCE ) + align( 48 ) + align( OBJECT + 8 * REFERENCE );
+			for ( Map.Entry<String, JsonElement> field : object.entrySet() )
+			{
+				size += align( OBJECT + 8 * REFERENCE ) + estimate( field.getKey(), depth + 1 ) + estimate( field.getValue(), depth + 1 );
+			}
+			return size;
+		}
+		if ( element instanceof JsonArray )
+		{
+			// JsonArray wraps an ArrayList
+			JsonArray array = (JsonArray) element;
+			long size = align( OBJECT + REFERENCE ) + align( 24 ) + align( ARRAY + REFERENCE * array.size() );
+			for ( JsonElement child : array )
+			{
+				size += estimate( child, depth + 1 );
+			}
+			return size;
+		}
+		if ( element instanceof JsonPrimitive )
+		{
+			// Parsed numbers keep their text until read, so count them as text
+			JsonPrimitive primitive = (JsonPrimitive) element;
+			return align( OBJECT + REFERENCE ) + (primitive.isBoolean() ? 0 : estimate( primitive.getAsString(), depth + 1 ));
+		}
+
+		// JsonNull is a shared instance
+		return 0;
+	}
+
+	private static long estimate( JsonNode node, int depth )
+	{
+		if ( node.isObject() )
+		{
+			// ObjectNode wraps a LinkedHashMap
+			long size = align( OBJECT + REFERENCE ) + align( 56 ) + align( ARRAY + REFERENCE * node.size() * 4 / 3 );
+			Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+			while ( fields.hasNext() )
+			{
+				Map.Entry<String, JsonNode> field = fields.next();
+				size += align( MAP_ENTRY + 8 ) + estimate( field.getKey(), depth + 1 ) + estimate( field.getValue(), depth + 1 );
+			}
+			return size;
+		}
+		if ( node.isArray() )
+		{
+			// ArrayNode wraps an ArrayList
+			long size = align( OBJECT + REFERENCE ) + align( 24 ) + align( ARRAY + REFERENCE * node.size() );
+			for ( JsonNode element : node )
+			{
+				size += estimate( element, depth + 1 );
+			}
+			return size;
+		}
+		if ( node.isTextual() )
+		{
+			return align( OBJECT + REFERENCE ) + estimate( node.textValue(), depth + 1 );
+		}
+		return align( OBJECT + 8 );
+	}
+
+	// Objects are padded to 8 bytes
+	private static long align( long size )
+	{
+		return (size + 7) & ~7L;
+	}
+}
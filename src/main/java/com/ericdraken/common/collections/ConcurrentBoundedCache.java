@@ -0,0 +1,654 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongBiFunction;
+
+import static com.ericdraken.common.strings.HumanReadable.humanReadableByteCount;
+
+/**
+ * A thread-safe bounded map which can replace a MaxSizeHashMap wrapped in
+ * Collections.synchronizedMap. Entries live in a ConcurrentHashMap, so
+ * reads never lock; a read only bumps a small frequency counter on the
+ * entry. Writes lock one of several segments, chosen by key hash, and each
+ * segment evicts its share of the entries with S3-FIFO: new keys enter a
+ * small FIFO, and only those read again while there are promoted to the
+ * main FIFO, which is swept like CLOCK. Keys evicted from the small FIFO
+ * are remembered in a ghost table so that they go straight to the main
+ * FIFO if they come back. One-hit wonders are evicted quickly and do not
+ * flush popular entries the way insertion-order eviction does.
+ * <p>
+ * Entries may be bounded by a total weight instead of their number, e.g.
+ * by their approximate size in bytes from ByteSizeEstimator, so that
+ * values of very different sizes can share a predictable memory budget.
+ * <p>
+ * Because each segment is bounded separately, the map may evict slightly
+ * before it reaches its maximum when keys are unevenly spread. An entry
+ * heavier than a segment's share of the maximum weight is evicted as
+ * soon as it is added, without displacing any other entry, and any value
+ * it replaced is removed. Null keys and values are not allowed.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class ConcurrentBoundedCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
+{
+	// Segments are only split while each keeps at least this many entries
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+
+	private final Segment<K, V>[] segments;
+
+	private final long maximumWeight;
+
+	private final ToLongBiFunction<? super K, ? super V> weigher;
+
+	private final BiConsumer<? super K, ? super V> evictionListener;
+
+	private final LongAdder weightedSize = new LongAdder();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maximumSize Maximum number of entries
+	 */
+	public ConcurrentBoundedCache( long maximumSize )
+	{
+		this( maximumSize, null, ( k, v ) -> {
+		} );
+	}
+
+	/**
+	 * @param maximumWeight Maximum total weight of the entries
+	 * @param weigher       Weight of an entry, which must not be negative
+	 *                      and is computed once when the entry is written
+	 */
+	public ConcurrentBoundedCache( long maximumWeight, ToLongBiFunction<? super K, ? super V> weigher )
+	{
+		this( maximumWeight, Objects.requireNonNull( weigher ), ( k, v ) -> {
+		} );
+	}
+
+	/**
+	 * @param maximumWeight    Maximum total weight of the entries
+	 * @param weigher          Weight of an entry, or null to bound the
+	 *                         number of entries
+	 * @param evictionListener Told of every entry evicted to stay within
+	 *                         bounds, but not of removals. It runs under a
+	 *                         segment lock, so it must be quick and must not
+	 *                         call back into this map.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public ConcurrentBoundedCache( long maximumWeight, ToLongBiFunction<? super K, ? super V> weigher,
+		BiConsumer<? super K, ? super V> evictionListener )
+	{
+		if ( maximumWeight <= 0 )
+		{
+			throw new IllegalArgumentException( "Maximum weight must be positive" );
+		}
+		this.maximumWeight = maximumWeight;
+		this.weigher = weigher == null ? ( k, v ) -> 1L : weigher;
+		this.evictionListener = Objects.requireNonNull( evictionListener );
+
+		// Assume typical weighed entries weigh a few hundred units, e.g. bytes
+		long typicalWeight = weigher == null ? 1L : 256L;
+
+		int n = 1;
+		int cores = Runtime.getRuntime().availableProcessors();
+		while ( n < cores * 2 && (long) n * 2 * MIN_SEGMENT_SIZE <= maximumWeight / typicalWeight )
+		{
+			n <<= 1;
+		}
+		segments = new Segment[n];
+		for ( int i = 0; i < n; i++ )
+		{
+			segments[i] = new Segment<>( this, maximumWeight / n + (i < maximumWeight % n ? 1 : 0) );
+		}
+	}
+
+	@Override
+	public V get( Object key )
+	{
+		Node<K, V> node = map.get( key );
+		if ( node == null )
+		{
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		node.touch();
+		return node.value;
+	}
+
+	@Override
+	public boolean containsKey( Object key )
+	{
+		return map.containsKey( key );
+	}
+
+	@Override
+	public V put( @Nonnull K key, @Nonnull V value )
+	{
+		return segmentFor( key ).put( key, value, false );
+	}
+
+	@Override
+	public V putIfAbsent( @Nonnull K key, @Nonnull V value )
+	{
+		return segmentFor( key ).put( key, value, true );
+	}
+
+	@Override
+	public V remove( Object key )
+	{
+		return segmentFor( key ).remove( key, null );
+	}
+
+	@Override
+	public boolean remove( @Nonnull Object key, Object value )
+	{
+		return value != null && segmentFor( key ).remove( key, value ) != null;
+	}
+
+	@Override
+	public boolean replace( @Nonnull K key, @Nonnull V oldValue, @Nonnull V newValue )
+	{
+		return segmentFor( key ).replace( key, oldValue, newValue ) != null;
+	}
+
+	@Override
+	public V replace( @Nonnull K key, @Nonnull V value )
+	{
+		return segmentFor( key ).replace( key, null, value );
+	}
+
+	@Override
+	public int size()
+	{
+		return map.size();
+	}
+
+	@Override
+	public void clear()
+	{
+		for ( Segment<K, V> segment : segments )
+		{
+			segment.clear();
+		}
+	}
+
+	/**
+	 * A view of the entries. Entries are snapshots and do not support
+	 * setValue, but the iterator supports remove.
+	 */
+	@Nonnull
+	@Override
+	public Set<Entry<K, V>> entrySet()
+	{
+		return new AbstractSet<>()
+		{
+			@Nonnull
+			@Override
+			public Iterator<Entry<K, V>> iterator()
+			{
+				Iterator<Node<K, V>> it = map.values().iterator();
+				return new Iterator<>()
+				{
+					private Node<K, V> last;
+
+					@Override
+					public boolean hasNext()
+					{
+						return it.hasNext();
+					}
+
+					@Override
+					public Entry<K, V> next()
+					{
+						last = it.next();
+						return new SimpleImmutableEntry<>( last.key, last.value );
+					}
+
+					@Override
+					public void remove()
+					{
+						if ( last == null )
+						{
+							throw new IllegalStateException();
+						}
+						ConcurrentBoundedCache.this.remove( last.key, last.value );
+						last = null;
+					}
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return map.size();
+			}
+		};
+	}
+
+	/**
+	 * @return The maximum total weight, which is the maximum number of
+	 * entries when there is no weigher
+	 */
+	public long getMaximumWeight()
+	{
+		return maximumWeight;
+	}
+
+	/**
+	 * @return The total weight of the entries, which is their number
+	 * when there is no weigher
+	 */
+	public long getWeightedSize()
+	{
+		return weightedSize.sum();
+	}
+
+	/**
+	 * @return The total weight in human-readable form, for weighers which
+	 * count bytes, e.g. "12.5 MiB"
+	 */
+	public String getWeightedSizeAsBytes()
+	{
+		return humanReadableByteCount( Math.max( 0, weightedSize.sum() ), false );
+	}
+
+	/**
+	 * @return The number of gets which found a value
+	 */
+	public long getHitCount()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of gets which found nothing
+	 */
+	public long getMissCount()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of entries evicted to stay within bounds
+	 */
+	public long getEvictionCount()
+	{
+		return evictions.sum();
+	}
+
+	/**
+	 * @return Hits over all gets, or 1.0 before the first get
+	 */
+	public double getHitRate()
+	{
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 1.0 : (double) h / total;
+	}
+
+	private Segment<K, V> segmentFor( Object key )
+	{
+		int h = key.hashCode();
+		return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+	}
+
+	// An immutable mapping with its place in the eviction queues
+	static final class Node<K, V>
+	{
+		static final int MAX_FREQUENCY = 3;
+
+		final K key;
+		final V value;
+		final long weight;
+
+		// Racy on purpose, a lost update only makes eviction slightly less exact
+		int frequency;
+
+		// Guarded by the segment lock
+		Node<K, V> prev;
+		Node<K, V> next;
+		boolean main;
+
+		Node( K key, V value, long weight )
+		{
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+
+		void touch()
+		{
+			if ( frequency < MAX_FREQUENCY )
+			{
+				frequency++;
+			}
+		}
+	}
+
+	// One lock, one share of the capacity and its own S3-FIFO queues
+	private static final class Segment<K, V>
+	{
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final ConcurrentBoundedCache<K, V> cache;
+
+		private final long capacity;
+		private final long smallCapacity;
+
+		// Circular lists with sentinels, the head is the newest entry
+		private final Node<K, V> small = sentinel();
+		private final Node<K, V> main = sentinel();
+		private long smallWeight = 0;
+		private long mainWeight = 0;
+		private int count = 0;
+
+		// Hashes of keys recently evicted from the small queue, remembering
+		// about as many as there are entries
+		private final LinkedHashSet<Integer> ghost = new LinkedHashSet<>();
+
+		Segment( ConcurrentBoundedCache<K, V> cache, long capacity )
+		{
+			this.cache = cache;
+			this.capacity = capacity;
+			this.smallCapacity = Math.max( 1, capacity / 10 );
+		}
+
+		private static <K, V> Node<K, V> sentinel()
+		{
+			Node<K, V> s = new Node<>( null, null, 0L );
+			s.prev = s;
+			s.next = s;
+			return s;
+		}
+
+		V put( K key, V value, boolean onlyIfAbsent )
+		{
+			Objects.requireNonNull( value );
+			lock.lock();
+			try
+			{
+				Node<K, V> old = cache.map.get( key );
+				if ( old != null && onlyIfAbsent )
+				{
+					return old.value;
+				}
+				Node<K, V> node = newNode( key, value );
+				if ( node.weight > capacity )
+				{
+					return rejectTooHeavy( old, node );
+				}
+				cache.map.put( key, node );
+				if ( old != null )
+				{
+					// An update keeps the place and history of the old entry
+					node.frequency = old.frequency;
+					replaceNode( old, node );
+				}
+				else
+				{
+					insert( node );
+				}
+				while ( smallWeight + mainWeight > capacity )
+				{
+					evict();
+				}
+				return old == null ? null : old.value;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		V replace( K key, V expected, V value )
+		{
+			Objects.requireNonNull( value );
+			lock.lock();
+			try
+			{
+				Node<K, V> old = cache.map.get( key );
+				if ( old == null || (expected != null && !expected.equals( old.value )) )
+				{
+					return null;
+				}
+				Node<K, V> node = newNode( key, value );
+				if ( node.weight > capacity )
+				{
+					rejectTooHeavy( old, node );
+					return old.value;
+				}
+				node.frequency = old.frequency;
+				cache.map.put( key, node );
+				replaceNode( old, node );
+				while ( smallWeight + mainWeight > capacity )
+				{
+					evict();
+				}
+				return old.value;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		V remove( Object key, Object expected )
+		{
+			lock.lock();
+			try
+			{
+				Node<K, V> old = cache.map.get( key );
+				if ( old == null || (expected != null && !expected.equals( old.value )) )
+				{
+					return null;
+				}
+				cache.map.remove( key );
+				unlink( old );
+				count--;
+				cache.weightedSize.add( -old.weight );
+				return old.value;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void clear()
+		{
+			lock.lock();
+			try
+			{
+				for ( Node<K, V> queue : List.of( small, main ) )
+				{
+					for ( Node<K, V> n = queue.next; n != queue; n = n.next )
+					{
+						cache.map.remove( n.key, n );
+					}
+					queue.prev = queue;
+					queue.next = queue;
+				}
+				cache.weightedSize.add( -(smallWeight + mainWeight) );
+				smallWeight = 0;
+				mainWeight = 0;
+				count = 0;
+				ghost.clear();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		// The entry could only fit by flushing the whole segment, so it is
+		// evicted straight away and the mapping it replaced goes with it
+		private V rejectTooHeavy( Node<K, V> old, Node<K, V> node )
+		{
+			if ( old != null )
+			{
+				cache.map.remove( old.key, old );
+				unlink( old );
+				count--;
+				cache.weightedSize.add( -old.weight );
+			}
+			cache.evictions.increment();
+			cache.evictionListener.accept( node.key, node.value );
+			return old == null ? null : old.value;
+		}
+
+		private Node<K, V> newNode( K key, V value )
+		{
+			long weight = cache.weigher.applyAsLong( key, value );
+			if ( weight < 0 )
+			{
+				throw new IllegalArgumentException( "Negative weight for " + key );
+			}
+			return new Node<>( key, value, weight );
+		}
+
+		// New keys go to the small queue unless they were evicted recently
+		private void insert( Node<K, V> node )
+		{
+			count++;
+			cache.weightedSize.add( node.weight );
+			if ( ghost.remove( node.key.hashCode() ) )
+			{
+				pushMain( node );
+			}
+			else
+			{
+				node.main = false;
+				linkHead( small, node );
+				smallWeight += node.weight;
+			}
+		}
+
+		private void remember( Node<K, V> node )
+		{
+			ghost.add( node.key.hashCode() );
+			if ( ghost.size() > Math.max( 16, count ) )
+			{
+				Iterator<Integer> it = ghost.iterator();
+				it.next();
+				it.remove();
+			}
+		}
+
+		private void evict()
+		{
+			while ( true )
+			{
+				if ( smallWeight > smallCapacity || main.next == main )
+				{
+					Node<K, V> tail = small.prev;
+					unlink( tail );
+					if ( tail.frequency > 1 )
+					{
+						pushMain( tail );
+						continue;
+					}
+					remember( tail );
+					drop( tail );
+					return;
+				}
+
+				Node<K, V> tail = main.prev;
+				if ( tail.frequency > 0 )
+				{
+					// Second chance, like a CLOCK hand passing over it
+					tail.frequency--;
+					unlink( tail );
+					pushMain( tail );
+					continue;
+				}
+				unlink( tail );
+				drop( tail );
+				return;
+			}
+		}
+
+		private void drop( Node<K, V> node )
+		{
+			count--;
+			cache.weightedSize.add( -node.weight );
+			cache.map.remove( node.key, node );
+			cache.evictions.increment();
+			cache.evictionListener.accept( node.key, node.value );
+		}
+
+		private void pushMain( Node<K, V> node )
+		{
+			node.main = true;
+			linkHead( main, node );
+			mainWeight += node.weight;
+		}
+
+		private static <K, V> void linkHead( Node<K, V> queue, Node<K, V> node )
+		{
+			node.prev = queue;
+			node.next = queue.next;
+			queue.next.prev = node;
+			queue.next = node;
+		}
+
+		private void unlink( Node<K, V> node )
+		{
+			node.prev.next = node.next;
+			node.next.prev = node.prev;
+			node.prev = null;
+			node.next = null;
+			if ( node.main )
+			{
+				mainWeight -= node.weight;
+			}
+			else
+			{
+				smallWeight -= node.weight;
+			}
+		}
+
+		private void replaceNode( Node<K, V> old, Node<K, V> node )
+		{
+			long delta = node.weight - old.weight;
+			if ( old.main )
+			{
+				mainWeight += delta;
+			}
+			else
+			{
+				smallWeight += delta;
+			}
+			cache.weightedSize.add( delta );
+			node.main = old.main;
+			node.prev = old.prev;
+			node.next = old.next;
+			old.prev.next = node;
+			old.next.prev = node;
+			old.prev = null;
+			old.next = null;
+		}
+	}
+}
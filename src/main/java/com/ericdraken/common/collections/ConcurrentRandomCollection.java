@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A thread-safe weighted random collection whose elements can be added,
+ * removed and re-weighted in O(log n) while other threads keep drawing.
+ * Weights live in a Fenwick (binary indexed) tree of primitive doubles,
+ * so a draw descends the tree instead of searching boxed cumulative keys.
+ * Draws are optimistic reads of a StampedLock and only fall back to a
+ * read lock when they race a writer; writers exclude each other.
+ * <p>
+ * Unlike RandomCollection, adding an element which is already present
+ * replaces its weight, and removing one does not rebuild the collection.
+ *
+ * @param <E> Element type
+ */
+public class ConcurrentRandomCollection<E>
+{
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final StampedLock lock = new StampedLock();
+
+	// Slot of each element, and the free slots left by removals
+	private final HashMap<E, Integer> slots = new HashMap<>();
+	private int[] free = new int[INITIAL_CAPACITY];
+	private int numFree = 0;
+
+	// 1-indexed Fenwick tree over weights[], both sized to a power of two
+	private double[] tree = new double[INITIAL_CAPACITY + 1];
+	private double[] weights = new double[INITIAL_CAPACITY];
+	private Object[] results = new Object[INITIAL_CAPACITY];
+	private int used = 0;
+
+	// Rounding error creeps into the tree with each update, so rebuild it
+	// from the exact weights once every capacity updates
+	private int updatesSinceRebuild = 0;
+
+	private int numInitialElements = 0;
+
+	public ConcurrentRandomCollection<E> add( long numElements, double weight, E result )
+	{
+		if ( weight <= 0.00001 )
+		{
+			return this;
+		}
+		if ( numElements <= 0 )
+		{
+			return this;
+		}
+
+		long stamp = lock.writeLock();
+		try
+		{
+			numInitialElements += numElements;
+			Integer slot = slots.get( result );
+			if ( slot == null )
+			{
+				slot = allocate();
+				slots.put( result, slot );
+				results[slot] = result;
+			}
+			update( slot, weight );
+			return this;
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	/**
+	 * Change the weight of an element already in the collection
+	 *
+	 * @param e      Element
+	 * @param weight New weight, which removes the element if not positive
+	 * @return true if the element was present
+	 */
+	public boolean setWeight( E e, double weight )
+	{
+		if ( weight <= 0.00001 )
+		{
+			return remove( e );
+		}
+
+		long stamp = lock.writeLock();
+		try
+		{
+			Integer slot = slots.get( e );
+			if ( slot == null )
+			{
+				return false;
+			}
+			update( slot, weight );
+			return true;
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	public boolean remove( E e )
+	{
+		long stamp = lock.writeLock();
+		try
+		{
+			Integer slot = slots.remove( e );
+			if ( slot == null )
+			{
+				return false;
+			}
+			results[slot] = null;
+			update( slot, 0 );
+			free[numFree++] = slot;
+
+			// Drop any rounding error left behind by the last element
+			if ( slots.isEmpty() )
+			{
+				Arrays.fill( tree, 0 );
+				updatesSinceRebuild = 0;
+			}
+			return true;
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	/**
+	 * Draw a weighted random element
+	 *
+	 * @return Element, or null if the collection is empty
+	 */
+	@SuppressWarnings( "unchecked" )
+	public E next()
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while ( true )
+		{
+			long stamp = lock.tryOptimisticRead();
+			Object result = null;
+			boolean empty = true;
+			if ( stamp != 0L )
+			{
+				try
+				{
+					empty = slots.isEmpty();
+					if ( !empty )
+					{
+						result = draw( tree, results, random.nextDouble() );
+					}
+				}
+				catch ( RuntimeException ignored )
+				{
+					// A writer swapped the arrays mid-draw, validate() fails below
+				}
+			}
+			if ( stamp == 0L || !lock.validate( stamp ) )
+			{
+				stamp = lock.readLock();
+				try
+				{
+					empty = slots.isEmpty();
+					result = empty ? null : draw( tree, results, random.nextDouble() );
+				}
+				finally
+				{
+					lock.unlockRead( stamp );
+				}
+			}
+			if ( empty || result != null )
+			{
+				return (E) result;
+			}
+			// Rounding error landed on an empty slot, draw again
+		}
+	}
+
+	// Descend the tree to the first slot whose cumulative weight exceeds the target
+	private static Object draw( double[] tree, Object[] results, double u )
+	{
+		int capacity = tree.length - 1;
+		double target = u * sum( tree, capacity );
+		int index = 0;
+		for ( int step = capacity; step > 0; step >>= 1 )
+		{
+			int next = index + step;
+			if ( next <= capacity && tree[next] <= target )
+			{
+				index = next;
+				target -= tree[next];
+			}
+		}
+		return index < results.length ? results[index] : null;
+	}
+
+	public long size()
+	{
+		long stamp = lock.readLock();
+		try
+		{
+			return slots.size();
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	/**
+	 * @return The sum of all weights
+	 */
+	public double getTotalWeight()
+	{
+		long stamp = lock.readLock();
+		try
+		{
+			return sum( tree, used );
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	/**
+	 * Return the number of initial elements in the collection
+	 *
+	 * @return int
+	 */
+	public int getNumInitialElements()
+	{
+		long stamp = lock.readLock();
+		try
+		{
+			return numInitialElements;
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	// Must hold the write lock
+	private int allocate()
+	{
+		if ( numFree > 0 )
+		{
+			return free[--numFree];
+		}
+		if ( used == weights.length )
+		{
+			grow();
+		}
+		return used++;
+	}
+
+	// Must hold the write lock
+	private void update( int slot, double weight )
+	{
+		double delta = weight - weights[slot];
+		weights[slot] = weight;
+		if ( ++updatesSinceRebuild >= weights.length )
+		{
+			rebuild( weights );
+			return;
+		}
+		for ( int i = slot + 1; i < tree.length; i += i & -i )
+		{
+			tree[i] += delta;
+		}
+	}
+
+	// Must hold the write lock. Doubles every array, then rebuilds the tree
+	private void grow()
+	{
+		int capacity = weights.length * 2;
+		weights = Arrays.copyOf( weights, capacity );
+		results = Arrays.copyOf( results, capacity );
+		free = Arrays.copyOf( free, capacity );
+		rebuild( weights );
+	}
+
+	// Must hold the write lock. Builds a fresh tree in O(n) and publishes it
+	private void rebuild( double[] weights )
+	{
+		double[] fresh = new double[weights.length + 1];
+		for ( int i = 1; i < fresh.length; i++ )
+		{
+			fresh[i] += weights[i - 1];
+			int parent = i + (i & -i);
+			if ( parent < fresh.length )
+			{
+				fresh[parent] += fresh[i];
+			}
+		}
+		tree = fresh;
+		updatesSinceRebuild = 0;
+	}
+
+	// Prefix sum of the first n slots
+	private static double sum( double[] tree, int n )
+	{
+		double sum = 0;
+		for ( int i = Math.min( n, tree.length - 1 ); i > 0; i -= i & -i )
+		{
+			sum += tree[i];
+		}
+		return sum;
+	}
+}
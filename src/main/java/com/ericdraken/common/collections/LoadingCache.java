@@ -0,0 +1,570 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import com.ericdraken.common.functional.CheckedFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongBiFunction;
+
+import static com.ericdraken.common.exceptions.ExceptionUtils.getMessage;
+
+/**
+ * A cache which computes missing values with a loader, built on a
+ * ConcurrentBoundedCache. Concurrent misses for the same key share a
+ * single load instead of each computing the value. Entries may expire
+ * a fixed time after they were written or last read; expired entries are
+ * never returned, and are reclaimed by a hierarchical timing wheel which
+ * advances as the cache is used, so there are no per-entry timers and no
+ * cleanup thread. With refreshAfterWrite, a read of an entry older than
+ * the refresh interval still returns it at once but reloads it in the
+ * background, so hot keys never miss.
+ * <p>
+ * <pre>
+ * LoadingCache&lt;String, InetAddress&gt; dns = LoadingCache.&lt;String, InetAddress&gt;builder()
+ *     .maximumSize( 10_000 )
+ *     .expireAfterWrite( Duration.ofMinutes( 5 ) )
+ *     .refreshAfterWrite( Duration.ofMinutes( 4 ) )
+ *     .build( InetAddress::getByName );
+ * </pre>
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class LoadingCache<K, V>
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	// The wheel's finest bucket, there is no point advancing it more often
+	private static final long ADVANCE_NANOS = 1L << 30;
+
+	// About 36 years, so that adding a duration to a time cannot overflow
+	private static final Duration MAX_DURATION = Duration.ofNanos( Long.MAX_VALUE / 8 );
+
+	private final ConcurrentBoundedCache<K, Entry<K, V>> cache;
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+	private final CheckedFunction<? super K, ? extends V> loader;
+
+	private final long expireAfterWriteNanos;
+	private final long expireAfterAccessNanos;
+	private final long refreshAfterWriteNanos;
+	private final Executor refreshExecutor;
+
+	private final LongSupplier ticker;
+
+	// Null when nothing expires
+	private final TimingWheel wheel;
+	private final ReentrantLock wheelLock = new ReentrantLock();
+	private volatile long lastAdvance;
+
+	// Entries evicted for size, whose timers are cancelled under the wheel
+	// lock so the wheel does not keep them reachable until they expire
+	private final ConcurrentLinkedQueue<Entry<K, V>> evictedTimers = new ConcurrentLinkedQueue<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	private LoadingCache( Builder<K, V> builder, CheckedFunction<? super K, ? extends V> loader )
+	{
+		this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+		this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+		boolean expires = expireAfterWriteNanos > 0 || expireAfterAccessNanos > 0;
+
+		ToLongBiFunction<? super K, ? super V> weigher = builder.weigher;
+		this.cache = new ConcurrentBoundedCache<>( builder.maximumSize,
+			weigher == null ? null : ( k, e ) -> weigher.applyAsLong( k, e.value ),
+			expires ? ( k, e ) -> evicted( e ) : ( k, e ) -> {
+			} );
+		this.loader = loader;
+		this.refreshAfterWriteNanos = builder.refreshAfterWriteNanos;
+		this.refreshExecutor = builder.refreshExecutor;
+
+		// Count from zero so the wheel only ever sees non-negative times
+		LongSupplier source = builder.ticker;
+		long origin = source.getAsLong();
+		this.ticker = () -> source.getAsLong() - origin;
+		this.wheel = expires ? new TimingWheel( 0L ) : null;
+	}
+
+	public static <K, V> Builder<K, V> builder()
+	{
+		return new Builder<>();
+	}
+
+	/**
+	 * Get the value for a key, loading it if missing or expired. If another
+	 * thread is already loading the key, wait for its result instead.
+	 *
+	 * @param key Key
+	 * @return Value, or null if the loader returned null
+	 * @throws ExecutionException if the loader threw
+	 */
+	public V get( K key ) throws ExecutionException
+	{
+		long now = ticker.getAsLong();
+		Entry<K, V> entry = cache.get( key );
+		if ( entry != null && !entry.isExpired( now ) )
+		{
+			hits.increment();
+			entry.accessed = now;
+			if ( refreshAfterWriteNanos > 0 && now - entry.written >= refreshAfterWriteNanos )
+			{
+				refresh( entry );
+			}
+			maybeAdvance( now );
+			return entry.value;
+		}
+		misses.increment();
+		return load( key );
+	}
+
+	/**
+	 * @param key Key
+	 * @return Value, or null if missing or expired
+	 */
+	public V getIfPresent( K key )
+	{
+		long now = ticker.getAsLong();
+		Entry<K, V> entry = cache.get( key );
+		if ( entry != null && !entry.isExpired( now ) )
+		{
+			hits.increment();
+			entry.accessed = now;
+			return entry.value;
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Store a value without calling the loader
+	 *
+	 * @param key   Key
+	 * @param value Value
+	 */
+	public void put( K key, V value )
+	{
+		store( key, value, ticker.getAsLong() );
+	}
+
+	public void invalidate( K key )
+	{
+		Entry<K, V> old = cache.remove( key );
+		if ( old != null && wheel != null )
+		{
+			wheelLock.lock();
+			try
+			{
+				wheel.cancel( old );
+			}
+			finally
+			{
+				wheelLock.unlock();
+			}
+		}
+	}
+
+	public void invalidateAll()
+	{
+		if ( wheel == null )
+		{
+			cache.clear();
+			return;
+		}
+		wheelLock.lock();
+		try
+		{
+			cache.clear();
+			wheel.clear();
+		}
+		finally
+		{
+			wheelLock.unlock();
+		}
+	}
+
+	/**
+	 * Reclaim expired entries now rather than on the next write
+	 */
+	public void cleanUp()
+	{
+		if ( wheel == null )
+		{
+			return;
+		}
+		wheelLock.lock();
+		try
+		{
+			advance( ticker.getAsLong() );
+		}
+		finally
+		{
+			wheelLock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of entries, which may include some expired but
+	 * not yet reclaimed
+	 */
+	public long size()
+	{
+		return cache.size();
+	}
+
+	public long getHitCount()
+	{
+		return hits.sum();
+	}
+
+	public long getMissCount()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of times the loader ran, including refreshes
+	 */
+	public long getLoadCount()
+	{
+		return loads.sum();
+	}
+
+	/**
+	 * @return The number of entries reclaimed because they expired
+	 */
+	public long getExpiredCount()
+	{
+		return expirations.sum();
+	}
+
+	/**
+	 * @return The total weight of the entries, or their number without a weigher
+	 */
+	public long getWeightedSize()
+	{
+		return cache.getWeightedSize();
+	}
+
+	/**
+	 * @return The number of entries evicted to stay within the maximum size
+	 */
+	public long getEvictionCount()
+	{
+		return cache.getEvictionCount();
+	}
+
+	// Single-flight: the first thread to miss loads, the others wait on it
+	private V load( K key ) throws ExecutionException
+	{
+		CompletableFuture<V> future = new CompletableFuture<>();
+		CompletableFuture<V> existing = loading.putIfAbsent( key, future );
+		if ( existing != null )
+		{
+			try
+			{
+				return existing.join();
+			}
+			catch ( CompletionException e )
+			{
+				throw new ExecutionException( e.getCause() );
+			}
+		}
+
+		try
+		{
+			// Another thread may have stored the value since we missed
+			long now = ticker.getAsLong();
+			Entry<K, V> entry = cache.get( key );
+			if ( entry != null && !entry.isExpired( now ) )
+			{
+				future.complete( entry.value );
+				return entry.value;
+			}
+
+			loads.increment();
+			V value = loader.apply( key );
+			if ( value != null )
+			{
+				store( key, value, ticker.getAsLong() );
+			}
+			future.complete( value );
+			return value;
+		}
+		catch ( Exception e )
+		{
+			future.completeExceptionally( e );
+			throw new ExecutionException( e );
+		}
+		catch ( Error e )
+		{
+			future.completeExceptionally( e );
+			throw e;
+		}
+		finally
+		{
+			loading.remove( key, future );
+		}
+	}
+
+	private void refresh( Entry<K, V> entry )
+	{
+		if ( !entry.refreshing.compareAndSet( false, true ) )
+		{
+			return;
+		}
+		refreshExecutor.execute( () -> {
+			try
+			{
+				loads.increment();
+				V value = loader.apply( entry.key );
+				if ( value != null )
+				{
+					Entry<K, V> fresh = new Entry<>( this, entry.key, value, ticker.getAsLong() );
+					if ( cache.replace( entry.key, entry, fresh ) )
+					{
+						scheduled( entry, fresh, fresh.written );
+					}
+				}
+			}
+			catch ( Exception e )
+			{
+				logger.warn( "Could not refresh {}: {}", entry.key, getMessage( e ) );
+			}
+			finally
+			{
+				entry.refreshing.set( false );
+			}
+		} );
+	}
+
+	private void store( K key, V value, long now )
+	{
+		Entry<K, V> entry = new Entry<>( this, key, value, now );
+		Entry<K, V> old = cache.put( key, entry );
+		scheduled( old, entry, now );
+	}
+
+	// Move the timer from the replaced entry, if any, to its replacement
+	private void scheduled( Entry<K, V> old, Entry<K, V> entry, long now )
+	{
+		if ( wheel == null )
+		{
+			return;
+		}
+		wheelLock.lock();
+		try
+		{
+			if ( old != null )
+			{
+				wheel.cancel( old );
+			}
+			if ( !entry.evicted )
+			{
+				wheel.schedule( entry );
+			}
+			advance( now );
+		}
+		finally
+		{
+			wheelLock.unlock();
+		}
+	}
+
+	// Called under a segment lock, where taking the wheel lock could deadlock
+	// with an expiry removing from the cache, so the timer is cancelled later.
+	// The flag stops a racing scheduled() from adding the timer back.
+	private void evicted( Entry<K, V> entry )
+	{
+		entry.evicted = true;
+		evictedTimers.add( entry );
+	}
+
+	// Reads only advance the wheel once per bucket, and never wait for it
+	private void maybeAdvance( long now )
+	{
+		if ( wheel != null && now - lastAdvance >= ADVANCE_NANOS && wheelLock.tryLock() )
+		{
+			try
+			{
+				advance( now );
+			}
+			finally
+			{
+				wheelLock.unlock();
+			}
+		}
+	}
+
+	// Must hold the wheel lock
+	private void advance( long now )
+	{
+		Entry<K, V> entry;
+		while ( (entry = evictedTimers.poll()) != null )
+		{
+			wheel.cancel( entry );
+		}
+		lastAdvance = now;
+		wheel.advance( now );
+	}
+
+	// A value with its timestamps, and its timer in the wheel
+	private static final class Entry<K, V> extends TimingWheel.Timer
+	{
+		final LoadingCache<K, V> owner;
+		final K key;
+		final V value;
+		final long written;
+		volatile long accessed;
+		volatile boolean evicted;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Entry( LoadingCache<K, V> owner, K key, V value, long now )
+		{
+			this.owner = owner;
+			this.key = key;
+			this.value = value;
+			this.written = now;
+			this.accessed = now;
+		}
+
+		boolean isExpired( long now )
+		{
+			return (owner.expireAfterWriteNanos > 0 || owner.expireAfterAccessNanos > 0) && deadline() - now <= 0;
+		}
+
+		// Reads move the access deadline without touching the wheel
+		@Override
+		long deadline()
+		{
+			long deadline = Long.MAX_VALUE;
+			if ( owner.expireAfterWriteNanos > 0 )
+			{
+				deadline = written + owner.expireAfterWriteNanos;
+			}
+			if ( owner.expireAfterAccessNanos > 0 )
+			{
+				deadline = Math.min( deadline, accessed + owner.expireAfterAccessNanos );
+			}
+			return deadline;
+		}
+
+		@Override
+		void expire()
+		{
+			if ( owner.cache.remove( key, this ) )
+			{
+				owner.expirations.increment();
+			}
+		}
+	}
+
+	/**
+	 * Configures a LoadingCache. Nothing expires or refreshes by default,
+	 * and the size is unbounded.
+	 *
+	 * @param <K> Key type
+	 * @param <V> Value type
+	 */
+	public static final class Builder<K, V>
+	{
+		private long maximumSize = Long.MAX_VALUE;
+		private ToLongBiFunction<? super K, ? super V> weigher = null;
+		private long expireAfterWriteNanos = 0;
+		private long expireAfterAccessNanos = 0;
+		private long refreshAfterWriteNanos = 0;
+		private Executor refreshExecutor = ForkJoinPool.commonPool();
+		private LongSupplier ticker = System::nanoTime;
+
+		private Builder()
+		{
+		}
+
+		public Builder<K, V> maximumSize( long maximumSize )
+		{
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		/**
+		 * Bound the cache by total weight instead of by entry count
+		 *
+		 * @param maximumWeight Maximum total weight
+		 * @param weigher       Weight of an entry, e.g. ByteSizeEstimator.weigher()
+		 */
+		public Builder<K, V> maximumWeight( long maximumWeight, ToLongBiFunction<? super K, ? super V> weigher )
+		{
+			this.maximumSize = maximumWeight;
+			this.weigher = weigher;
+			return this;
+		}
+
+		public Builder<K, V> expireAfterWrite( Duration duration )
+		{
+			this.expireAfterWriteNanos = positiveNanos( duration );
+			return this;
+		}
+
+		public Builder<K, V> expireAfterAccess( Duration duration )
+		{
+			this.expireAfterAccessNanos = positiveNanos( duration );
+			return this;
+		}
+
+		public Builder<K, V> refreshAfterWrite( Duration duration )
+		{
+			this.refreshAfterWriteNanos = positiveNanos( duration );
+			return this;
+		}
+
+		/**
+		 * @param executor Runs background refreshes, the common pool by default
+		 */
+		public Builder<K, V> refreshExecutor( Executor executor )
+		{
+			this.refreshExecutor = executor;
+			return this;
+		}
+
+		// For tests which need to control time
+		Builder<K, V> ticker( LongSupplier ticker )
+		{
+			this.ticker = ticker;
+			return this;
+		}
+
+		public LoadingCache<K, V> build( CheckedFunction<? super K, ? extends V> loader )
+		{
+			return new LoadingCache<>( this, loader );
+		}
+
+		private static long positiveNanos( Duration duration )
+		{
+			if ( duration.isNegative() || duration.isZero() )
+			{
+				throw new IllegalArgumentException( "Duration must be positive" );
+			}
+			return duration.compareTo( MAX_DURATION ) > 0 ? MAX_DURATION.toNanos() : duration.toNanos();
+		}
+	}
+}
@@ -4,15 +4,23 @@
 
 package com.ericdraken.common.collections;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 // REF: https://stackoverflow.com/a/6409791/1938889
 // Improved by Eric Draken
 public class RandomCollection<E>
 {
+	// Draws per lock acquisition when streaming
+	private static final int STREAM_BATCH = 4096;
+
 	private final TreeMap<Double, E> map = new TreeMap<>();
 	private final HashMap<E, Double> hashMap = new HashMap<>();
 	private final Random random;
@@ -65,6 +73,98 @@ public class RandomCollection<E>
 		return val != null ? val.getValue() : null;
 	}
 
+	/**
+	 * Draw a batch of weighted random elements
+	 *
+	 * @param n Number of draws
+	 * @return List of n elements, all null if the collection is empty
+	 */
+	@SuppressWarnings( "unchecked" )
+	public final List<E> next( int n )
+	{
+		E[] out = (E[]) new Object[n];
+		fill( out );
+		return Arrays.asList( out );
+	}
+
+	/**
+	 * Fill an array with weighted random elements. The lock is taken once
+	 * and the cumulative weights are swept once for the whole batch, by
+	 * drawing the random points already sorted and then shuffling the
+	 * results so their order carries no bias.
+	 *
+	 * @param out Array to fill
+	 */
+	public final synchronized void fill( E[] out )
+	{
+		int n = out.length;
+		if ( map.isEmpty() )
+		{
+			Arrays.fill( out, null );
+			return;
+		}
+
+		// Sorted uniform points from normalized exponential spacings, in O(n)
+		double[] points = new double[n];
+		double sum = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			sum -= Math.log( 1.0 - random.nextDouble() );
+			points[i] = sum;
+		}
+		sum -= Math.log( 1.0 - random.nextDouble() );
+		double scale = total / sum;
+
+		Iterator<Map.Entry<Double, E>> it = map.entrySet().iterator();
+		Map.Entry<Double, E> entry = it.next();
+		for ( int i = 0; i < n; i++ )
+		{
+			double value = points[i] * scale;
+			while ( entry.getKey() <= value && it.hasNext() )
+			{
+				entry = it.next();
+			}
+			out[i] = entry.getValue();
+		}
+
+		for ( int i = n - 1; i > 0; i-- )
+		{
+			int j = random.nextInt( i + 1 );
+			E tmp = out[i];
+			out[i] = out[j];
+			out[j] = tmp;
+		}
+	}
+
+	/**
+	 * Stream weighted random elements, drawn in batches
+	 *
+	 * @param n Number of draws
+	 * @return Stream of n elements
+	 */
+	public final Stream<E> stream( long n )
+	{
+		long batches = (n + STREAM_BATCH - 1) / STREAM_BATCH;
+		return LongStream.range( 0, batches )
+			.mapToObj( b -> next( (int) Math.min( STREAM_BATCH, n - b * STREAM_BATCH ) ) )
+			.flatMap( List::stream );
+	}
+
+	/**
+	 * Draw k distinct elements by weight, without replacement and without
+	 * modifying the collection. Uses a WeightedReservoir, so it costs
+	 * O(size log k) instead of a rebuild per removed element.
+	 *
+	 * @param k Number of elements
+	 * @return Up to k distinct elements in the order they were drawn
+	 */
+	public final synchronized List<E> sample( int k )
+	{
+		WeightedReservoir<E> reservoir = new WeightedReservoir<>( k, random );
+		hashMap.forEach( reservoir::offer );
+		return reservoir.getSample();
+	}
+
 	public final synchronized boolean remove( E e )
 	{
 		// Rebuild the collection
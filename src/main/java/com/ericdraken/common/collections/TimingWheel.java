@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+/**
+ * A hierarchical timing wheel which expires timers in amortized O(1)
+ * without a thread or a scheduled task per timer. Level 0 has 64 buckets
+ * of about a second, level 1 has 64 buckets of about a minute, then
+ * about an hour, a day, and an overflow bucket. As time advances, the
+ * buckets passed over are emptied: due timers expire and the rest cascade
+ * into finer buckets. A timer may push its deadline later after being
+ * scheduled, in which case it is simply rescheduled when its bucket comes
+ * up, so extending a deadline costs nothing.
+ * <p>
+ * Times are nanoseconds from an arbitrary non-negative origin. The wheel
+ * is not thread safe.
+ */
+final class TimingWheel
+{
+	private static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+
+	// Each level's buckets span 2^SHIFT nanos, and a level spans one bucket of the next
+	private static final int[] SHIFT = { 30, 36, 42, 47, 49 };
+
+	private final Timer[][] wheel;
+
+	private long nanos;
+
+	/**
+	 * A timer linked into one bucket at a time
+	 */
+	abstract static class Timer
+	{
+		Timer prev;
+		Timer next;
+
+		/**
+		 * @return The current deadline, which may have moved later
+		 */
+		abstract long deadline();
+
+		/**
+		 * Called once the deadline has passed and the timer is unlinked
+		 */
+		abstract void expire();
+	}
+
+	private static final class Sentinel extends Timer
+	{
+		Sentinel()
+		{
+			prev = this;
+			next = this;
+		}
+
+		@Override
+		long deadline()
+		{
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		void expire()
+		{
+		}
+	}
+
+	TimingWheel( long nanos )
+	{
+		this.nanos = nanos;
+		wheel = new Timer[BUCKETS.length][];
+		for ( int i = 0; i < BUCKETS.length; i++ )
+		{
+			wheel[i] = new Timer[BUCKETS[i]];
+			for ( int j = 0; j < BUCKETS[i]; j++ )
+			{
+				wheel[i][j] = new Sentinel();
+			}
+		}
+	}
+
+	void schedule( Timer timer )
+	{
+		Timer bucket = findBucket( timer.deadline() );
+		timer.prev = bucket.prev;
+		timer.next = bucket;
+		bucket.prev.next = timer;
+		bucket.prev = timer;
+	}
+
+	void cancel( Timer timer )
+	{
+		if ( timer.next != null )
+		{
+			timer.prev.next = timer.next;
+			timer.next.prev = timer.prev;
+			timer.prev = null;
+			timer.next = null;
+		}
+	}
+
+	// Unlinks every timer, so cancelling one afterwards does nothing
+	void clear()
+	{
+		for ( Timer[] buckets : wheel )
+		{
+			for ( Timer bucket : buckets )
+			{
+				Timer timer = bucket.next;
+				while ( timer != bucket )
+				{
+					Timer next = timer.next;
+					timer.prev = null;
+					timer.next = null;
+					timer = next;
+				}
+				bucket.prev = bucket;
+				bucket.next = bucket;
+			}
+		}
+	}
+
+	/**
+	 * Advance the wheel, expiring every timer whose deadline has passed
+	 * and whose bucket was passed over
+	 *
+	 * @param now Current time
+	 */
+	void advance( long now )
+	{
+		long previous = nanos;
+		if ( now - previous <= 0 )
+		{
+			return;
+		}
+		nanos = now;
+		for ( int i = 0; i < SHIFT.length; i++ )
+		{
+			long previousTicks = previous >>> SHIFT[i];
+			long currentTicks = now >>> SHIFT[i];
+			if ( currentTicks - previousTicks <= 0 )
+			{
+				break;
+			}
+			expire( i, previousTicks, currentTicks - previousTicks );
+		}
+	}
+
+	private void expire( int level, long previousTicks, long delta )
+	{
+		Timer[] buckets = wheel[level];
+		int mask = buckets.length - 1;
+
+		// Level 0 empties the buckets it has left. Coarser levels cascade the
+		// buckets they enter, or a timer could fire a whole bucket span late
+		long first = level == 0 ? previousTicks : previousTicks + 1;
+		int start = delta >= buckets.length ? 0 : (int) (first & mask);
+		int end = start + (int) Math.min( delta, buckets.length );
+		for ( int i = start; i < end; i++ )
+		{
+			// Detach the whole bucket first, since timers may land back in it
+			Timer sentinel = buckets[i & mask];
+			Timer timer = sentinel.next;
+			sentinel.prev = sentinel;
+			sentinel.next = sentinel;
+			while ( timer != sentinel )
+			{
+				Timer next = timer.next;
+				timer.prev = null;
+				timer.next = null;
+				if ( timer.deadline() - nanos <= 0 )
+				{
+					timer.expire();
+				}
+				else
+				{
+					schedule( timer );
+				}
+				timer = next;
+			}
+		}
+	}
+
+	private Timer findBucket( long deadline )
+	{
+		// Overdue timers go in the current bucket to expire on the next tick
+		if ( deadline - nanos < 0 )
+		{
+			deadline = nanos;
+		}
+		long duration = deadline - nanos;
+		int last = wheel.length - 1;
+		for ( int i = 0; i < last; i++ )
+		{
+			if ( duration < (1L << SHIFT[i + 1]) )
+			{
+				long ticks = deadline >>> SHIFT[i];
+				return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+			}
+		}
+		return wheel[last][0];
+	}
+}
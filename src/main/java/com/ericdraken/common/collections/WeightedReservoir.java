@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a weighted random sample of at most k distinct items from a stream
+ * of any length, in O(k) memory and O(log k) per item, using the A-Res
+ * algorithm of Efraimidis and Spirakis. Each item gets the key u^(1/w) for
+ * a uniform u, and the reservoir is the k largest keys seen so far, which
+ * is the same as drawing k items without replacement by weight.
+ * <p>
+ * Reservoirs are not thread safe.
+ *
+ * @param <E> Item type
+ */
+public class WeightedReservoir<E>
+{
+	private final int k;
+
+	private final Random random;
+
+	// Smallest key on top, so it is the one to evict
+	private final PriorityQueue<Keyed<E>> heap;
+
+	private long count = 0;
+
+	/**
+	 * @param k Sample size
+	 */
+	public WeightedReservoir( int k )
+	{
+		this( k, null );
+	}
+
+	/**
+	 * @param k      Sample size
+	 * @param random Random source, or null for ThreadLocalRandom
+	 */
+	public WeightedReservoir( int k, Random random )
+	{
+		if ( k < 0 )
+		{
+			throw new IllegalArgumentException( "Sample size must not be negative" );
+		}
+		this.k = k;
+		this.random = random;
+		this.heap = new PriorityQueue<>( Math.max( 1, k ) );
+	}
+
+	/**
+	 * Sample k items from an iterator without materializing it
+	 *
+	 * @param items  Items
+	 * @param weight Weight of each item, items with no weight are skipped
+	 * @param k      Sample size
+	 * @return Up to k items, highest key first
+	 */
+	public static <E> List<E> sample( Iterator<E> items, ToDoubleFunction<? super E> weight, int k )
+	{
+		WeightedReservoir<E> reservoir = new WeightedReservoir<>( k );
+		items.forEachRemaining( item -> reservoir.offer( item, weight.applyAsDouble( item ) ) );
+		return reservoir.getSample();
+	}
+
+	/**
+	 * Sample k items from a sequential stream without materializing it
+	 *
+	 * @param items  Items
+	 * @param weight Weight of each item, items with no weight are skipped
+	 * @param k      Sample size
+	 * @return Up to k items, highest key first
+	 */
+	public static <E> List<E> sample( Stream<E> items, ToDoubleFunction<? super E> weight, int k )
+	{
+		return sample( items.sequential().iterator(), weight, k );
+	}
+
+	/**
+	 * Offer an item to the reservoir
+	 *
+	 * @param item   Item
+	 * @param weight Weight, the item is skipped if not positive
+	 * @return true if the item is in the sample, for now
+	 */
+	public boolean offer( E item, double weight )
+	{
+		if ( !(weight > 0) || k == 0 )
+		{
+			return false;
+		}
+		count++;
+
+		// log( u ) / w orders the same as u^(1/w) without underflowing
+		double u = random != null ? random.nextDouble() : ThreadLocalRandom.current().nextDouble();
+		double key = Math.log( 1.0 - u ) / weight;
+		if ( heap.size() < k )
+		{
+			heap.add( new Keyed<>( key, item ) );
+			return true;
+		}
+		if ( key > heap.peek().key )
+		{
+			heap.poll();
+			heap.add( new Keyed<>( key, item ) );
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return The sample, highest key first, which is also the order of
+	 * drawing without replacement
+	 */
+	public List<E> getSample()
+	{
+		List<Keyed<E>> keyed = new ArrayList<>( heap );
+		keyed.sort( Collections.reverseOrder() );
+		List<E> sample = new ArrayList<>( keyed.size() );
+		keyed.forEach( x -> sample.add( x.item ) );
+		return sample;
+	}
+
+	/**
+	 * @return The number of weighted items offered so far
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	private static final class Keyed<E> implements Comparable<Keyed<E>>
+	{
+		final double key;
+		final E item;
+
+		Keyed( double key, E item )
+		{
+			this.key = key;
+			this.item = item;
+		}
+
+		@Override
+		public int compareTo( Keyed<E> o )
+		{
+			return Double.compare( key, o.key );
+		}
+	}
+}
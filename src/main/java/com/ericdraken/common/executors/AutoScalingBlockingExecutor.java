@@ -5,10 +5,25 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AutoScalingBlockingExecutor extends BlockingExecutor
 {
+	// Percentile of the latency window compared against the target
+	static final double PERCENTILE = 95.0;
+
+	// Fewer completions than this in the window leave the pool alone
+	static final int MIN_SAMPLES = 5;
+
+	// Multiplicative decrease applied when the window is too slow
+	static final double DECREASE_FACTOR = 0.75;
+
+	// Number of ticks in the sliding latency window
+	private static final int WINDOW_TICKS = 10;
+
 	private final ConcurrentHashMap<Thread, Long> timings;
 
 	private final int threadTimeoutMs;
@@ -17,6 +32,14 @@ public class AutoScalingBlockingExecutor extends BlockingExecutor
 
 	private final int maxPoolSize;
 
+	// Only used by the latency-window controller, null otherwise
+	private final RollingLatencyHistogram latencies;
+
+	private final ScheduledExecutorService ticker;
+
+	// Permits still to be withheld from completing tasks to shrink the pool
+	private final AtomicInteger withheld = new AtomicInteger();
+
 	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
 
 	/**
@@ -29,24 +52,59 @@ public class AutoScalingBlockingExecutor extends BlockingExecutor
 	 * @param poolSize the number of the threads in the pool
 	 */
 	AutoScalingBlockingExecutor( int poolSize, int threadTimeoutMs )
+	{
+		this( poolSize, threadTimeoutMs, 0L );
+	}
+
+	/**
+	 * Creates a BlockingExecutor which will block and prevent further
+	 * submission to the pool when the specified queue size has been reached.
+	 * Task latencies are collected in a sliding window of the last ten ticks,
+	 * and on every tick the pool is resized with additive-increase,
+	 * multiplicative-decrease: if the 95th percentile latency exceeds
+	 * targetLatencyMs the pool shrinks by a quarter, otherwise it grows by
+	 * one thread up to poolSize. A single slow task cannot shrink the pool,
+	 * and completing tasks never take a lock.
+	 *
+	 * @param poolSize        the maximum number of the threads in the pool
+	 * @param targetLatencyMs the 95th percentile task latency to stay under
+	 * @param tickMs          how often to resize the pool
+	 */
+	public AutoScalingBlockingExecutor( int poolSize, int targetLatencyMs, long tickMs )
 	{
 		// Both min and max are the same, only the number of
 		// permits available changes, and core threads can die
 		super( poolSize, "AutoScalingBlockingExecutor" );
 
 		// Time to wait idle before reclaiming a thread
-		setKeepAliveTime( Math.min( threadTimeoutMs * 2, Integer.MAX_VALUE ), TimeUnit.MILLISECONDS );
+		setKeepAliveTime( Math.min( targetLatencyMs * 2L, Integer.MAX_VALUE ), TimeUnit.MILLISECONDS );
 		this.allowCoreThreadTimeOut( true );
 
 		timings = new ConcurrentHashMap<>( poolSize );
-		this.threadTimeoutMs = threadTimeoutMs > 0 ? threadTimeoutMs : Integer.MAX_VALUE;
+		this.threadTimeoutMs = targetLatencyMs > 0 ? targetLatencyMs : Integer.MAX_VALUE;
 		currPoolSize = poolSize;
 		maxPoolSize = poolSize;
+
+		if ( tickMs > 0 )
+		{
+			latencies = new RollingLatencyHistogram( WINDOW_TICKS );
+			ticker = Executors.newSingleThreadScheduledExecutor( r -> {
+				Thread t = new Thread( r, "AutoScalingBlockingExecutor-ticker" );
+				t.setDaemon( true );
+				return t;
+			} );
+			ticker.scheduleWithFixedDelay( this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS );
+		}
+		else
+		{
+			latencies = null;
+			ticker = null;
+		}
 	}
 
 	int getCurrPoolSize()
 	{
-		synchronized ( semaphore )
+		synchronized ( permits )
 		{
 			return currPoolSize;
 		}
@@ -72,34 +130,40 @@ public class AutoScalingBlockingExecutor extends BlockingExecutor
 		super.beforeExecute( t, r );
 
 		// Get the start time using the Runnable as the key
-		timings.put( t, System.currentTimeMillis() );
+		timings.put( t, System.nanoTime() );
 	}
 
 	/**
 	 * Method invoked upon completion of execution of the given Runnable,
 	 * by the thread that executed the task.
-	 * Releases a semaphore permit.
+	 * Releases a permit.
 	 */
 	@Override
 	protected void afterExecute( final Runnable r, final Throwable t )
 	{
-		synchronized ( semaphore )
+		if ( latencies != null )
+		{
+			afterExecuteWindowed( r, t );
+			return;
+		}
+
+		synchronized ( permits )
 		{
 			super.afterExecuteNoRelease( r, t );
 
 			// Get the end time using the Runnable as the key
-			long endTime = System.currentTimeMillis();
+			long endTime = System.nanoTime();
 			long startTime = timings.remove( Thread.currentThread() );	// Should never be null
 			// System.out.println( "Took: " + (endTime - startTime) );
 
-			if ( endTime - startTime < threadTimeoutMs )
+			if ( TimeUnit.NANOSECONDS.toMillis( endTime - startTime ) < threadTimeoutMs )
 			{
-				semaphore.release();    // Release the acquired permit
+				permits.release();    // Release the acquired permit
 				if ( currPoolSize < maxPoolSize )
 				{
 					currPoolSize++;
 					setCorePoolSize( currPoolSize );
-					semaphore.release();    // Increase the available permits
+					permits.release();    // Increase the available permits
 
 					logger.info( "Increased pool size to: {}", currPoolSize );
 					// System.out.println( "Increased pool size to: " + currPoolSize );
@@ -107,7 +171,7 @@ public class AutoScalingBlockingExecutor extends BlockingExecutor
 			}
 			else if ( currPoolSize <= 1 )
 			{
-				semaphore.release();    // Must releases the acquired permit to prevent starvation
+				permits.release();    // Must releases the acquired permit to prevent starvation
 			}
 			else
 			{
@@ -120,4 +184,102 @@ public class AutoScalingBlockingExecutor extends BlockingExecutor
 			}
 		}
 	}
+
+	// Record the latency and release the permit unless the pool is shrinking
+	private void afterExecuteWindowed( final Runnable r, final Throwable t )
+	{
+		super.afterExecuteNoRelease( r, t );
+
+		Long startTime = timings.remove( Thread.currentThread() );
+		if ( startTime != null )
+		{
+			latencies.record( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - startTime ) );
+		}
+
+		int owed;
+		while ( (owed = withheld.get()) > 0 )
+		{
+			if ( withheld.compareAndSet( owed, owed - 1 ) )
+			{
+				return;    // Not releasing the permit
+			}
+		}
+		permits.release();
+	}
+
+	/**
+	 * Resize the pool from the latency window. Called by the ticker.
+	 */
+	void tick()
+	{
+		LatencyHistogram window = latencies.snapshot();
+		latencies.rotate();
+		if ( window.getCount() < MIN_SAMPLES )
+		{
+			return;
+		}
+
+		long latencyMs = TimeUnit.MICROSECONDS.toMillis( window.getValueAtPercentile( PERCENTILE ) );
+		int curr = currPoolSize;
+		int next;
+		if ( latencyMs >= threadTimeoutMs )
+		{
+			next = Math.max( 1, (int) (curr * DECREASE_FACTOR) );
+		}
+		else
+		{
+			next = Math.min( maxPoolSize, curr + 1 );
+		}
+		if ( next == curr )
+		{
+			return;
+		}
+
+		resize( curr, next );
+
+		// Judge the new pool size on fresh latencies only
+		latencies.reset();
+		logger.info( "Resized pool from {} to {} at p{} latency of {} ms", curr, next, (int) PERCENTILE, latencyMs );
+	}
+
+	private void resize( int curr, int next )
+	{
+		currPoolSize = next;
+		if ( next < curr )
+		{
+			withheld.addAndGet( curr - next );
+			setCorePoolSize( next );
+			return;
+		}
+
+		setCorePoolSize( next );
+		int grow = next - curr;
+		while ( grow > 0 )
+		{
+			// Cancel permits still owed before adding new ones
+			int owed = withheld.get();
+			if ( owed > 0 )
+			{
+				if ( withheld.compareAndSet( owed, owed - 1 ) )
+				{
+					grow--;
+				}
+			}
+			else
+			{
+				permits.release();
+				grow--;
+			}
+		}
+	}
+
+	@Override
+	protected void terminated()
+	{
+		super.terminated();
+		if ( ticker != null )
+		{
+			ticker.shutdownNow();
+		}
+	}
 }
@@ -8,7 +8,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An executor which blocks and prevents further tasks from
@@ -18,7 +22,30 @@ import java.util.concurrent.*;
  */
 public class BlockingExecutor extends ThreadPoolExecutor
 {
-    final Semaphore semaphore;
+    /**
+     * How producers are bounded and how tasks are queued
+     */
+    public enum Mode {
+        /**
+         * A single Semaphore in front of an unbounded LinkedBlockingQueue
+         */
+        SEMAPHORE,
+
+        /**
+         * Per-core striped permit counters in front of a bounded, lock-free
+         * MPMC ring buffer. Better suited to many small tasks on many cores.
+         */
+        STRIPED
+    }
+
+    final Permits permits;
+
+    // Tasks submitted but not yet finished, for quiescence
+    private final AtomicLong outstanding = new AtomicLong();
+
+    private final Object quiescence = new Object();
+
+    private volatile ExecutorMetrics metrics = ExecutorMetrics.NOOP;
 
     // Log with the class name
     private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
@@ -30,67 +57,247 @@ public class BlockingExecutor extends ThreadPoolExecutor
      * @param poolSize  the number of the threads in the pool
      */
     public BlockingExecutor( final int poolSize, String threadNamePrefix ) {
+        this( poolSize, threadNamePrefix, Mode.SEMAPHORE );
+    }
+
+    /**
+     * Creates a BlockingExecutor which will block and prevent further
+     * submission to the pool when the specified queue size has been reached.
+     *
+     * @param poolSize  the number of the threads in the pool
+     * @param mode      how to bound producers and queue tasks
+     */
+    public BlockingExecutor( final int poolSize, String threadNamePrefix, Mode mode ) {
+        this( poolSize, threadNamePrefix, newQueue( poolSize, mode ),
+            mode == Mode.STRIPED ? new StripedPermits( poolSize ) : new SemaphorePermits( poolSize ) );
+    }
+
+    // For subclasses which bring their own queue and permits
+    BlockingExecutor( final int poolSize, String threadNamePrefix, BlockingQueue<Runnable> queue, Permits permits ) {
         super( poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
-			new LinkedBlockingQueue<>(), new NamedThreadFactory( threadNamePrefix ) );
+			queue, new NamedThreadFactory( threadNamePrefix ) );
 
-        // the semaphore is bounding both the number of tasks currently executing
+        // the permits are bounding both the number of tasks currently executing
         // and those queued up
-        semaphore = new Semaphore( poolSize );
+        this.permits = permits;
+    }
+
+    /**
+     * Record queue wait, run time, producer blocking, permit utilization,
+     * rejections and pool size changes from now on. Tasks are only timed
+     * while metrics other than {@link ExecutorMetrics#NOOP} are set. The
+     * current pool size is published to the metrics straight away.
+     *
+     * @param metrics the metrics to record to
+     */
+    public void setMetrics( final ExecutorMetrics metrics ) {
+        this.metrics = Objects.requireNonNull( metrics );
+        metrics.recordPoolSize( getCorePoolSize() );
+    }
+
+    public ExecutorMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static BlockingQueue<Runnable> newQueue( final int poolSize, Mode mode ) {
+        // The permits never let more than poolSize tasks in, and offer() only reports
+        // full when poolSize tasks are really queued, so the ring never rejects
+        return mode == Mode.STRIPED ? new MpmcArrayBlockingQueue<>( poolSize ) : new LinkedBlockingQueue<>();
     }
 
     /**
      * Executes the given task.
-     * This method will block when the semaphore has no permits
+     * This method will block when there are no permits
      * i.e. when the queue has reached its capacity.
+     * An interrupt while blocked does not abandon the task,
+     * but the interrupt status is restored once it is submitted.
      */
     @Override
     public void execute( final Runnable task ) {
-        boolean acquired = false;
-        do {
-            try {
-                semaphore.acquire();
-                acquired = true;
-            } catch ( final InterruptedException e ) { // NOSONAR
-                // Thread.currentThread().interrupt();
+        execute( task, permits );
+    }
+
+    // Same as above but bounded by the given permits
+    void execute( final Runnable task, final Permits permits ) {
+        final ExecutorMetrics m = metrics;
+        boolean interrupted = false;
+        if ( !permits.tryAcquire() ) {
+            final long blockedAt = System.nanoTime();
+            for ( ; ; ) {
+                try {
+                    permits.acquire();
+                    break;
+                } catch ( final InterruptedException e ) {
+                    interrupted = true;
+                }
             }
-        } while ( !acquired );
+            m.recordProducerBlocked( System.nanoTime() - blockedAt );
+        }
 
+        final Runnable queued;
+        if ( m == ExecutorMetrics.NOOP ) {
+            queued = task;
+        } else {
+            final int capacity = getCorePoolSize();
+            m.recordPermitUtilization( Math.max( 0, capacity - permits.availablePermits() ), capacity );
+            queued = new MeteredTask( task, m );
+        }
+
+        outstanding.incrementAndGet();
         try {
-            super.execute( task );
+            super.execute( queued );
         } catch ( final RejectedExecutionException e ) {
-            semaphore.release();
+            completed( 1 );
+            permits.release();
+            m.recordRejection();
             throw e;
+        } finally {
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Method invoked prior to executing the given Runnable in the
+     * given thread. Records the queue wait of metered tasks.
+     */
+    @Override
+    protected void beforeExecute( final Thread t, final Runnable r ) {
+        super.beforeExecute( t, r );
+        if ( r instanceof MeteredTask ) {
+            ((MeteredTask) r).started();
         }
     }
 
     /**
      * Method invoked upon completion of execution of the given Runnable,
      * by the thread that executed the task.
-     * Releases a semaphore permit.
+     * Releases a permit.
      */
     @Override
     protected void afterExecute( final Runnable r, final Throwable t ) {
-        super.afterExecute( r, t );
-        semaphore.release();
+        afterExecuteNoRelease( r, t );
+        permitsOf( r ).release();
+    }
+
+    // The permits which were acquired for a queued task
+    Permits permitsOf( final Runnable r ) {
+        return permits;
     }
 
-    // Same as above but without the semaphore release
+    // Account for a queued task which will never run
+    void discard( final Runnable r ) {
+        permitsOf( r ).release();
+        completed( 1 );
+    }
+
+    // Same as above but without the permit release
     void afterExecuteNoRelease( final Runnable r, final Throwable t ) {
         super.afterExecute( r, t );
+        if ( r instanceof MeteredTask ) {
+            ((MeteredTask) r).finished();
+        }
+        completed( 1 );
     }
 
     /**
-     * Wait for all threads to finish, then shutdown gracefully
+     * Sets the core number of threads, recording any change in the metrics.
      */
-    public void waitAndShutdown() {
-        // Wait for all jobs and threads to fully complete
-        while ( getActiveCount() > 0 || ! getQueue().isEmpty() ) {
-            try {
-                Thread.sleep(200);
-            } catch ( InterruptedException e ) { // NOSONAR
-                // Thread.currentThread().interrupt();
+    @Override
+    public void setCorePoolSize( final int corePoolSize ) {
+        final int previous = getCorePoolSize();
+        super.setCorePoolSize( corePoolSize );
+        if ( previous != corePoolSize ) {
+            metrics.recordPoolSizeChange( previous, corePoolSize );
+        }
+    }
+
+    /**
+     * Attempts to stop all actively executing tasks.
+     * Tasks which never ran no longer count as outstanding.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> dropped = super.shutdownNow();
+        completed( dropped.size() );
+
+        // Hand back the tasks as they were submitted
+        dropped.replaceAll( BlockingExecutor::unwrap );
+        return dropped;
+    }
+
+    // The queued task without its metrics wrapper
+    static Runnable unwrap( final Runnable r ) {
+        return r instanceof MeteredTask ? ((MeteredTask) r).task : r;
+    }
+
+    // Wake the quiescence waiters when the last outstanding task finishes
+    private void completed( final int tasks ) {
+        if ( tasks > 0 && outstanding.addAndGet( -tasks ) == 0 ) {
+            synchronized ( quiescence ) {
+                quiescence.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of submitted tasks which have not yet finished
+     */
+    public long getOutstandingCount() {
+        return outstanding.get();
+    }
+
+    /**
+     * Wait until every submitted task has finished. Returns the
+     * moment the last task completes rather than polling.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitQuiescence() throws InterruptedException {
+        synchronized ( quiescence ) {
+            while ( outstanding.get() > 0 ) {
+                quiescence.wait();
             }
         }
+    }
+
+    /**
+     * Wait until every submitted task has finished, or the timeout elapses.
+     *
+     * @param timeout the maximum time to wait
+     * @return true if there are no outstanding tasks, false on timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitQuiescence( final Duration timeout ) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized ( quiescence ) {
+            while ( outstanding.get() > 0 ) {
+                long remaining = deadline - System.nanoTime();
+                if ( remaining <= 0L ) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait( quiescence, remaining );
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Wait for all threads to finish, then shutdown gracefully.
+     * If interrupted, running tasks are cancelled and the
+     * interrupt status is restored.
+     */
+    public void waitAndShutdown() {
+        // Wait for all jobs to fully complete
+        try {
+            awaitQuiescence();
+        } catch ( InterruptedException e ) {
+            logger.warn("Wait interrupted, canceling unfinished tasks");
+            shutdownNow();
+            Thread.currentThread().interrupt();
+            return;
+        }
 
         // Graceful shutdown
         try {
@@ -98,9 +305,9 @@ public class BlockingExecutor extends ThreadPoolExecutor
             shutdown();
             awaitTermination(5, TimeUnit.SECONDS);
         }
-        catch ( InterruptedException e) { // NOSONAR
+        catch ( InterruptedException e) {
             logger.warn("Shutdown interrupted: {}", e.getMessage());
-            // Thread.currentThread().interrupt();
+            Thread.currentThread().interrupt();
         }
         finally {
             if (!isTerminated()) {
@@ -110,4 +317,31 @@ public class BlockingExecutor extends ThreadPoolExecutor
             logger.debug("Shutdown finished");
         }
     }
+
+    // A task stamped with its timings while metrics are enabled
+    private static final class MeteredTask implements Runnable {
+        private final Runnable task;
+        private final ExecutorMetrics metrics;
+        private final long enqueuedAt = System.nanoTime();
+        private long startedAt;
+
+        MeteredTask( final Runnable task, final ExecutorMetrics metrics ) {
+            this.task = task;
+            this.metrics = metrics;
+        }
+
+        void started() {
+            startedAt = System.nanoTime();
+            metrics.recordQueueWait( startedAt - enqueuedAt );
+        }
+
+        void finished() {
+            metrics.recordRunTime( System.nanoTime() - startedAt );
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+/**
+ * Receives timing and sizing events from a BlockingExecutor. Methods
+ * are called on producer and worker threads, so implementations
+ * must be thread-safe and cheap. All durations are in nanoseconds.
+ *
+ * @see InMemoryExecutorMetrics
+ */
+public interface ExecutorMetrics
+{
+	/**
+	 * Discards every event. Executors use this until metrics are set.
+	 */
+	ExecutorMetrics NOOP = new ExecutorMetrics()
+	{
+	};
+
+	/**
+	 * @param nanos Time a task waited in the queue before starting
+	 */
+	default void recordQueueWait( long nanos )
+	{
+	}
+
+	/**
+	 * @param nanos Time a task took to run
+	 */
+	default void recordRunTime( long nanos )
+	{
+	}
+
+	/**
+	 * Called only when a producer had to wait for a permit
+	 *
+	 * @param nanos Time the producer was blocked in execute()
+	 */
+	default void recordProducerBlocked( long nanos )
+	{
+	}
+
+	/**
+	 * Called each time a permit is acquired
+	 *
+	 * @param inUse    Permits held, including the one just acquired
+	 * @param capacity Permits the pool currently allows
+	 */
+	default void recordPermitUtilization( int inUse, int capacity )
+	{
+	}
+
+	/**
+	 * Called when a task is rejected, e.g. after shutdown
+	 */
+	default void recordRejection()
+	{
+	}
+
+	/**
+	 * Called when the metrics are set, before any change is recorded
+	 *
+	 * @param size Current core pool size
+	 */
+	default void recordPoolSize( int size )
+	{
+	}
+
+	/**
+	 * @param from Previous core pool size
+	 * @param to   New core pool size
+	 */
+	default void recordPoolSizeChange( int from, int to )
+	{
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registers executor metrics with the platform MBean server
+ */
+public class ExecutorMetricsExporter
+{
+	private static final String DOMAIN = "com.ericdraken.common.executors";
+
+	private ExecutorMetricsExporter()
+	{
+	}
+
+	/**
+	 * Register the metrics under
+	 * {@code com.ericdraken.common.executors:type=ExecutorMetrics,name=<name>}
+	 *
+	 * @param name    Executor name, unique in this JVM
+	 * @param metrics Metrics to expose
+	 * @return The registered object name, for {@link #unregister(ObjectName)}
+	 * @throws JMException Invalid or duplicate name
+	 */
+	public static ObjectName register( String name, InMemoryExecutorMetrics metrics ) throws JMException
+	{
+		ObjectName objectName = new ObjectName( DOMAIN + ":type=ExecutorMetrics,name=" + ObjectName.quote( name ) );
+		ManagementFactory.getPlatformMBeanServer().registerMBean( metrics, objectName );
+		return objectName;
+	}
+
+	/**
+	 * Unregister metrics if they are registered
+	 *
+	 * @param objectName Name returned by {@link #register(String, InMemoryExecutorMetrics)}
+	 * @throws JMException Unregistration failed
+	 */
+	public static void unregister( ObjectName objectName ) throws JMException
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if ( server.isRegistered( objectName ) )
+		{
+			server.unregisterMBean( objectName );
+		}
+	}
+}
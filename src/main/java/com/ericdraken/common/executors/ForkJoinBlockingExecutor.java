@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A work-stealing executor for recursive work, e.g. walking a directory
+ * tree and then zipping each file. Tasks submitted from outside the pool
+ * block when poolSize of them are queued or running, like BlockingExecutor.
+ * Tasks submitted by a task already running in the pool skip the permits
+ * and are pushed onto that worker's own deque, where idle workers steal
+ * them, so subtasks never wait behind unrelated work in a shared queue.
+ * Those subtasks cannot be bounded: a worker blocked on a permit held by
+ * its own parent task would deadlock the pool.
+ */
+public class ForkJoinBlockingExecutor extends AbstractExecutorService
+{
+	private final ForkJoinPool pool;
+
+	private final Permits permits;
+
+	// Log with the class name
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	/**
+	 * Creates a ForkJoinBlockingExecutor which will block and prevent further
+	 * external submission when poolSize external tasks are queued or running.
+	 *
+	 * @param poolSize         the number of worker threads and external permits
+	 * @param threadNamePrefix the thread name prefix
+	 */
+	public ForkJoinBlockingExecutor( final int poolSize, String threadNamePrefix )
+	{
+		final String namePrefix = NamedThreadFactory.newNamePrefix( threadNamePrefix );
+		final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+		// LIFO local deques: a worker runs its newest subtask first, while
+		// thieves take the oldest, which is usually the largest piece of work
+		pool = new ForkJoinPool( poolSize, p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( p );
+			t.setName( namePrefix + threadNumber.getAndIncrement() );
+			return t;
+		}, null, false );
+		permits = new SemaphorePermits( poolSize );
+	}
+
+	/**
+	 * Executes the given task. From outside the pool this method will
+	 * block when there are no permits. From inside the pool the task is
+	 * forked onto the current worker's deque without blocking.
+	 */
+	@Override
+	public void execute( @Nonnull final Runnable task )
+	{
+		if ( isWorkerThread() )
+		{
+			// ForkJoinPool pushes onto the calling worker's own deque
+			pool.execute( task );
+			return;
+		}
+
+		boolean interrupted = false;
+		for ( ; ; )
+		{
+			try
+			{
+				permits.acquire();
+				break;
+			}
+			catch ( final InterruptedException e )
+			{
+				interrupted = true;
+			}
+		}
+
+		try
+		{
+			pool.execute( () -> {
+				try
+				{
+					task.run();
+				}
+				finally
+				{
+					permits.release();
+				}
+			} );
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			permits.release();
+			throw e;
+		}
+		finally
+		{
+			if ( interrupted )
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private boolean isWorkerThread()
+	{
+		Thread t = Thread.currentThread();
+		return t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == pool;
+	}
+
+	/**
+	 * @return The number of tasks stolen between workers so far
+	 */
+	public long getStealCount()
+	{
+		return pool.getStealCount();
+	}
+
+	@Override
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	@Nonnull
+	@Override
+	public List<Runnable> shutdownNow()
+	{
+		return pool.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown()
+	{
+		return pool.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated()
+	{
+		return pool.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination( long timeout, @Nonnull TimeUnit unit ) throws InterruptedException
+	{
+		return pool.awaitTermination( timeout, unit );
+	}
+
+	/**
+	 * Wait for all tasks, including the subtasks they spawn, to finish,
+	 * then shutdown gracefully. If interrupted, running tasks are
+	 * cancelled and the interrupt status is restored.
+	 */
+	public void waitAndShutdown()
+	{
+		// Subtasks forked by running tasks are still accepted after shutdown
+		logger.debug( "Attempting to shutdown executor pool" );
+		pool.shutdown();
+		try
+		{
+			pool.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+		}
+		catch ( InterruptedException e )
+		{
+			logger.warn( "Shutdown interrupted: {}", e.getMessage() );
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		logger.debug( "Shutdown finished" );
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects executor events in lock-free counters and HDR-style
+ * histograms. Times are kept in microseconds and permit utilization
+ * in percent. Register with {@link ExecutorMetricsExporter} to read
+ * them over JMX.
+ */
+public class InMemoryExecutorMetrics implements ExecutorMetrics, InMemoryExecutorMetricsMBean
+{
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+
+	private final LatencyHistogram runTime = new LatencyHistogram();
+
+	private final LatencyHistogram producerBlocked = new LatencyHistogram();
+
+	private final LatencyHistogram permitUtilization = new LatencyHistogram();
+
+	private final LongAdder rejections = new LongAdder();
+
+	private final LongAdder poolSizeChanges = new LongAdder();
+
+	private volatile int poolSize;
+
+	@Override
+	public void recordQueueWait( long nanos )
+	{
+		queueWait.record( TimeUnit.NANOSECONDS.toMicros( nanos ) );
+	}
+
+	@Override
+	public void recordRunTime( long nanos )
+	{
+		runTime.record( TimeUnit.NANOSECONDS.toMicros( nanos ) );
+	}
+
+	@Override
+	public void recordProducerBlocked( long nanos )
+	{
+		producerBlocked.record( TimeUnit.NANOSECONDS.toMicros( nanos ) );
+	}
+
+	@Override
+	public void recordPermitUtilization( int inUse, int capacity )
+	{
+		if ( capacity > 0 )
+		{
+			permitUtilization.record( 100L * inUse / capacity );
+		}
+	}
+
+	@Override
+	public void recordRejection()
+	{
+		rejections.increment();
+	}
+
+	@Override
+	public void recordPoolSize( int size )
+	{
+		poolSize = size;
+	}
+
+	@Override
+	public void recordPoolSizeChange( int from, int to )
+	{
+		poolSize = to;
+		poolSizeChanges.increment();
+	}
+
+	public LatencyHistogram getQueueWait()
+	{
+		return queueWait;
+	}
+
+	public LatencyHistogram getRunTime()
+	{
+		return runTime;
+	}
+
+	public LatencyHistogram getProducerBlocked()
+	{
+		return producerBlocked;
+	}
+
+	public LatencyHistogram getPermitUtilization()
+	{
+		return permitUtilization;
+	}
+
+	@Override
+	public long getTasksCompleted()
+	{
+		return runTime.getCount();
+	}
+
+	@Override
+	public long getTasksRejected()
+	{
+		return rejections.sum();
+	}
+
+	@Override
+	public long getProducerBlockedCount()
+	{
+		return producerBlocked.getCount();
+	}
+
+	@Override
+	public long getQueueWaitP50Micros()
+	{
+		return queueWait.getValueAtPercentile( 50 );
+	}
+
+	@Override
+	public long getQueueWaitP99Micros()
+	{
+		return queueWait.getValueAtPercentile( 99 );
+	}
+
+	@Override
+	public long getRunTimeP50Micros()
+	{
+		return runTime.getValueAtPercentile( 50 );
+	}
+
+	@Override
+	public long getRunTimeP99Micros()
+	{
+		return runTime.getValueAtPercentile( 99 );
+	}
+
+	@Override
+	public long getProducerBlockedP99Micros()
+	{
+		return producerBlocked.getValueAtPercentile( 99 );
+	}
+
+	@Override
+	public long getPermitUtilizationP50Percent()
+	{
+		return permitUtilization.getValueAtPercentile( 50 );
+	}
+
+	@Override
+	public long getPermitUtilizationP99Percent()
+	{
+		return permitUtilization.getValueAtPercentile( 99 );
+	}
+
+	@Override
+	public int getPoolSize()
+	{
+		return poolSize;
+	}
+
+	@Override
+	public long getPoolSizeChanges()
+	{
+		return poolSizeChanges.sum();
+	}
+
+	@Override
+	public void reset()
+	{
+		queueWait.reset();
+		runTime.reset();
+		producerBlocked.reset();
+		permitUtilization.reset();
+		rejections.reset();
+		poolSizeChanges.reset();
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+/**
+ * JMX view of {@link InMemoryExecutorMetrics}
+ */
+public interface InMemoryExecutorMetricsMBean
+{
+	long getTasksCompleted();
+
+	long getTasksRejected();
+
+	long getProducerBlockedCount();
+
+	long getQueueWaitP50Micros();
+
+	long getQueueWaitP99Micros();
+
+	long getRunTimeP50Micros();
+
+	long getRunTimeP99Micros();
+
+	long getProducerBlockedP99Micros();
+
+	long getPermitUtilizationP50Percent();
+
+	long getPermitUtilizationP99Percent();
+
+	int getPoolSize();
+
+	long getPoolSizeChanges();
+
+	void reset();
+}
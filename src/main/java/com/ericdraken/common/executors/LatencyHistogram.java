@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, log-linear histogram in the style of HdrHistogram.
+ * Every power of two is split into 32 linear sub-buckets, so any
+ * recorded value is reported to within about 3% using a fixed
+ * 15 KiB array, whatever the range of values.
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+	private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+
+	private final LongAdder total = new LongAdder();
+
+	/**
+	 * Record a value. Negative values are recorded as zero.
+	 *
+	 * @param value Value, e.g. in microseconds
+	 */
+	public void record( long value )
+	{
+		counts.getAndIncrement( indexOf( Math.max( 0L, value ) ) );
+		total.increment();
+	}
+
+	/**
+	 * @return The number of recorded values
+	 */
+	public long getCount()
+	{
+		return total.sum();
+	}
+
+	/**
+	 * Get the value at or below which the given percentage of values fall
+	 *
+	 * @param percentile Percentile between 0 and 100
+	 * @return The value, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile( double percentile )
+	{
+		long[] snapshot = new long[BUCKET_COUNT];
+		long count = 0;
+		for ( int i = 0; i < BUCKET_COUNT; i++ )
+		{
+			snapshot[i] = counts.get( i );
+			count += snapshot[i];
+		}
+		if ( count == 0 )
+		{
+			return 0;
+		}
+
+		long rank = Math.max( 1L, (long) Math.ceil( Math.min( 100.0, percentile ) / 100.0 * count ) );
+		long seen = 0;
+		for ( int i = 0; i < BUCKET_COUNT; i++ )
+		{
+			seen += snapshot[i];
+			if ( seen >= rank )
+			{
+				return highestEquivalentValue( i );
+			}
+		}
+		return highestEquivalentValue( BUCKET_COUNT - 1 );
+	}
+
+	/**
+	 * Add the counts of another histogram to this one
+	 *
+	 * @param other Histogram to add
+	 */
+	public void add( LatencyHistogram other )
+	{
+		for ( int i = 0; i < BUCKET_COUNT; i++ )
+		{
+			long n = other.counts.get( i );
+			if ( n != 0 )
+			{
+				counts.getAndAdd( i, n );
+				total.add( n );
+			}
+		}
+	}
+
+	/**
+	 * Clear all counts. Values recorded concurrently may be lost.
+	 */
+	public void reset()
+	{
+		for ( int i = 0; i < BUCKET_COUNT; i++ )
+		{
+			counts.set( i, 0L );
+		}
+		total.reset();
+	}
+
+	static int indexOf( long value )
+	{
+		if ( value < SUB_BUCKET_COUNT )
+		{
+			return (int) value;
+		}
+		int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros( value )) - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) | (int) ((value >>> shift) & SUB_BUCKET_MASK);
+	}
+
+	static long highestEquivalentValue( int index )
+	{
+		if ( index < SUB_BUCKET_COUNT )
+		{
+			return index;
+		}
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		long lowest = (long) (SUB_BUCKET_COUNT | (index & SUB_BUCKET_MASK)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
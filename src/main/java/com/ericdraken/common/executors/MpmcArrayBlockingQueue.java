@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, multi-producer multi-consumer ring buffer. Each slot carries
+ * a sequence number so that producers and consumers claim slots with a
+ * single CAS on their own index and never take a lock. Only threads that
+ * must wait (an empty queue on take, a full queue on put) park.
+ * <p>
+ * Elements cannot be removed from the middle of the ring, so
+ * {@link #remove(Object)} always returns false.
+ * <p>
+ * REF: Dmitry Vyukov, Bounded MPMC queue
+ * http://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+ *
+ * @param <E> Element type
+ */
+class MpmcArrayBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>
+{
+	// Longs per 64-byte cache line, used to keep the two indices apart
+	private static final int PAD = 8;
+
+	private static final int PRODUCER = PAD;
+
+	private static final int CONSUMER = PAD * 3;
+
+	private final AtomicReferenceArray<E> buffer;
+
+	private final AtomicLongArray sequences;
+
+	private final AtomicLongArray indices = new AtomicLongArray( PAD * 4 );
+
+	private final int mask;
+
+	private final WaiterQueue notEmpty = new WaiterQueue();
+
+	private final WaiterQueue notFull = new WaiterQueue();
+
+	/**
+	 * @param capacity Minimum capacity, rounded up to a power of two
+	 */
+	MpmcArrayBlockingQueue( int capacity )
+	{
+		if ( capacity <= 0 )
+		{
+			throw new IllegalArgumentException( "Capacity must be positive" );
+		}
+		int size = StripedPermits.ceilingPowerOfTwo( capacity );
+		mask = size - 1;
+		buffer = new AtomicReferenceArray<>( size );
+		sequences = new AtomicLongArray( size );
+		for ( int i = 0; i < size; i++ )
+		{
+			sequences.set( i, i );
+		}
+	}
+
+	@Override
+	public boolean offer( @Nonnull E e )
+	{
+		Objects.requireNonNull( e );
+		for ( ; ; )
+		{
+			final long pos = indices.get( PRODUCER );
+			final int index = (int) pos & mask;
+			final long dif = sequences.get( index ) - pos;
+			if ( dif == 0 )
+			{
+				if ( indices.compareAndSet( PRODUCER, pos, pos + 1 ) )
+				{
+					buffer.lazySet( index, e );
+					sequences.set( index, pos + 1 );	// Publish the element
+					notEmpty.signal();
+					return true;
+				}
+			}
+			else if ( dif < 0 )
+			{
+				// The slot may only look taken because a consumer has claimed
+				// it but not yet freed it, so only the indices can say full
+				if ( pos - indices.get( CONSUMER ) > mask )
+				{
+					return false;	// Full
+				}
+				Thread.onSpinWait();
+			}
+			// Otherwise another producer claimed this slot, so retry
+		}
+	}
+
+	@Override
+	public E poll()
+	{
+		for ( ; ; )
+		{
+			final long pos = indices.get( CONSUMER );
+			final int index = (int) pos & mask;
+			final long dif = sequences.get( index ) - (pos + 1);
+			if ( dif == 0 )
+			{
+				if ( indices.compareAndSet( CONSUMER, pos, pos + 1 ) )
+				{
+					E e = buffer.get( index );
+					buffer.lazySet( index, null );
+					sequences.set( index, pos + mask + 1 );	// Free the slot for the next lap
+					notFull.signal();
+					return e;
+				}
+			}
+			else if ( dif < 0 )
+			{
+				return null;	// Empty
+			}
+			// Otherwise another consumer claimed this slot, so retry
+		}
+	}
+
+	@Override
+	public E peek()
+	{
+		final long pos = indices.get( CONSUMER );
+		final int index = (int) pos & mask;
+		return sequences.get( index ) == pos + 1 ? buffer.get( index ) : null;
+	}
+
+	@Override
+	public void put( @Nonnull E e ) throws InterruptedException
+	{
+		if ( !offer( e ) )
+		{
+			notFull.await( () -> offer( e ) ? Boolean.TRUE : null, false, 0L );
+		}
+	}
+
+	@Override
+	public boolean offer( E e, long timeout, @Nonnull TimeUnit unit ) throws InterruptedException
+	{
+		return offer( e ) ||
+			notFull.await( () -> offer( e ) ? Boolean.TRUE : null, true, unit.toNanos( timeout ) ) != null;
+	}
+
+	@Nonnull
+	@Override
+	public E take() throws InterruptedException
+	{
+		E e = poll();
+		return e != null ? e : notEmpty.await( this::poll, false, 0L );
+	}
+
+	@Override
+	public E poll( long timeout, @Nonnull TimeUnit unit ) throws InterruptedException
+	{
+		E e = poll();
+		return e != null ? e : notEmpty.await( this::poll, true, unit.toNanos( timeout ) );
+	}
+
+	@Override
+	public int size()
+	{
+		// Read the consumer first so the difference is never negative
+		long consumer = indices.get( CONSUMER );
+		long producer = indices.get( PRODUCER );
+		return (int) Math.max( 0, Math.min( producer - consumer, mask + 1L ) );
+	}
+
+	@Override
+	public int remainingCapacity()
+	{
+		return mask + 1 - size();
+	}
+
+	@Override
+	public boolean remove( Object o )
+	{
+		return false;
+	}
+
+	@Override
+	public int drainTo( @Nonnull Collection<? super E> c )
+	{
+		return drainTo( c, Integer.MAX_VALUE );
+	}
+
+	@Override
+	public int drainTo( @Nonnull Collection<? super E> c, int maxElements )
+	{
+		int n = 0;
+		E e;
+		while ( n < maxElements && (e = poll()) != null )
+		{
+			c.add( e );
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * A weakly-consistent snapshot of the queued elements. Removing
+	 * through the iterator only affects the snapshot, which lets
+	 * ThreadPoolExecutor.purge() run harmlessly.
+	 *
+	 * @return Iterator
+	 */
+	@Nonnull
+	@Override
+	public Iterator<E> iterator()
+	{
+		List<E> snapshot = new ArrayList<>( size() );
+		final long producer = indices.get( PRODUCER );
+		for ( long pos = indices.get( CONSUMER ); pos < producer; pos++ )
+		{
+			E e = buffer.get( (int) pos & mask );
+			if ( e != null )
+			{
+				snapshot.add( e );
+			}
+		}
+		return snapshot.iterator();
+	}
+}
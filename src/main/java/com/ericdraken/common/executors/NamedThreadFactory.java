@@ -19,7 +19,18 @@ public class NamedThreadFactory implements ThreadFactory
 
 	public NamedThreadFactory( String prefix )
 	{
-		namePrefix = prefix + "-" +	poolNumber.getAndIncrement() + "-thread-";
+		namePrefix = newNamePrefix( prefix );
+	}
+
+	/**
+	 * Reserve the next pool number for a thread name prefix
+	 *
+	 * @param prefix Pool prefix
+	 * @return The prefix that thread numbers are appended to
+	 */
+	static String newNamePrefix( String prefix )
+	{
+		return prefix + "-" + poolNumber.getAndIncrement() + "-thread-";
 	}
 
 	public Thread newThread( @Nonnull Runnable r )
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+/**
+ * The admission permits which bound the number of tasks
+ * executing and queued in a BlockingExecutor
+ */
+interface Permits
+{
+	/**
+	 * Acquire a permit, blocking until one is available
+	 *
+	 * @throws InterruptedException Thread is interrupted
+	 */
+	void acquire() throws InterruptedException;
+
+	/**
+	 * Acquire a permit only if one is available right now
+	 *
+	 * @return True if a permit was acquired
+	 */
+	boolean tryAcquire();
+
+	/**
+	 * Return a permit, or add a new one
+	 */
+	void release();
+
+	/**
+	 * @return The number of permits currently available
+	 */
+	int availablePermits();
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A BlockingExecutor which serves tasks by priority class and then by
+ * deadline, instead of strictly FIFO. Each class has its own permit budget
+ * bounding how many of its tasks may be queued or running, so producers of
+ * one class never block behind another class, and a bulk budget below the
+ * pool size keeps threads free for interactive work. Tasks whose deadline
+ * passes while queued are dropped before they consume a thread; if they
+ * were submitted as futures, the futures are cancelled.
+ */
+public class PriorityBlockingExecutor extends BlockingExecutor
+{
+	/**
+	 * Priority classes, highest first
+	 */
+	public enum Priority
+	{
+		INTERACTIVE,
+		NORMAL,
+		BULK
+	}
+
+	// About 146 years, far enough for any deadline
+	private static final long MAX_DEADLINE_NANOS = 1L << 62;
+
+	private final EnumMap<Priority, Permits> budgets;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final LongAdder expired = new LongAdder();
+
+	/**
+	 * Creates a PriorityBlockingExecutor where interactive and normal tasks
+	 * may each fill the pool, and bulk tasks are limited to three quarters
+	 * of it so that some threads are always free for the other classes.
+	 *
+	 * @param poolSize the number of the threads in the pool
+	 */
+	public PriorityBlockingExecutor( final int poolSize, String threadNamePrefix )
+	{
+		this( poolSize, threadNamePrefix, defaultBudgets( poolSize ) );
+	}
+
+	/**
+	 * Creates a PriorityBlockingExecutor with a permit budget per class.
+	 * Budgets bound the tasks of a class which are queued or running.
+	 * Classes without a budget get poolSize permits.
+	 *
+	 * @param poolSize the number of the threads in the pool
+	 * @param budgets  the permits for each priority class
+	 */
+	public PriorityBlockingExecutor( final int poolSize, String threadNamePrefix, Map<Priority, Integer> budgets )
+	{
+		this( poolSize, threadNamePrefix, toPermits( poolSize, budgets ) );
+	}
+
+	private PriorityBlockingExecutor( final int poolSize, String threadNamePrefix, EnumMap<Priority, Permits> budgets )
+	{
+		super( poolSize, threadNamePrefix, new PriorityClassQueue(), budgets.get( Priority.NORMAL ) );
+		this.budgets = budgets;
+
+		// Nothing can be queued before this point
+		((PriorityClassQueue) getQueue()).setOnExpired( this::expire );
+	}
+
+	private static Map<Priority, Integer> defaultBudgets( final int poolSize )
+	{
+		Map<Priority, Integer> budgets = new EnumMap<>( Priority.class );
+		budgets.put( Priority.INTERACTIVE, poolSize );
+		budgets.put( Priority.NORMAL, poolSize );
+		budgets.put( Priority.BULK, Math.max( 1, poolSize - Math.max( 1, poolSize / 4 ) ) );
+		return budgets;
+	}
+
+	private static EnumMap<Priority, Permits> toPermits( final int poolSize, Map<Priority, Integer> budgets )
+	{
+		EnumMap<Priority, Permits> permits = new EnumMap<>( Priority.class );
+		for ( Priority priority : Priority.values() )
+		{
+			int budget = budgets.getOrDefault( priority, poolSize );
+			if ( budget <= 0 )
+			{
+				throw new IllegalArgumentException( "Budget for " + priority + " must be positive" );
+			}
+			permits.put( priority, new SemaphorePermits( budget ) );
+		}
+		return permits;
+	}
+
+	/**
+	 * Executes the given task with normal priority and no deadline.
+	 */
+	@Override
+	public void execute( final Runnable task )
+	{
+		execute( task, Priority.NORMAL, null );
+	}
+
+	/**
+	 * Executes the given task without a deadline.
+	 * This method will block when the class has no permits left.
+	 *
+	 * @param task     the task
+	 * @param priority the priority class
+	 */
+	public void execute( final Runnable task, final Priority priority )
+	{
+		execute( task, priority, null );
+	}
+
+	/**
+	 * Executes the given task unless its deadline passes first.
+	 * This method will block when the class has no permits left.
+	 *
+	 * @param task     the task
+	 * @param priority the priority class
+	 * @param deadline when the task is no longer worth starting, or null
+	 */
+	public void execute( final Runnable task, final Priority priority, final Instant deadline )
+	{
+		PrioritizedTask prioritized = new PrioritizedTask( task, priority, toNanoTime( deadline ),
+			sequence.getAndIncrement(), budgets.get( priority ) );
+		if ( prioritized.isExpired() )
+		{
+			expired( task );
+			return;
+		}
+		execute( prioritized, prioritized.permits );
+	}
+
+	/**
+	 * Submits a value-returning task unless its deadline passes first,
+	 * in which case the future is cancelled.
+	 *
+	 * @param task     the task
+	 * @param priority the priority class
+	 * @param deadline when the task is no longer worth starting, or null
+	 * @return a Future representing pending completion of the task
+	 */
+	public <T> Future<T> submit( final Callable<T> task, final Priority priority, final Instant deadline )
+	{
+		RunnableFuture<T> future = newTaskFor( task );
+		execute( future, priority, deadline );
+		return future;
+	}
+
+	/**
+	 * @return the number of tasks dropped because their deadline passed
+	 */
+	public long getExpiredCount()
+	{
+		return expired.sum();
+	}
+
+	@Override
+	Permits permitsOf( final Runnable r )
+	{
+		Runnable task = unwrap( r );
+		return task instanceof PrioritizedTask ? ((PrioritizedTask) task).permits : permits;
+	}
+
+	// Called by the queue instead of handing an expired task to a worker
+	private void expire( final Runnable r )
+	{
+		discard( r );
+		expired( ((PrioritizedTask) unwrap( r )).task );
+	}
+
+	private void expired( final Runnable task )
+	{
+		expired.increment();
+		if ( task instanceof Future )
+		{
+			((Future<?>) task).cancel( false );
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow()
+	{
+		List<Runnable> dropped = super.shutdownNow();
+		dropped.replaceAll( r -> r instanceof PrioritizedTask ? ((PrioritizedTask) r).task : r );
+		return dropped;
+	}
+
+	private static long toNanoTime( final Instant deadline )
+	{
+		if ( deadline == null )
+		{
+			return Long.MAX_VALUE;
+		}
+		// Clamp far-off deadlines so the nanoTime arithmetic cannot overflow
+		long nanos;
+		try
+		{
+			nanos = Duration.between( Instant.now(), deadline ).toNanos();
+		}
+		catch ( ArithmeticException e )
+		{
+			nanos = deadline.isBefore( Instant.now() ) ? -MAX_DEADLINE_NANOS : MAX_DEADLINE_NANOS;
+		}
+		return System.nanoTime() + Math.max( -MAX_DEADLINE_NANOS, Math.min( nanos, MAX_DEADLINE_NANOS ) );
+	}
+
+	// A task with its priority class, deadline and the permits it holds
+	static final class PrioritizedTask implements Runnable
+	{
+		final Runnable task;
+		final Priority priority;
+		final long deadlineNanos;
+		final long sequence;
+		final Permits permits;
+
+		PrioritizedTask( Runnable task, Priority priority, long deadlineNanos, long sequence, Permits permits )
+		{
+			this.task = task;
+			this.priority = priority;
+			this.deadlineNanos = deadlineNanos;
+			this.sequence = sequence;
+			this.permits = permits;
+		}
+
+		boolean isExpired()
+		{
+			return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos > 0;
+		}
+
+		@Override
+		public void run()
+		{
+			task.run();
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The work queue of a PriorityBlockingExecutor. Each priority class has
+ * its own lock-free skip list ordered by deadline and then by submission,
+ * and classes are always served in priority order. Tasks whose deadline
+ * has passed are handed to the expiry callback instead of being returned,
+ * so they never reach a worker. The queue is bounded by the per-class
+ * permits of the executor rather than by a capacity of its own.
+ */
+class PriorityClassQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable>
+{
+	// Earliest deadline first, then FIFO within a priority class
+	private static final Comparator<Runnable> ORDER = Comparator
+		.comparingLong( ( Runnable r ) -> task( r ).deadlineNanos )
+		.thenComparingLong( r -> task( r ).sequence );
+
+	private final List<ConcurrentSkipListSet<Runnable>> classes = new ArrayList<>();
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final WaiterQueue notEmpty = new WaiterQueue();
+
+	private volatile Consumer<Runnable> onExpired = r -> {};
+
+	PriorityClassQueue()
+	{
+		for ( int i = 0; i < PriorityBlockingExecutor.Priority.values().length; i++ )
+		{
+			classes.add( new ConcurrentSkipListSet<>( ORDER ) );
+		}
+	}
+
+	/**
+	 * @param onExpired Receives expired tasks as they are dropped
+	 */
+	void setOnExpired( Consumer<Runnable> onExpired )
+	{
+		this.onExpired = onExpired;
+	}
+
+	private static PriorityBlockingExecutor.PrioritizedTask task( Runnable r )
+	{
+		return (PriorityBlockingExecutor.PrioritizedTask) BlockingExecutor.unwrap( r );
+	}
+
+	@Override
+	public boolean offer( @Nonnull Runnable r )
+	{
+		classes.get( task( r ).priority.ordinal() ).add( r );
+		size.incrementAndGet();
+		notEmpty.signal();
+		return true;
+	}
+
+	@Override
+	public Runnable poll()
+	{
+		for ( ConcurrentSkipListSet<Runnable> queue : classes )
+		{
+			Runnable r;
+			while ( (r = queue.pollFirst()) != null )
+			{
+				size.decrementAndGet();
+				if ( !task( r ).isExpired() )
+				{
+					return r;
+				}
+				onExpired.accept( r );
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Runnable peek()
+	{
+		for ( ConcurrentSkipListSet<Runnable> queue : classes )
+		{
+			// first() throws if the set empties meanwhile, the iterator does not
+			Iterator<Runnable> it = queue.iterator();
+			if ( it.hasNext() )
+			{
+				return it.next();
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void put( @Nonnull Runnable r )
+	{
+		offer( r );
+	}
+
+	@Override
+	public boolean offer( Runnable r, long timeout, @Nonnull TimeUnit unit )
+	{
+		return offer( r );
+	}
+
+	@Nonnull
+	@Override
+	public Runnable take() throws InterruptedException
+	{
+		Runnable r = poll();
+		return r != null ? r : notEmpty.await( this::poll, false, 0L );
+	}
+
+	@Override
+	public Runnable poll( long timeout, @Nonnull TimeUnit unit ) throws InterruptedException
+	{
+		Runnable r = poll();
+		return r != null ? r : notEmpty.await( this::poll, true, unit.toNanos( timeout ) );
+	}
+
+	@Override
+	public boolean remove( Object o )
+	{
+		if ( o instanceof Runnable &&
+			BlockingExecutor.unwrap( (Runnable) o ) instanceof PriorityBlockingExecutor.PrioritizedTask &&
+			classes.get( task( (Runnable) o ).priority.ordinal() ).remove( o ) )
+		{
+			size.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int size()
+	{
+		return Math.max( 0, size.get() );
+	}
+
+	@Override
+	public int remainingCapacity()
+	{
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public int drainTo( @Nonnull Collection<? super Runnable> c )
+	{
+		return drainTo( c, Integer.MAX_VALUE );
+	}
+
+	@Override
+	public int drainTo( @Nonnull Collection<? super Runnable> c, int maxElements )
+	{
+		int n = 0;
+		for ( ConcurrentSkipListSet<Runnable> queue : classes )
+		{
+			Runnable r;
+			while ( n < maxElements && (r = queue.pollFirst()) != null )
+			{
+				size.decrementAndGet();
+				c.add( r );
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return A weakly-consistent iterator in priority order
+	 */
+	@Nonnull
+	@Override
+	public Iterator<Runnable> iterator()
+	{
+		List<Runnable> snapshot = new ArrayList<>( size() );
+		classes.forEach( snapshot::addAll );
+		return snapshot.iterator();
+	}
+}
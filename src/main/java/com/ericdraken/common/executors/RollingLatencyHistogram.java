@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+/**
+ * A sliding window of latency histograms. Values are recorded into the
+ * current slot without locking, and each call to {@link #rotate()}
+ * clears the oldest slot and makes it current, so the window covers
+ * the last N rotations.
+ */
+public class RollingLatencyHistogram
+{
+	private final LatencyHistogram[] slots;
+
+	private volatile int current;
+
+	/**
+	 * @param slots Number of rotations in the window
+	 */
+	public RollingLatencyHistogram( int slots )
+	{
+		if ( slots <= 0 )
+		{
+			throw new IllegalArgumentException( "There must be at least one slot" );
+		}
+		this.slots = new LatencyHistogram[slots];
+		for ( int i = 0; i < slots; i++ )
+		{
+			this.slots[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * @param value Value, e.g. in microseconds
+	 */
+	public void record( long value )
+	{
+		slots[current].record( value );
+	}
+
+	/**
+	 * Advance the window. Not thread-safe with itself, so
+	 * call from one thread only, e.g. a ticker.
+	 */
+	public void rotate()
+	{
+		int next = (current + 1) % slots.length;
+		slots[next].reset();
+		current = next;
+	}
+
+	/**
+	 * @return A merged copy of every slot in the window
+	 */
+	public LatencyHistogram snapshot()
+	{
+		LatencyHistogram merged = new LatencyHistogram();
+		for ( LatencyHistogram slot : slots )
+		{
+			merged.add( slot );
+		}
+		return merged;
+	}
+
+	/**
+	 * Clear the whole window
+	 */
+	public void reset()
+	{
+		for ( LatencyHistogram slot : slots )
+		{
+			slot.reset();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Permits backed by a single, non-fair Semaphore
+ */
+class SemaphorePermits implements Permits
+{
+	private final Semaphore semaphore;
+
+	SemaphorePermits( int permits )
+	{
+		semaphore = new Semaphore( permits );
+	}
+
+	@Override
+	public void acquire() throws InterruptedException
+	{
+		semaphore.acquire();
+	}
+
+	@Override
+	public boolean tryAcquire()
+	{
+		return semaphore.tryAcquire();
+	}
+
+	@Override
+	public void release()
+	{
+		semaphore.release();
+	}
+
+	@Override
+	public int availablePermits()
+	{
+		return semaphore.availablePermits();
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Permits spread over per-core counters so that producers and workers
+ * on different cores rarely CAS the same cache line. A thread first tries
+ * its home stripe and then scans the others, and only parks when every
+ * stripe is empty. There is no fairness between waiters.
+ */
+class StripedPermits implements Permits
+{
+	// Ints per 64-byte cache line so that adjacent stripes never share one
+	private static final int PAD = 16;
+
+	private final AtomicIntegerArray counts;
+
+	private final int mask;
+
+	private final WaiterQueue waiters = new WaiterQueue();
+
+	StripedPermits( int permits )
+	{
+		int stripes = Math.min(
+			ceilingPowerOfTwo( Runtime.getRuntime().availableProcessors() ),
+			ceilingPowerOfTwo( Math.max( 1, permits ) )
+		);
+		mask = stripes - 1;
+		counts = new AtomicIntegerArray( stripes * PAD );
+
+		// Distribute the initial permits evenly
+		for ( int i = 0; i < stripes; i++ )
+		{
+			counts.set( i * PAD, permits / stripes + (i < permits % stripes ? 1 : 0) );
+		}
+	}
+
+	@Override
+	public void acquire() throws InterruptedException
+	{
+		if ( Thread.interrupted() )
+		{
+			throw new InterruptedException();
+		}
+		if ( tryAcquire() )
+		{
+			return;
+		}
+		waiters.await( () -> tryAcquire() ? Boolean.TRUE : null, false, 0L );
+	}
+
+	@Override
+	public boolean tryAcquire()
+	{
+		final int home = homeStripe();
+		for ( int i = 0; i <= mask; i++ )
+		{
+			final int index = ((home + i) & mask) * PAD;
+			int count;
+			while ( (count = counts.get( index )) > 0 )
+			{
+				if ( counts.compareAndSet( index, count, count - 1 ) )
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void release()
+	{
+		counts.getAndIncrement( homeStripe() * PAD );
+		waiters.signal();
+	}
+
+	@Override
+	public int availablePermits()
+	{
+		int sum = 0;
+		for ( int i = 0; i <= mask; i++ )
+		{
+			sum += counts.get( i * PAD );
+		}
+		return sum;
+	}
+
+	private int homeStripe()
+	{
+		// Fibonacci hashing of the thread id
+		return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+	static int ceilingPowerOfTwo( int value )
+	{
+		return value <= 1 ? 1 : Integer.highestOneBit( value - 1 ) << 1;
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.lang.invoke.MethodHandles;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor which runs every task on its own virtual thread, but
+ * still blocks and prevents further tasks from being submitted when
+ * maxInFlight tasks are running. Suited to I/O-bound tasks which spend
+ * most of their time blocked, where thousands can be in flight without
+ * the memory cost of platform thread stacks.
+ * <p>
+ * Virtual threads need Java 21+. On earlier releases each task runs
+ * on a new platform thread instead, see {@link #isVirtual()}.
+ */
+public class VirtualThreadBlockingExecutor extends AbstractExecutorService
+{
+	private final Permits permits;
+
+	private final ThreadFactory threadFactory;
+
+	private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+	private final Object termination = new Object();
+
+	private volatile boolean shutdown;
+
+	// Log with the class name
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	/**
+	 * Creates an executor which will block and prevent further
+	 * submission when the specified number of tasks are in flight.
+	 *
+	 * @param maxInFlight      the maximum number of tasks running at once
+	 * @param threadNamePrefix the thread name prefix
+	 */
+	public VirtualThreadBlockingExecutor( final int maxInFlight, String threadNamePrefix )
+	{
+		if ( maxInFlight <= 0 )
+		{
+			throw new IllegalArgumentException( "maxInFlight must be positive" );
+		}
+		permits = new SemaphorePermits( maxInFlight );
+		threadFactory = VirtualThreads.newThreadFactory( threadNamePrefix );
+	}
+
+	/**
+	 * @return True if tasks run on virtual threads on this Java release
+	 */
+	public static boolean isVirtual()
+	{
+		return VirtualThreads.isSupported();
+	}
+
+	/**
+	 * Executes the given task on a new thread.
+	 * This method will block when there are no permits
+	 * i.e. when maxInFlight tasks are running. An interrupt while
+	 * blocked does not abandon the task, but the interrupt status
+	 * is restored.
+	 */
+	@Override
+	public void execute( @Nonnull final Runnable task )
+	{
+		if ( shutdown )
+		{
+			throw new RejectedExecutionException( "Executor has been shut down" );
+		}
+
+		boolean interrupted = false;
+		for ( ; ; )
+		{
+			try
+			{
+				permits.acquire();
+				break;
+			}
+			catch ( final InterruptedException e )
+			{
+				interrupted = true;
+			}
+		}
+		if ( interrupted )
+		{
+			// Restore the interrupt status once the permit is held
+			Thread.currentThread().interrupt();
+		}
+
+		Thread thread = threadFactory.newThread( () -> {
+			try
+			{
+				task.run();
+			}
+			finally
+			{
+				threads.remove( Thread.currentThread() );
+				permits.release();
+				tryTerminate();
+			}
+		} );
+
+		// Recheck in case of a shutdown while blocked
+		threads.add( thread );
+		if ( shutdown )
+		{
+			threads.remove( thread );
+			permits.release();
+			tryTerminate();
+			throw new RejectedExecutionException( "Executor has been shut down" );
+		}
+		thread.start();
+	}
+
+	/**
+	 * @return The number of tasks currently running
+	 */
+	public int getActiveCount()
+	{
+		return threads.size();
+	}
+
+	@Override
+	public void shutdown()
+	{
+		shutdown = true;
+		tryTerminate();
+	}
+
+	/**
+	 * Interrupts all running tasks. There is no queue, so
+	 * no tasks are ever returned.
+	 *
+	 * @return An empty list
+	 */
+	@Nonnull
+	@Override
+	public List<Runnable> shutdownNow()
+	{
+		shutdown();
+		threads.forEach( Thread::interrupt );
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean isShutdown()
+	{
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated()
+	{
+		return shutdown && threads.isEmpty();
+	}
+
+	@Override
+	public boolean awaitTermination( long timeout, @Nonnull TimeUnit unit ) throws InterruptedException
+	{
+		final long deadline = System.nanoTime() + unit.toNanos( timeout );
+		synchronized ( termination )
+		{
+			while ( !isTerminated() )
+			{
+				long remaining = deadline - System.nanoTime();
+				if ( remaining <= 0L )
+				{
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait( termination, remaining );
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Wait for all threads to finish, then shutdown gracefully
+	 */
+	public void waitAndShutdown()
+	{
+		shutdown();
+		try
+		{
+			logger.debug( "Waiting for {} tasks to finish", threads.size() );
+			awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+		}
+		catch ( InterruptedException e )
+		{
+			logger.warn( "Shutdown interrupted: {}", e.getMessage() );
+			shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		logger.debug( "Shutdown finished" );
+	}
+
+	private void tryTerminate()
+	{
+		if ( isTerminated() )
+		{
+			synchronized ( termination )
+			{
+				termination.notifyAll();
+			}
+		}
+	}
+}
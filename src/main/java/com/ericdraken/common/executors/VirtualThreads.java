@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads are not available on this Java release, so platform
+ * threads are used instead. The multi-release JAR replaces this class
+ * on Java 21+ (see src/main/java21).
+ */
+final class VirtualThreads
+{
+	private VirtualThreads()
+	{
+	}
+
+	/**
+	 * @return True if threads from {@link #newThreadFactory(String)} are virtual
+	 */
+	static boolean isSupported()
+	{
+		return false;
+	}
+
+	/**
+	 * @param prefix Thread name prefix
+	 * @return A thread factory with NamedThreadFactory-style names
+	 */
+	static ThreadFactory newThreadFactory( String prefix )
+	{
+		return new NamedThreadFactory( prefix );
+	}
+}
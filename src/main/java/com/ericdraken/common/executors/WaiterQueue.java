@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A minimal parking queue for the slow path of the lock-free
+ * structures in this package. A waiter registers itself before
+ * retrying its operation, and a signaller publishes its state change
+ * before unparking the head waiter, so a wakeup cannot be lost.
+ * Every exiting waiter wakes the next one so that signals propagate
+ * when several arrive before the head waiter has run.
+ */
+final class WaiterQueue
+{
+	private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Park until the attempt returns a non-null value
+	 *
+	 * @param attempt Operation to retry, returning null on failure
+	 * @param timed   True to give up after nanos
+	 * @param nanos   Maximum time to wait if timed
+	 * @return The result of the attempt, or null if the wait timed out
+	 * @throws InterruptedException Thread is interrupted
+	 */
+	<T> T await( Supplier<T> attempt, boolean timed, long nanos ) throws InterruptedException
+	{
+		final Thread current = Thread.currentThread();
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		waiters.add( current );
+		try
+		{
+			for ( ; ; )
+			{
+				T result = attempt.get();
+				if ( result != null )
+				{
+					return result;
+				}
+
+				if ( timed )
+				{
+					long remaining = deadline - System.nanoTime();
+					if ( remaining <= 0L )
+					{
+						return null;
+					}
+					LockSupport.parkNanos( this, remaining );
+				}
+				else
+				{
+					LockSupport.park( this );
+				}
+
+				// Remember spurious wakeups
+				if ( Thread.interrupted() )
+				{
+					throw new InterruptedException();
+				}
+			}
+		}
+		finally
+		{
+			waiters.remove( current );
+			signal();
+		}
+	}
+
+	/**
+	 * Wake the longest-waiting thread, if any
+	 */
+	void signal()
+	{
+		Thread waiter = waiters.peek();
+		if ( waiter != null )
+		{
+			LockSupport.unpark( waiter );
+		}
+	}
+}
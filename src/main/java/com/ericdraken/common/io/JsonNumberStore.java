@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static com.ericdraken.common.exceptions.ExceptionUtils.getMessage;
+
+/**
+ * The original MapWriter storage: a NumberMap written to the file as
+ * pretty-printed UTF-8 JSON in full on every flush
+ */
+class JsonNumberStore implements NumberStore
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final File file;
+
+	private final NumberMap numberMap;
+
+	JsonNumberStore( File file )
+	{
+		this.file = file;
+		this.numberMap = load( file );
+	}
+
+	/**
+	 * Load a JSON map of numbers, or an empty map if the file cannot be read
+	 *
+	 * @param file JSON file
+	 * @return NumberMap
+	 */
+	static NumberMap load( File file )
+	{
+		try
+		{
+			NumberMap map = read( file );
+			logger.info( "Opened {}", file.getAbsolutePath() );
+			return map;
+		}
+		catch ( IOException e )
+		{
+			// Create a new map
+			logger.info( "Creating new map because: {}", getMessage( e ) );
+			return new NumberMap();
+		}
+	}
+
+	/**
+	 * Stream a JSON map of numbers into a NumberMap, token by token, so the
+	 * text is never held in memory
+	 *
+	 * @param file JSON file
+	 * @return NumberMap
+	 * @throws IOException if the file cannot be read or is not a JSON object
+	 */
+	static NumberMap read( File file ) throws IOException
+	{
+		try ( JsonParser parser = mapper.getFactory().createParser( file ) )
+		{
+			if ( parser.nextToken() != JsonToken.START_OBJECT )
+			{
+				throw new IOException( "Expected a JSON object" );
+			}
+
+			NumberMap map = new NumberMap();
+			while ( parser.nextToken() == JsonToken.FIELD_NAME )
+			{
+				String key = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ( token == JsonToken.VALUE_NUMBER_INT )
+				{
+					// Integer, Long or BigInteger, as ObjectMapper would give
+					map.put( key, parser.getNumberValue() );
+				}
+				else if ( token == JsonToken.VALUE_NUMBER_FLOAT )
+				{
+					map.put( key, decimal( parser ) );
+				}
+				else
+				{
+					logger.warn( "Skipping non-numeric value for {}", key );
+					parser.skipChildren();
+				}
+			}
+			if ( parser.currentToken() != JsonToken.END_OBJECT )
+			{
+				throw new IOException( "Unexpected " + parser.currentToken() );
+			}
+			return map;
+		}
+		catch ( RuntimeException e )
+		{
+			throw new IOException( "Unable to parse " + file.getAbsolutePath(), e );
+		}
+	}
+
+	// A Double, unless the text has more precision than a Double keeps
+	private static Number decimal( JsonParser parser ) throws IOException
+	{
+		BigDecimal exact = parser.getDecimalValue();
+		double d = exact.doubleValue();
+		return Double.isFinite( d ) && new BigDecimal( Double.toString( d ) ).compareTo( exact ) == 0 ? (Number) d : exact;
+	}
+
+	/**
+	 * Write a map of numbers as pretty-printed JSON, replacing the file
+	 *
+	 * @param file JSON file
+	 * @param map  Map
+	 * @throws IOException on write failure
+	 */
+	static void write( File file, Map<String, Number> map ) throws IOException
+	{
+		try ( FileWriter fw = new FileWriter( file, StandardCharsets.UTF_8, false ) )
+		{
+			mapper.writerWithDefaultPrettyPrinter().writeValue( fw, map );
+		}
+	}
+
+	/**
+	 * Force a file's written bytes to the disk
+	 *
+	 * @param file File
+	 * @throws IOException on failure
+	 */
+	static void sync( File file ) throws IOException
+	{
+		try ( FileOutputStream out = new FileOutputStream( file, true ) )
+		{
+			out.getFD().sync();
+		}
+	}
+
+	@Override
+	public Number get( String key )
+	{
+		return numberMap.get( key );
+	}
+
+	@Override
+	public long getLong( String key, long defaultValue )
+	{
+		return numberMap.getLong( key, defaultValue );
+	}
+
+	@Override
+	public void put( String key, Number value )
+	{
+		// A null would be written as JSON null, which loading skips anyway
+		numberMap.put( key, value );
+	}
+
+	@Override
+	public void putLong( String key, long value )
+	{
+		numberMap.putLong( key, value );
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		write( file, numberMap.toMap() );
+	}
+
+	@Override
+	public void sync() throws IOException
+	{
+		sync( file );
+	}
+
+	// The NumberMap is safe to copy while it is written, so nothing is taken
+	@Override
+	public DetachedFlush detachFlush()
+	{
+		return sync -> {
+			flush();
+			if ( sync )
+			{
+				sync();
+			}
+		};
+	}
+
+	@Override
+	public Map<String, Number> toMap()
+	{
+		return numberMap.toMap();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		flush();
+	}
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import com.ericdraken.common.executors.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.ericdraken.common.exceptions.ExceptionUtils.getMessage;
+
+/**
+ * A log-structured store: the JSON file is a snapshot, and every update
+ * is appended as a small binary record to a write-ahead log next to it,
+ * so a write costs one append instead of a full rewrite. On open the log
+ * is replayed onto the snapshot. Once the log passes a size threshold it
+ * is rotated out, and a background thread writes a new snapshot to a
+ * temp file and renames it over the old one before deleting the rotated
+ * log. The snapshot file is never truncated in place, so a crash at any
+ * point leaves a snapshot plus logs which replay to the last appended
+ * update. A torn record at the end of a log is dropped.
+ * <p>
+ * Log record, big-endian:
+ * <pre>
+ * length:int crc32:int type:byte value:long key:utf8[length - 9]
+ * </pre>
+ */
+class LogNumberStore implements NumberStore
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	static final long DEFAULT_COMPACT_BYTES = 4L << 20;
+
+	private static final int RECORD_HEADER = 8;
+	private static final int RECORD_FIXED = 9;
+	private static final int MAX_KEY_BYTES = 1 << 20;
+
+	// One compactor thread is shared by every store and exits when idle
+	private static final ThreadPoolExecutor compactor;
+
+	static
+	{
+		compactor = new ThreadPoolExecutor( 1, 1, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(), new NamedThreadFactory( "mapwriter-compactor" ) );
+		compactor.allowCoreThreadTimeOut( true );
+	}
+
+	private final File file;
+	private final Path wal;
+	private final Path rotated;
+	private final long compactBytes;
+
+	private final NumberMap numberMap;
+
+	private final CRC32 crc = new CRC32();
+	private ByteBuffer pending = ByteBuffer.allocate( 4096 );
+
+	// The other half of the double buffer, null while a detached flush has it
+	private ByteBuffer spare = ByteBuffer.allocate( 4096 );
+
+	// Records a detached flush failed to append, ahead of everything newer
+	private ByteBuffer unwritten;
+
+	private FileChannel log;
+	private long logBytes;
+
+	// Set when a failed append could not be cut back off the log
+	private IOException failure;
+
+	private Future<?> compaction;
+
+	LogNumberStore( File file ) throws IOException
+	{
+		this( file, DEFAULT_COMPACT_BYTES );
+	}
+
+	LogNumberStore( File file, long compactBytes ) throws IOException
+	{
+		this.file = file;
+		this.wal = Path.of( file.getPath() + ".wal" );
+		this.rotated = Path.of( file.getPath() + ".wal.1" );
+		this.compactBytes = compactBytes;
+
+		Folders.makeParentFolders( file );
+		numberMap = file.length() > 0 ? JsonNumberStore.load( file ) : new NumberMap();
+
+		// A rotated log is only left behind if its compaction did not finish
+		boolean recovering = Files.exists( rotated );
+		int replayed = replay( rotated ) + replay( wal );
+		if ( replayed > 0 )
+		{
+			logger.info( "Replayed {} updates onto {}", replayed, file.getAbsolutePath() );
+		}
+
+		// The rotated log is the only durable copy of its updates, so it is
+		// only deleted once a synced snapshot holds them
+		if ( recovering )
+		{
+			writeSnapshot( numberMap.toMap() );
+		}
+
+		log = FileChannel.open( wal, StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+		logBytes = log.size();
+		log.position( logBytes );
+	}
+
+	// Apply every intact record and cut the log after the last one
+	private int replay( Path path ) throws IOException
+	{
+		if ( !Files.exists( path ) )
+		{
+			return 0;
+		}
+
+		int count = 0;
+		try ( FileChannel in = FileChannel.open( path, StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+		{
+			ByteBuffer buf = ByteBuffer.allocate( (int) Math.min( in.size(), Integer.MAX_VALUE ) );
+			while ( buf.hasRemaining() && in.read( buf ) >= 0 )
+			{
+				// Read the whole log
+			}
+			buf.flip();
+
+			CRC32 check = new CRC32();
+			int good = 0;
+			while ( buf.remaining() >= RECORD_HEADER )
+			{
+				int length = buf.getInt();
+				int sum = buf.getInt();
+				if ( length < RECORD_FIXED || length > RECORD_FIXED + MAX_KEY_BYTES || length > buf.remaining() )
+				{
+					break;
+				}
+				check.reset();
+				check.update( buf.array(), buf.position(), length );
+				if ( (int) check.getValue() != sum )
+				{
+					break;
+				}
+
+				NumberType type = NumberType.ofTag( buf.get() );
+				long bits = buf.getLong();
+				String key = new String( buf.array(), buf.position(), length - RECORD_FIXED, StandardCharsets.UTF_8 );
+				buf.position( buf.position() + length - RECORD_FIXED );
+				numberMap.put( key, type, bits );
+				good = buf.position();
+				count++;
+			}
+
+			if ( good < in.size() )
+			{
+				logger.warn( "Dropping {} bytes of torn log from {}", in.size() - good, path );
+				in.truncate( good );
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public Number get( String key )
+	{
+		return numberMap.get( key );
+	}
+
+	@Override
+	public long getLong( String key, long defaultValue )
+	{
+		return numberMap.getLong( key, defaultValue );
+	}
+
+	@Override
+	public void put( String key, Number value )
+	{
+		NumberType type = NumberType.ofFixedWidth( value );
+		put( key, type, type.toBits( value ) );
+	}
+
+	@Override
+	public void putLong( String key, long value )
+	{
+		put( key, NumberType.LONG, value );
+	}
+
+	// Encodes the key straight into the pending buffer, so updates do not allocate
+	private void put( String key, NumberType type, long bits )
+	{
+		int keyBytes = NumberMap.encodedLength( key );
+		if ( keyBytes > MAX_KEY_BYTES )
+		{
+			throw new IllegalArgumentException( "Key is longer than " + MAX_KEY_BYTES + " bytes" );
+		}
+		numberMap.put( key, type, bits );
+
+		int length = RECORD_FIXED + keyBytes;
+		if ( pending.remaining() < RECORD_HEADER + length )
+		{
+			ByteBuffer larger = ByteBuffer.allocate( Math.max( pending.capacity() * 2, pending.position() + RECORD_HEADER + length ) );
+			pending.flip();
+			larger.put( pending );
+			pending = larger;
+		}
+
+		int start = pending.position();
+		pending.putInt( length );
+		pending.putInt( 0 );
+		pending.put( type.tag );
+		pending.putLong( bits );
+		pending.position( NumberMap.encode( key, pending.array(), pending.position() ) );
+
+		crc.reset();
+		crc.update( pending.array(), start + RECORD_HEADER, length );
+		pending.putInt( start + 4, (int) crc.getValue() );
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		append( pending );
+	}
+
+	// Swap the pending buffer for the spare one, so puts carry on while the
+	// taken records are appended
+	@Override
+	public DetachedFlush detachFlush()
+	{
+		ByteBuffer taken = pending;
+		pending = spare != null ? spare : ByteBuffer.allocate( 4096 );
+		spare = null;
+		return sync -> {
+			try
+			{
+				append( taken );
+			}
+			catch ( IOException e )
+			{
+				// Keep the records for the next flush so none is skipped
+				unwritten = unwritten == null ? taken : concat( unwritten, taken );
+				throw e;
+			}
+			spare = taken;
+			if ( sync )
+			{
+				sync();
+			}
+		};
+	}
+
+	// Append records left by a failed flush, then the given ones. Records
+	// which could not be appended stay in their buffer.
+	private void append( ByteBuffer records ) throws IOException
+	{
+		if ( failure != null )
+		{
+			throw new IOException( "The log of " + file.getAbsolutePath() + " failed earlier", failure );
+		}
+		if ( unwritten != null )
+		{
+			write( unwritten );
+			unwritten = null;
+		}
+		write( records );
+
+		if ( logBytes >= compactBytes && (compaction == null || compaction.isDone()) )
+		{
+			compact( false );
+		}
+	}
+
+	// Append whole records or none, so replay never meets a torn record
+	// followed by good ones
+	private void write( ByteBuffer records ) throws IOException
+	{
+		long start = logBytes;
+		int end = records.position();
+		records.flip();
+		try
+		{
+			while ( records.hasRemaining() )
+			{
+				log.write( records );
+			}
+		}
+		catch ( IOException e )
+		{
+			records.limit( records.capacity() ).position( end );
+			try
+			{
+				log.truncate( start );
+				log.position( start );
+			}
+			catch ( IOException cut )
+			{
+				e.addSuppressed( cut );
+				failure = e;
+			}
+			throw e;
+		}
+		logBytes = start + end;
+		records.clear();
+	}
+
+	private static ByteBuffer concat( ByteBuffer first, ByteBuffer second )
+	{
+		ByteBuffer joined = ByteBuffer.allocate( first.position() + second.position() );
+		joined.put( first.flip() );
+		joined.put( second.flip() );
+		return joined;
+	}
+
+	// Rotate the log and write a snapshot of the map as it was at that point
+	private void compact( boolean wait ) throws IOException
+	{
+		finishCompaction();
+
+		// The rotated log holds the only durable copy until the snapshot lands
+		log.force( false );
+		log.close();
+		Files.move( wal, rotated, StandardCopyOption.ATOMIC_MOVE );
+		log = FileChannel.open( wal, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE );
+		logBytes = 0;
+
+		Map<String, Number> snapshot = numberMap.toMap();
+		compaction = compactor.submit( () -> {
+			writeSnapshot( snapshot );
+			return null;
+		} );
+		if ( wait )
+		{
+			finishCompaction();
+		}
+	}
+
+	private void writeSnapshot( Map<String, Number> snapshot ) throws IOException
+	{
+		Path tmp = Files.createTempFile( file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp" );
+		try
+		{
+			JsonNumberStore.write( tmp.toFile(), snapshot );
+			JsonNumberStore.sync( tmp.toFile() );
+			Files.move( tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			Files.deleteIfExists( rotated );
+			logger.debug( "Compacted {} entries into {}", snapshot.size(), file.getAbsolutePath() );
+		}
+		finally
+		{
+			Files.deleteIfExists( tmp );
+		}
+	}
+
+	// Wait for a running compaction. If it failed, its rotated log is replayed on the next open
+	private void finishCompaction() throws IOException
+	{
+		if ( compaction == null )
+		{
+			return;
+		}
+		try
+		{
+			compaction.get();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while compacting " + file.getAbsolutePath(), e );
+		}
+		catch ( ExecutionException e )
+		{
+			logger.error( "Compaction of {} failed: {}", file.getAbsolutePath(), getMessage( e.getCause() ) );
+			if ( Files.exists( rotated ) )
+			{
+				// Fold the failed rotation back into the live log so no update is lost
+				byte[] older = Files.readAllBytes( rotated );
+				byte[] newer = Files.readAllBytes( wal );
+				log.close();
+				Path tmp = Files.createTempFile( wal.toAbsolutePath().getParent(), wal.getFileName().toString(), ".tmp" );
+				Files.write( tmp, older );
+				Files.write( tmp, newer, StandardOpenOption.APPEND );
+				JsonNumberStore.sync( tmp.toFile() );
+				Files.move( tmp, wal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+				// The rotated log stays the only synced copy until the move is durable
+				syncDirectory( wal.toAbsolutePath().getParent() );
+				Files.deleteIfExists( rotated );
+				log = FileChannel.open( wal, StandardOpenOption.WRITE );
+				logBytes = log.size();
+				log.position( logBytes );
+			}
+		}
+		finally
+		{
+			compaction = null;
+		}
+	}
+
+	// Makes a rename durable. Best effort, as Windows cannot open a
+	// directory to force it.
+	private static void syncDirectory( Path dir )
+	{
+		try ( FileChannel channel = FileChannel.open( dir, StandardOpenOption.READ ) )
+		{
+			channel.force( true );
+		}
+		catch ( IOException e )
+		{
+			logger.debug( "Unable to sync {}: {}", dir, getMessage( e ) );
+		}
+	}
+
+	@Override
+	public void sync() throws IOException
+	{
+		// Snapshots are synced before they replace the old one
+		log.force( false );
+	}
+
+	@Override
+	public Map<String, Number> toMap()
+	{
+		return numberMap.toMap();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			flush();
+
+			// Leave a complete snapshot so the file stays readable as plain JSON
+			if ( logBytes > 0 )
+			{
+				compact( true );
+			}
+			else
+			{
+				finishCompaction();
+			}
+		}
+		finally
+		{
+			log.close();
+			if ( Files.exists( wal ) && Files.size( wal ) == 0 && !Files.exists( rotated ) )
+			{
+				Files.delete( wal );
+			}
+		}
+	}
+}
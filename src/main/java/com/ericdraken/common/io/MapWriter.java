@@ -4,34 +4,93 @@
 
 package com.ericdraken.common.io;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.io.IOUtils;
+import com.ericdraken.common.executors.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import static com.ericdraken.common.exceptions.ExceptionUtils.getMessage;
 
+/**
+ * A persistent map of keys to numbers and instants. By default every write
+ * reaches the file before it returns. With group commit, set through the
+ * builder, writes only update the map and a flusher thread persists them
+ * together every flush interval or after a number of updates, so writers
+ * no longer wait on the disk. Use flush() to wait for durability. The
+ * flusher is a daemon thread, so it does not keep the JVM alive; close()
+ * the writer to persist what is still pending.
+ * <p>
+ * Reads never take the writer lock, so they do not wait for writes or
+ * for each other.
+ */
 public class MapWriter implements Closeable
 {
-	private final File file;
+	/**
+	 * How the map is kept on disk
+	 */
+	public enum Storage
+	{
+		/**
+		 * Pretty-printed JSON, rewritten in full on every update
+		 */
+		JSON,
+
+		/**
+		 * A memory-mapped hash table of fixed-width slots, updated in place.
+		 * An existing JSON file is converted on open.
+		 */
+		MAPPED,
+
+		/**
+		 * A JSON snapshot plus an append-only write-ahead log in a ".wal"
+		 * file beside it, compacted into a new snapshot in the background
+		 */
+		LOG
+	}
 
-	private HashMap<String, Object> numberMap;
+	private final NumberStore store;
 
 	private final Lock lock = new ReentrantLock();
 
+	private final Condition flushNeeded = lock.newCondition();
+
+	private final boolean fsync;
+
+	// Zero when every write is persisted before it returns
+	private final long flushIntervalNanos;
+
+	private final int flushAfterUpdates;
+
+	private final Thread flusher;
+
+	private int pendingUpdates;
+
+	private long dirtySince;
+
+	private boolean flushRequested;
+
+	private boolean closed;
+
+	private CompletableFuture<Void> nextFlush = new CompletableFuture<>();
+
+	// The flush being written outside the lock, if any
+	private CompletableFuture<Void> inFlight;
+
 	protected static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
 
 	/**
@@ -39,28 +98,66 @@ public class MapWriter implements Closeable
 	 */
 	public MapWriter( @Nonnull File file )
 	{
-		this.file = file;
+		this( file, Storage.JSON );
+	}
 
-		lock.lock();
-		try ( FileReader reader = new FileReader( file ) )
+	/**
+	 * Constructor with a storage engine
+	 *
+	 * @param file    File
+	 * @param storage Storage
+	 * @throws UncheckedIOException if a mapped or log store cannot be opened
+	 */
+	public MapWriter( @Nonnull File file, @Nonnull Storage storage )
+	{
+		this( builder( file ).storage( storage ) );
+	}
+
+	private MapWriter( Builder builder )
+	{
+		this.store = open( builder.file, builder.storage );
+		this.fsync = builder.fsync;
+		this.flushIntervalNanos = builder.flushIntervalNanos;
+		this.flushAfterUpdates = builder.flushAfterUpdates;
+
+		if ( flushIntervalNanos > 0 )
 		{
-			// Load the json from disk
-			ObjectMapper mapper = new ObjectMapper();
-			TypeReference<HashMap<String, Object>> typeRef = new TypeReference<>()
-			{
-			};
-			numberMap = mapper.readValue( IOUtils.toString( reader ), typeRef );
-			logger.info( "Opened {}", file.getAbsolutePath() );
+			flusher = new NamedThreadFactory( "mapwriter-flusher" ).newThread( this::runFlusher );
+			flusher.setDaemon( true );
+			flusher.start();
 		}
-		catch ( Exception e )
+		else
 		{
-			// Create a new map
-			logger.info( "Creating new map because: {}", getMessage( e ) );
-			numberMap = new HashMap<>();
+			flusher = null;
 		}
-		finally
+	}
+
+	/**
+	 * @param file File
+	 * @return A builder for a MapWriter with storage and group commit options
+	 */
+	public static Builder builder( @Nonnull File file )
+	{
+		return new Builder( file );
+	}
+
+	private static NumberStore open( File file, Storage storage )
+	{
+		if ( storage == Storage.JSON )
 		{
-			lock.unlock();
+			return new JsonNumberStore( file );
+		}
+		try
+		{
+			NumberStore store = storage == Storage.MAPPED ?
+				new MappedNumberStore( file ) :
+				new LogNumberStore( file );
+			logger.info( "Opened {}", file.getAbsolutePath() );
+			return store;
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( "Unable to open " + file.getAbsolutePath(), e );
 		}
 	}
 
@@ -73,7 +170,7 @@ public class MapWriter implements Closeable
 	 */
 	public boolean writeInstantForKey( String key, Instant instant )
 	{
-		return writeNumberForKey( key, instant.getEpochSecond() );
+		return writeLongForKey( key, instant.getEpochSecond() );
 	}
 
 	/**
@@ -95,10 +192,19 @@ public class MapWriter implements Closeable
 	 */
 	public Instant readInstantForKey( String key )
 	{
-		Number timestamp = readNumberForKey( key );
-		return timestamp == null ?
-			Instant.EPOCH :
-			Instant.ofEpochSecond( timestamp.longValue() );
+		return Instant.ofEpochSecond( readLongForKey( key, 0 ) );
+	}
+
+	/**
+	 * Get the number for a given key as a long, without boxing it
+	 *
+	 * @param key          Key
+	 * @param defaultValue Returned if the key is absent
+	 * @return long Value
+	 */
+	public long readLongForKey( String key, long defaultValue )
+	{
+		return store.getLong( key, defaultValue );
 	}
 
 	/**
@@ -108,11 +214,43 @@ public class MapWriter implements Closeable
 	 * @return Number Number
 	 */
 	public Number readNumberForKey( String key )
+	{
+		return store.get( key );
+	}
+
+	/**
+	 * Get a copy of every key and number. Writes made while copying may or
+	 * may not be included.
+	 *
+	 * @return Map
+	 */
+	public Map<String, Number> readAll()
+	{
+		return store.toMap();
+	}
+
+	/**
+	 * Set the object for a given key and write to disk immediately, or with
+	 * group commit, on the next flush
+	 *
+	 * @param key   Key
+	 * @param value Number
+	 * @return boolean True if written successfully
+	 */
+	public boolean writeNumberForKey( String key, Number value )
 	{
 		lock.lock();
 		try
 		{
-			return (Number) numberMap.get( key );
+			store.put( key, value );
+			logger.debug( "Updated: {}:{}", key, value );
+			persist( 1 );
+			return true;
+		}
+		catch ( IOException e )
+		{
+			logger.error( getMessage( e ) );
+			return false;
 		}
 		finally
 		{
@@ -121,20 +259,30 @@ public class MapWriter implements Closeable
 	}
 
 	/**
-	 * Set the object for a given key and write to disk immediately
+	 * Set a long for a given key without boxing it, and write to disk
+	 * immediately, or with group commit, on the next flush
 	 *
 	 * @param key   Key
-	 * @param value Number
+	 * @param value Value
 	 * @return boolean True if written successfully
 	 */
-	public boolean writeNumberForKey( String key, Number value )
+	public boolean writeLongForKey( String key, long value )
 	{
 		lock.lock();
 		try
 		{
-			numberMap.put( key, value );
-			logger.debug( "Updated: {}:{}", key, value );
-			return writeMapToDisk();
+			store.putLong( key, value );
+			if ( logger.isDebugEnabled() )
+			{
+				logger.debug( "Updated: {}:{}", key, value );
+			}
+			persist( 1 );
+			return true;
+		}
+		catch ( IOException e )
+		{
+			logger.error( getMessage( e ) );
+			return false;
 		}
 		finally
 		{
@@ -143,26 +291,220 @@ public class MapWriter implements Closeable
 	}
 
 	/**
-	 * Write the map to disk
+	 * Set many keys and write them to disk together, once
 	 *
-	 * @return true on success, false on failure
+	 * @param values Keys and numbers
+	 * @return boolean True if written successfully
 	 */
-	private boolean writeMapToDisk()
+	public boolean writeAll( @Nonnull Map<String, ? extends Number> values )
 	{
-		// Write map to disk each time
-		try ( FileWriter fw = new FileWriter( file, false ) )
+		lock.lock();
+		try
 		{
-			ObjectMapper mapper = new ObjectMapper();
-			String json = mapper.writerWithDefaultPrettyPrinter().writeValueAsString( numberMap );
-
-			fw.write( json );
+			for ( Map.Entry<String, ? extends Number> entry : values.entrySet() )
+			{
+				store.put( entry.getKey(), entry.getValue() );
+			}
+			logger.debug( "Updated {} entries", values.size() );
+			persist( values.size() );
 			return true;
 		}
-		catch ( Exception e )
+		catch ( IOException e )
 		{
 			logger.error( getMessage( e ) );
 			return false;
 		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write the whole map as pretty-printed JSON, the format of the JSON storage
+	 *
+	 * @param out JSON file
+	 * @throws IOException on write failure
+	 */
+	public void exportJson( @Nonnull File out ) throws IOException
+	{
+		Folders.makeParentFolders( out );
+		JsonNumberStore.write( out, store.toMap() );
+	}
+
+	/**
+	 * Merge the numbers from a JSON file into this map and write to disk
+	 *
+	 * @param in JSON file
+	 * @return boolean True if written successfully, false if nothing was
+	 * imported because the file could not be read or parsed
+	 */
+	public boolean importJson( @Nonnull File in )
+	{
+		Map<String, Number> map;
+		try
+		{
+			map = JsonNumberStore.read( in ).toMap();
+		}
+		catch ( IOException e )
+		{
+			logger.error( getMessage( e ) );
+			return false;
+		}
+		logger.debug( "Importing {} entries from {}", map.size(), in.getAbsolutePath() );
+		return writeAll( map );
+	}
+
+	// Called with the lock held after updating the store
+	private void persist( int updates ) throws IOException
+	{
+		if ( flusher == null )
+		{
+			store.flush();
+			if ( fsync )
+			{
+				store.sync();
+			}
+			return;
+		}
+
+		if ( pendingUpdates == 0 )
+		{
+			dirtySince = System.nanoTime();
+		}
+		int before = pendingUpdates;
+		pendingUpdates = (int) Math.min( Integer.MAX_VALUE, (long) pendingUpdates + updates );
+		if ( before < flushAfterUpdates && pendingUpdates >= flushAfterUpdates )
+		{
+			flushNeeded.signal();
+		}
+	}
+
+	/**
+	 * Persist every write made so far. With group commit this wakes the
+	 * flusher instead of waiting for it.
+	 *
+	 * @return A future which completes when the writes are on disk, and
+	 * synced to it if fsync is on, or completes exceptionally on failure
+	 */
+	public CompletableFuture<Void> flush()
+	{
+		lock.lock();
+		try
+		{
+			if ( closed )
+			{
+				// Closing persisted everything
+				return CompletableFuture.completedFuture( null );
+			}
+			if ( flusher == null )
+			{
+				store.flush();
+				if ( fsync )
+				{
+					store.sync();
+				}
+				return CompletableFuture.completedFuture( null );
+			}
+
+			// Earlier writes may still be on their way to the disk
+			if ( pendingUpdates == 0 )
+			{
+				return inFlight != null ? inFlight : CompletableFuture.completedFuture( null );
+			}
+			flushRequested = true;
+			flushNeeded.signal();
+			return nextFlush;
+		}
+		catch ( IOException e )
+		{
+			logger.error( getMessage( e ) );
+			CompletableFuture<Void> failed = new CompletableFuture<>();
+			failed.completeExceptionally( e );
+			return failed;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private void runFlusher()
+	{
+		while ( true )
+		{
+			CompletableFuture<Void> flushed;
+			NumberStore.DetachedFlush work;
+			IOException failure = null;
+
+			lock.lock();
+			try
+			{
+				long wait = dirtySince + flushIntervalNanos - System.nanoTime();
+				if ( closed )
+				{
+					return;
+				}
+				else if ( pendingUpdates == 0 )
+				{
+					flushNeeded.await();
+					continue;
+				}
+				else if ( !flushRequested && pendingUpdates < flushAfterUpdates && wait > 0 )
+				{
+					flushNeeded.awaitNanos( wait );
+					continue;
+				}
+
+				// Only take the updates here; writers carry on while they are written
+				flushed = nextFlush;
+				nextFlush = new CompletableFuture<>();
+				pendingUpdates = 0;
+				flushRequested = false;
+				inFlight = flushed;
+				work = store.detachFlush();
+			}
+			catch ( InterruptedException e )
+			{
+				// close() flushes whatever is left
+				Thread.currentThread().interrupt();
+				return;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+
+			try
+			{
+				work.write( fsync );
+			}
+			catch ( IOException e )
+			{
+				logger.error( getMessage( e ) );
+				failure = e;
+			}
+
+			lock.lock();
+			try
+			{
+				inFlight = null;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+
+			// Complete outside the lock so callbacks cannot stall writers
+			if ( failure == null )
+			{
+				flushed.complete( null );
+			}
+			else
+			{
+				flushed.completeExceptionally( failure );
+			}
+		}
 	}
 
 	@Override
@@ -171,19 +513,142 @@ public class MapWriter implements Closeable
 		lock.lock();
 		try
 		{
-			writeMapToDisk();
+			if ( closed )
+			{
+				return;
+			}
+			closed = true;
+			flushNeeded.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		if ( flusher != null )
+		{
+			try
+			{
+				flusher.join();
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		CompletableFuture<Void> flushed;
+		IOException failure = null;
+		lock.lock();
+		try
+		{
+			flushed = nextFlush;
+			pendingUpdates = 0;
+			try
+			{
+				if ( fsync )
+				{
+					store.flush();
+					store.sync();
+				}
+				store.close();
+			}
+			catch ( IOException e )
+			{
+				logger.error( getMessage( e ) );
+				failure = e;
+			}
 		}
 		finally
 		{
 			lock.unlock();
 		}
+
+		if ( failure == null )
+		{
+			flushed.complete( null );
+		}
+		else
+		{
+			flushed.completeExceptionally( failure );
+		}
 	}
 
 	@Override
 	public String toString()
 	{
-		return numberMap.entrySet().stream()
+		return store.toMap().entrySet().stream()
 			.map( x -> x.getKey() + ": " + x.getValue() )
 			.collect( Collectors.joining( System.lineSeparator() ) );
 	}
+
+	public static final class Builder
+	{
+		private final File file;
+		private Storage storage = Storage.JSON;
+		private long flushIntervalNanos = 0;
+		private int flushAfterUpdates = Integer.MAX_VALUE;
+		private boolean fsync = false;
+
+		private Builder( File file )
+		{
+			this.file = file;
+		}
+
+		public Builder storage( @Nonnull Storage storage )
+		{
+			this.storage = storage;
+			return this;
+		}
+
+		/**
+		 * Turn on group commit: persist writes together at most this long
+		 * after the first unpersisted one
+		 *
+		 * @param interval Flush interval
+		 */
+		public Builder flushInterval( @Nonnull Duration interval )
+		{
+			if ( interval.isNegative() || interval.isZero() )
+			{
+				throw new IllegalArgumentException( "Interval must be positive" );
+			}
+			this.flushIntervalNanos = interval.compareTo( Duration.ofDays( 1 ) ) > 0 ?
+				TimeUnit.DAYS.toNanos( 1 ) :
+				interval.toNanos();
+			return this;
+		}
+
+		/**
+		 * With group commit, also persist as soon as this many writes are pending
+		 *
+		 * @param updates Number of writes
+		 */
+		public Builder flushAfterUpdates( int updates )
+		{
+			if ( updates < 1 )
+			{
+				throw new IllegalArgumentException( "Updates must be positive" );
+			}
+			this.flushAfterUpdates = updates;
+			return this;
+		}
+
+		/**
+		 * Force persisted writes to the disk with fsync, not just the page cache
+		 */
+		public Builder fsync( boolean fsync )
+		{
+			this.fsync = fsync;
+			return this;
+		}
+
+		/**
+		 * @throws UncheckedIOException if a mapped or log store cannot be opened
+		 */
+		public MapWriter build()
+		{
+			return new MapWriter( this );
+		}
+	}
 }
@@ -0,0 +1,562 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A memory-mapped store of fixed-width number slots indexed by an
+ * open-addressing hash table in the file itself, so an update of an
+ * existing key is an in-place write of 9 bytes, and a read probes the
+ * mapping without any heap map. New keys append their UTF-8 bytes to a
+ * key area after the slots. When the table passes 70% load or the key
+ * area fills up, the store is rebuilt at twice the size into a temporary
+ * file which then replaces the original.
+ * <p>
+ * The file is its own snapshot: opening it maps it and decodes nothing,
+ * and each key is decoded from the mapping when it is read. After a clean
+ * close the header holds the entry count and key area end, so opening
+ * does not scan the table either. The clean flag is cleared and forced to
+ * disk before the first update after opening, so after a crash the table
+ * is scanned instead.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * header  magic:int version:int capacity:int keyAreaSize:int size:int keyAreaEnd:int clean:byte (padded to 64 bytes)
+ * slots   capacity x ( keyPos:int hash:int value:long type:byte pad:7 )
+ * keys    ( length:int utf8:byte[length] )*
+ * </pre>
+ * A slot with keyPos 0 is empty. New keys are written before the slot
+ * that points at them, so a crash never leaves a slot with a torn key.
+ * Like the JSON store, writes reach the page cache immediately and are
+ * forced to the disk on close. Reads are optimistic reads of a
+ * StampedLock which only fall back to a read lock when they race a
+ * writer.
+ */
+class MappedNumberStore implements NumberStore
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	static final int MAGIC = 0x4D574E53; // "MWNS"
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER = 64;
+	private static final int HEADER_SIZE = 16;
+	private static final int HEADER_KEY_AREA_END = 20;
+	private static final int HEADER_CLEAN = 24;
+	private static final int SLOT = 24;
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int KEY_BYTES_PER_SLOT = 32;
+
+	// Scratch space for the UTF-8 bytes of a key being looked up
+	private static final ThreadLocal<byte[]> keyBuffer = ThreadLocal.withInitial( () -> new byte[256] );
+
+	private final File file;
+
+	private final StampedLock lock = new StampedLock();
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private int capacity;
+	private int keyAreaStart;
+	private int keyAreaEnd;
+	private int keyAreaLimit;
+	private int size;
+	private boolean clean;
+
+	MappedNumberStore( File file ) throws IOException
+	{
+		this.file = file;
+		if ( file.length() == 0 )
+		{
+			create( file, INITIAL_CAPACITY, INITIAL_CAPACITY * KEY_BYTES_PER_SLOT, Map.of() );
+		}
+		else if ( !isMapped( file ) )
+		{
+			// Migrate a legacy JSON file in place. A file which does not parse
+			// is left alone rather than replaced by an empty store.
+			Map<String, Number> json = JsonNumberStore.read( file ).toMap();
+			int capacity = capacityFor( json.size() );
+			create( file, capacity, capacity * KEY_BYTES_PER_SLOT, json );
+			logger.info( "Converted {} JSON entries in {} to a mapped store", json.size(), file.getAbsolutePath() );
+		}
+		open();
+	}
+
+	/**
+	 * @param file File
+	 * @return true if the file starts with the mapped store magic number
+	 * @throws IOException if the file cannot be read
+	 */
+	static boolean isMapped( File file ) throws IOException
+	{
+		try ( RandomAccessFile in = new RandomAccessFile( file, "r" ) )
+		{
+			return in.length() >= HEADER && in.readInt() == MAGIC;
+		}
+	}
+
+	private static int capacityFor( int entries )
+	{
+		int capacity = INITIAL_CAPACITY;
+		while ( entries > capacity * 7L / 10 )
+		{
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	// Write a new store with the given entries to a temp file, then move it over the target
+	private static void create( File target, int capacity, int keyAreaSize, Map<String, Number> entries ) throws IOException
+	{
+		Folders.makeParentFolders( target );
+		Path tmp = Files.createTempFile( target.getAbsoluteFile().getParentFile().toPath(), target.getName(), ".tmp" );
+		try
+		{
+			try ( RandomAccessFile out = new RandomAccessFile( tmp.toFile(), "rw" );
+			      FileChannel channel = out.getChannel() )
+			{
+				long length = (long) HEADER + (long) capacity * SLOT + keyAreaSize;
+				if ( length > Integer.MAX_VALUE )
+				{
+					throw new IOException( "Mapped store would exceed 2 GiB" );
+				}
+				out.setLength( length );
+				MappedByteBuffer map = channel.map( FileChannel.MapMode.READ_WRITE, 0, length );
+				map.putInt( 0, MAGIC );
+				map.putInt( 4, VERSION );
+				map.putInt( 8, capacity );
+				map.putInt( 12, keyAreaSize );
+
+				int keyPos = HEADER + capacity * SLOT;
+				for ( Map.Entry<String, Number> entry : entries.entrySet() )
+				{
+					byte[] key = entry.getKey().getBytes( StandardCharsets.UTF_8 );
+					int slot = probe( map, capacity, key, hash( key ) );
+					NumberType type = NumberType.ofFixedWidth( entry.getValue() );
+					keyPos = insert( map, slot, keyPos, key, hash( key ), type, type.toBits( entry.getValue() ) );
+				}
+				map.putInt( HEADER_SIZE, entries.size() );
+				map.putInt( HEADER_KEY_AREA_END, keyPos );
+				map.put( HEADER_CLEAN, (byte) 1 );
+				map.force();
+			}
+			Files.move( tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		finally
+		{
+			Files.deleteIfExists( tmp );
+		}
+	}
+
+	private void open() throws IOException
+	{
+		raf = new RandomAccessFile( file, "rw" );
+		buffer = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, raf.length() );
+		if ( buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != VERSION )
+		{
+			closeMapping();
+			throw new IOException( "Not a mapped number store: " + file );
+		}
+		capacity = buffer.getInt( 8 );
+		keyAreaStart = HEADER + capacity * SLOT;
+		keyAreaLimit = keyAreaStart + buffer.getInt( 12 );
+
+		clean = buffer.get( HEADER_CLEAN ) == 1;
+		if ( clean )
+		{
+			size = buffer.getInt( HEADER_SIZE );
+			keyAreaEnd = buffer.getInt( HEADER_KEY_AREA_END );
+			return;
+		}
+
+		// Recount rather than trust a header that a crash could have left stale
+		logger.info( "Recounting {} which was not closed cleanly", file.getAbsolutePath() );
+		size = 0;
+		keyAreaEnd = keyAreaStart;
+		for ( int i = 0; i < capacity; i++ )
+		{
+			int keyPos = buffer.getInt( HEADER + i * SLOT );
+			if ( keyPos != 0 )
+			{
+				size++;
+				keyAreaEnd = Math.max( keyAreaEnd, keyPos + 4 + buffer.getInt( keyPos ) );
+			}
+		}
+	}
+
+	static int hash( byte[] key )
+	{
+		return hash( key, key.length );
+	}
+
+	private static int hash( byte[] key, int length )
+	{
+		int h = 1;
+		for ( int i = 0; i < length; i++ )
+		{
+			h = 31 * h + key[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	// Index of the slot holding the key, or of the empty slot where it belongs
+	private static int probe( MappedByteBuffer map, int capacity, byte[] key, int hash )
+	{
+		return probe( map, capacity, key, key.length, hash );
+	}
+
+	private static int probe( MappedByteBuffer map, int capacity, byte[] key, int length, int hash )
+	{
+		int mask = capacity - 1;
+		for ( int i = hash & mask; ; i = (i + 1) & mask )
+		{
+			int slot = HEADER + i * SLOT;
+			int keyPos = map.getInt( slot );
+			if ( keyPos == 0 || (map.getInt( slot + 4 ) == hash && keyEquals( map, keyPos, key, length )) )
+			{
+				return slot;
+			}
+		}
+	}
+
+	private static boolean keyEquals( MappedByteBuffer map, int keyPos, byte[] key, int length )
+	{
+		if ( map.getInt( keyPos ) != length )
+		{
+			return false;
+		}
+		for ( int i = 0; i < length; i++ )
+		{
+			if ( map.get( keyPos + 4 + i ) != key[i] )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Write the key, then the value, then publish the slot. Returns the new key area end
+	private static int insert( MappedByteBuffer map, int slot, int keyPos, byte[] key, int hash, NumberType type, long bits )
+	{
+		map.putInt( keyPos, key.length );
+		for ( int i = 0; i < key.length; i++ )
+		{
+			map.put( keyPos + 4 + i, key[i] );
+		}
+		writeValue( map, slot, type, bits );
+		map.putInt( slot + 4, hash );
+		map.putInt( slot, keyPos );
+		return keyPos + 4 + key.length;
+	}
+
+	private static void writeValue( MappedByteBuffer map, int slot, NumberType type, long bits )
+	{
+		map.putLong( slot + 8, bits );
+		map.put( slot + 16, type.tag );
+	}
+
+	private static Number readValue( MappedByteBuffer map, int slot )
+	{
+		return NumberType.ofTag( map.get( slot + 16 ) ).fromBits( map.getLong( slot + 8 ) );
+	}
+
+	@Override
+	public Number get( String key )
+	{
+		byte[] bytes = key.getBytes( StandardCharsets.UTF_8 );
+		int hash = hash( bytes );
+
+		long stamp = lock.tryOptimisticRead();
+		Number result = null;
+		if ( stamp != 0L )
+		{
+			try
+			{
+				result = find( buffer, capacity, bytes, hash );
+			}
+			catch ( RuntimeException ignored )
+			{
+				// A writer moved the mapping mid-probe, validate() fails below
+			}
+		}
+		if ( stamp == 0L || !lock.validate( stamp ) )
+		{
+			stamp = lock.readLock();
+			try
+			{
+				result = find( buffer, capacity, bytes, hash );
+			}
+			finally
+			{
+				lock.unlockRead( stamp );
+			}
+		}
+		return result;
+	}
+
+	private static Number find( MappedByteBuffer map, int capacity, byte[] key, int hash )
+	{
+		int slot = probe( map, capacity, key, hash );
+		return map.getInt( slot ) == 0 ? null : readValue( map, slot );
+	}
+
+	// Reads the bits and tag of the slot, encoding the key into a reused
+	// buffer, so neither the key bytes nor the value are allocated
+	@Override
+	public long getLong( String key, long defaultValue )
+	{
+		int length = NumberMap.encodedLength( key );
+		byte[] bytes = keyBuffer.get();
+		if ( bytes.length < length )
+		{
+			bytes = new byte[Math.max( length, bytes.length * 2 )];
+			keyBuffer.set( bytes );
+		}
+		NumberMap.encode( key, bytes, 0 );
+		int hash = hash( bytes, length );
+
+		long stamp = lock.tryOptimisticRead();
+		if ( stamp != 0L )
+		{
+			try
+			{
+				long result = findLong( buffer, capacity, bytes, length, hash, defaultValue );
+				if ( lock.validate( stamp ) )
+				{
+					return result;
+				}
+			}
+			catch ( RuntimeException ignored )
+			{
+				// A writer moved the mapping mid-probe, fall back to the read lock
+			}
+		}
+
+		stamp = lock.readLock();
+		try
+		{
+			return findLong( buffer, capacity, bytes, length, hash, defaultValue );
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	private static long findLong( MappedByteBuffer map, int capacity, byte[] key, int length, int hash, long defaultValue )
+	{
+		int slot = probe( map, capacity, key, length, hash );
+		return map.getInt( slot ) == 0 ?
+			defaultValue :
+			NumberMap.toLong( map.get( slot + 16 ), map.getLong( slot + 8 ) );
+	}
+
+	@Override
+	public void put( String key, Number value ) throws IOException
+	{
+		NumberType type = NumberType.ofFixedWidth( value );
+		put( key, type, type.toBits( value ) );
+	}
+
+	@Override
+	public void putLong( String key, long value ) throws IOException
+	{
+		put( key, NumberType.LONG, value );
+	}
+
+	private void put( String key, NumberType type, long bits ) throws IOException
+	{
+		byte[] bytes = key.getBytes( StandardCharsets.UTF_8 );
+		int hash = hash( bytes );
+		long stamp = lock.writeLock();
+		try
+		{
+			markDirty();
+			int slot = probe( buffer, capacity, bytes, hash );
+			if ( buffer.getInt( slot ) != 0 )
+			{
+				writeValue( buffer, slot, type, bits );
+				return;
+			}
+
+			if ( size + 1 > capacity * 7L / 10 || keyAreaEnd + 4 + bytes.length > keyAreaLimit )
+			{
+				grow( 4 + bytes.length );
+				markDirty();
+				slot = probe( buffer, capacity, bytes, hash );
+			}
+			keyAreaEnd = insert( buffer, slot, keyAreaEnd, bytes, hash, type, bits );
+			size++;
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	// Until the next clean close, the header counts cannot be trusted
+	private void markDirty()
+	{
+		if ( clean )
+		{
+			buffer.put( HEADER_CLEAN, (byte) 0 );
+			buffer.force();
+			clean = false;
+		}
+	}
+
+	// Rebuild at double the size, or more if one key needs it
+	private void grow( int extraKeyBytes ) throws IOException
+	{
+		Map<String, Number> entries = copy();
+		int newCapacity = capacityFor( size + 1 );
+		if ( newCapacity <= capacity && size + 1 > capacity * 7L / 10 )
+		{
+			newCapacity = capacity << 1;
+		}
+		newCapacity = Math.max( newCapacity, capacity );
+		long keyArea = Math.max( 2L * (keyAreaLimit - keyAreaStart), (long) newCapacity * KEY_BYTES_PER_SLOT );
+		keyArea = Math.max( keyArea, (keyAreaEnd - keyAreaStart) + 2L * extraKeyBytes );
+		if ( keyArea > Integer.MAX_VALUE )
+		{
+			throw new IOException( "Mapped store would exceed 2 GiB" );
+		}
+
+		closeMapping();
+		try
+		{
+			create( file, newCapacity, (int) keyArea, entries );
+		}
+		finally
+		{
+			// The old file is untouched if the rebuild failed
+			open();
+		}
+	}
+
+	@Override
+	public void flush()
+	{
+		// Writes to the mapping are already in the file
+	}
+
+	// Forces the mapping without the lock, so puts are not held up by the
+	// disk. A mapping replaced by grow() stays valid, and grow() forces the
+	// new file before it is swapped in.
+	@Override
+	public void sync()
+	{
+		MappedByteBuffer mapping;
+		long stamp = lock.readLock();
+		try
+		{
+			mapping = buffer;
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+		if ( mapping != null )
+		{
+			mapping.force();
+		}
+	}
+
+	// Writes to the mapping are already in the file, only a sync is left
+	@Override
+	public DetachedFlush detachFlush()
+	{
+		return sync -> {
+			if ( sync )
+			{
+				sync();
+			}
+		};
+	}
+
+	@Override
+	public Map<String, Number> toMap()
+	{
+		long stamp = lock.readLock();
+		try
+		{
+			return copy();
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	private Map<String, Number> copy()
+	{
+		HashMap<String, Number> map = new HashMap<>( size * 4 / 3 + 1 );
+		for ( int i = 0; i < capacity; i++ )
+		{
+			int slot = HEADER + i * SLOT;
+			int keyPos = buffer.getInt( slot );
+			if ( keyPos != 0 )
+			{
+				byte[] key = new byte[buffer.getInt( keyPos )];
+				for ( int j = 0; j < key.length; j++ )
+				{
+					key[j] = buffer.get( keyPos + 4 + j );
+				}
+				map.put( new String( key, StandardCharsets.UTF_8 ), readValue( buffer, slot ) );
+			}
+		}
+		return map;
+	}
+
+	private void closeMapping() throws IOException
+	{
+		buffer = null;
+		if ( raf != null )
+		{
+			raf.close();
+			raf = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		long stamp = lock.writeLock();
+		try
+		{
+			if ( buffer != null )
+			{
+				buffer.putInt( HEADER_SIZE, size );
+				buffer.putInt( HEADER_KEY_AREA_END, keyAreaEnd );
+				buffer.force();
+				buffer.put( HEADER_CLEAN, (byte) 1 );
+				buffer.force();
+			}
+			closeMapping();
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+}
@@ -0,0 +1,592 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An open-addressing map from strings to numbers held as primitives: keys
+ * are UTF-8 bytes in one shared arena, and values are 64 bits in a long[]
+ * with a NumberType tag in a byte[], so there are no entry objects, boxed
+ * values or String keys on the heap. getLong(), and putLong() for a key
+ * which is already present, do not allocate. BIG values, which do not fit
+ * in 64 bits, are kept exactly in a parallel Number[] which is only
+ * allocated once the first one is put.
+ * <p>
+ * One writer at a time, any number of readers. Reads are optimistic reads
+ * of a StampedLock, used as a seqlock, and only fall back to a read lock
+ * when they race a write.
+ */
+class NumberMap
+{
+	private static final int MIN_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.7f;
+
+	private final StampedLock lock = new StampedLock();
+
+	// Arena offset of each slot's key plus one, zero when the slot is empty
+	private int[] keys;
+	private int[] hashes;
+	private long[] values;
+	private byte[] types;
+
+	// Null until a BIG value is put
+	private Number[] boxed;
+
+	// Keys as ( length:int utf8:byte[length] )
+	private byte[] arena;
+	private int arenaEnd;
+	private int garbage;
+
+	private int size;
+
+	NumberMap()
+	{
+		this( 0 );
+	}
+
+	NumberMap( int expectedSize )
+	{
+		allocate( capacityFor( expectedSize ), 256 );
+	}
+
+	private static int capacityFor( int expectedSize )
+	{
+		int capacity = MIN_CAPACITY;
+		while ( capacity * LOAD_FACTOR < expectedSize + 1 )
+		{
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void allocate( int capacity, int arenaSize )
+	{
+		keys = new int[capacity];
+		hashes = new int[capacity];
+		values = new long[capacity];
+		types = new byte[capacity];
+		boxed = null;
+		arena = new byte[arenaSize];
+		arenaEnd = 0;
+		garbage = 0;
+		size = 0;
+	}
+
+	// String caches its hashCode, so hashing a key does not allocate
+	private static int hash( String key )
+	{
+		int h = key.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @param key          Key
+	 * @param defaultValue Returned if the key is absent
+	 * @return The value as a long, as Number.longValue() would give it
+	 */
+	long getLong( String key, long defaultValue )
+	{
+		int hash = hash( key );
+		long stamp = lock.tryOptimisticRead();
+		if ( stamp != 0L )
+		{
+			try
+			{
+				int slot = find( keys, hashes, arena, key, hash );
+				long result = slot < 0 ? defaultValue : toLong( types[slot], values[slot] );
+				if ( lock.validate( stamp ) )
+				{
+					return result;
+				}
+			}
+			catch ( RuntimeException ignored )
+			{
+				// A writer swapped the arrays mid-read, fall back to the read lock
+			}
+		}
+
+		stamp = lock.readLock();
+		try
+		{
+			int slot = find( keys, hashes, arena, key, hash );
+			return slot < 0 ? defaultValue : toLong( types[slot], values[slot] );
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	/**
+	 * @param key Key
+	 * @return Number with the type it was put with, or null if absent
+	 */
+	Number get( String key )
+	{
+		int hash = hash( key );
+		long stamp = lock.tryOptimisticRead();
+		if ( stamp != 0L )
+		{
+			try
+			{
+				int slot = find( keys, hashes, arena, key, hash );
+				byte type = slot < 0 ? 0 : types[slot];
+				long bits = slot < 0 ? 0 : values[slot];
+				Number box = type == NumberType.BIG.tag ? boxed[slot] : null;
+				if ( lock.validate( stamp ) )
+				{
+					return slot < 0 ? null : box != null ? box : NumberType.ofTag( type ).fromBits( bits );
+				}
+			}
+			catch ( RuntimeException ignored )
+			{
+				// A writer swapped the arrays mid-read, fall back to the read lock
+			}
+		}
+
+		stamp = lock.readLock();
+		try
+		{
+			int slot = find( keys, hashes, arena, key, hash );
+			return slot < 0 ? null : value( slot );
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	// Must hold the lock
+	private Number value( int slot )
+	{
+		return types[slot] == NumberType.BIG.tag ? boxed[slot] : NumberType.ofTag( types[slot] ).fromBits( values[slot] );
+	}
+
+	// The value of a slot as Number.longValue() would give it
+	static long toLong( byte type, long bits )
+	{
+		return type == NumberType.FLOAT.tag || type == NumberType.DOUBLE.tag ?
+			(long) Double.longBitsToDouble( bits ) :
+			bits;
+	}
+
+	/**
+	 * @param key   Key
+	 * @param value Stored as a Long
+	 */
+	void putLong( String key, long value )
+	{
+		put( key, NumberType.LONG, value );
+	}
+
+	/**
+	 * @param key   Key
+	 * @param value Number, or null to remove the key
+	 */
+	void put( String key, Number value )
+	{
+		if ( value == null )
+		{
+			remove( key );
+			return;
+		}
+		NumberType type = NumberType.of( value );
+		put( key, type, type.toBits( value ), type == NumberType.BIG ? value : null );
+	}
+
+	void put( String key, NumberType type, long bits )
+	{
+		if ( type == NumberType.BIG )
+		{
+			throw new IllegalArgumentException( "BIG numbers must be put boxed" );
+		}
+		put( key, type, bits, null );
+	}
+
+	private void put( String key, NumberType type, long bits, Number box )
+	{
+		int hash = hash( key );
+		long stamp = lock.writeLock();
+		try
+		{
+			int slot = find( keys, hashes, arena, key, hash );
+			if ( slot < 0 )
+			{
+				if ( size + 1 > keys.length * LOAD_FACTOR )
+				{
+					rehash( keys.length << 1 );
+				}
+				slot = emptySlot( hash );
+				keys[slot] = append( key ) + 1;
+				hashes[slot] = hash;
+				size++;
+			}
+			values[slot] = bits;
+			types[slot] = type.tag;
+			if ( box != null && boxed == null )
+			{
+				boxed = new Number[keys.length];
+			}
+			if ( boxed != null )
+			{
+				boxed[slot] = box;
+			}
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	/**
+	 * @param key Key
+	 * @return true if the key was present
+	 */
+	boolean remove( String key )
+	{
+		int hash = hash( key );
+		long stamp = lock.writeLock();
+		try
+		{
+			int slot = find( keys, hashes, arena, key, hash );
+			if ( slot < 0 )
+			{
+				return false;
+			}
+			garbage += 4 + readInt( arena, keys[slot] - 1 );
+			deleteSlot( slot );
+			size--;
+
+			// Reclaim the arena once it is mostly dead keys
+			if ( garbage > arenaEnd / 2 && arenaEnd > 4096 )
+			{
+				rehash( keys.length );
+			}
+			return true;
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	// Backward-shift deletion keeps every probe chain unbroken without tombstones
+	private void deleteSlot( int slot )
+	{
+		int mask = keys.length - 1;
+		int hole = slot;
+		for ( int i = (hole + 1) & mask; keys[i] != 0; i = (i + 1) & mask )
+		{
+			int home = hashes[i] & mask;
+			boolean reachable = hole <= i ?
+				hole < home && home <= i :
+				hole < home || home <= i;
+			if ( !reachable )
+			{
+				keys[hole] = keys[i];
+				hashes[hole] = hashes[i];
+				values[hole] = values[i];
+				types[hole] = types[i];
+				if ( boxed != null )
+				{
+					boxed[hole] = boxed[i];
+				}
+				hole = i;
+			}
+		}
+		keys[hole] = 0;
+		if ( boxed != null )
+		{
+			boxed[hole] = null;
+		}
+	}
+
+	/**
+	 * @return Number of keys
+	 */
+	int size()
+	{
+		long stamp = lock.readLock();
+		try
+		{
+			return size;
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	/**
+	 * @return A copy of every entry with boxed values
+	 */
+	Map<String, Number> toMap()
+	{
+		long stamp = lock.readLock();
+		try
+		{
+			HashMap<String, Number> map = new HashMap<>( size * 4 / 3 + 1 );
+			for ( int i = 0; i < keys.length; i++ )
+			{
+				if ( keys[i] != 0 )
+				{
+					int pos = keys[i] - 1;
+					String key = new String( arena, pos + 4, readInt( arena, pos ), StandardCharsets.UTF_8 );
+					map.put( key, value( i ) );
+				}
+			}
+			return map;
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	// Slot holding the key, or -1
+	private static int find( int[] keys, int[] hashes, byte[] arena, String key, int hash )
+	{
+		int mask = keys.length - 1;
+		for ( int i = hash & mask; ; i = (i + 1) & mask )
+		{
+			int pos = keys[i];
+			if ( pos == 0 )
+			{
+				return -1;
+			}
+			if ( hashes[i] == hash && keyEquals( arena, pos - 1, key ) )
+			{
+				return i;
+			}
+		}
+	}
+
+	private int emptySlot( int hash )
+	{
+		int mask = keys.length - 1;
+		int i = hash & mask;
+		while ( keys[i] != 0 )
+		{
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	// Rebuild the table and a compacted arena, moving every live key
+	private void rehash( int capacity )
+	{
+		int[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		long[] oldValues = values;
+		byte[] oldTypes = types;
+		Number[] oldBoxed = boxed;
+		byte[] oldArena = arena;
+
+		allocate( capacity, Math.max( 256, (arenaEnd - garbage) * 2 ) );
+		if ( oldBoxed != null )
+		{
+			boxed = new Number[capacity];
+		}
+		for ( int i = 0; i < oldKeys.length; i++ )
+		{
+			if ( oldKeys[i] != 0 )
+			{
+				int pos = oldKeys[i] - 1;
+				int length = 4 + readInt( oldArena, pos );
+				System.arraycopy( oldArena, pos, arena, arenaEnd, length );
+
+				int slot = emptySlot( oldHashes[i] );
+				keys[slot] = arenaEnd + 1;
+				hashes[slot] = oldHashes[i];
+				values[slot] = oldValues[i];
+				types[slot] = oldTypes[i];
+				if ( oldBoxed != null )
+				{
+					boxed[slot] = oldBoxed[i];
+				}
+				arenaEnd += length;
+				size++;
+			}
+		}
+	}
+
+	// Encode the key into the arena and return its offset
+	private int append( String key )
+	{
+		int length = encodedLength( key );
+		long needed = (long) arenaEnd + 4 + length;
+		if ( needed >= Integer.MAX_VALUE )
+		{
+			throw new IllegalStateException( "NumberMap keys exceed 2 GiB" );
+		}
+		if ( needed > arena.length )
+		{
+			arena = Arrays.copyOf( arena, (int) Math.min( Integer.MAX_VALUE - 8, Math.max( needed, arena.length * 2L ) ) );
+		}
+
+		int pos = arenaEnd;
+		writeInt( arena, pos, length );
+		arenaEnd = encode( key, arena, pos + 4 );
+		return pos;
+	}
+
+	/**
+	 * @param key String
+	 * @return Bytes that String.getBytes( UTF_8 ) would return
+	 */
+	static int encodedLength( String key )
+	{
+		int length = 0;
+		for ( int i = 0, n = key.length(); i < n; i++ )
+		{
+			char c = key.charAt( i );
+			if ( c < 0x80 )
+			{
+				length += 1;
+			}
+			else if ( c < 0x800 )
+			{
+				length += 2;
+			}
+			else if ( isPair( key, i ) )
+			{
+				length += 4;
+				i++;
+			}
+			else
+			{
+				// Lone surrogates become '?' like String.getBytes()
+				length += Character.isSurrogate( c ) ? 1 : 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Write the same bytes as String.getBytes( UTF_8 ) without allocating
+	 *
+	 * @param key String
+	 * @param out Destination with room for encodedLength( key ) bytes
+	 * @param pos Offset in the destination
+	 * @return Offset after the last byte written
+	 */
+	static int encode( String key, byte[] out, int pos )
+	{
+		for ( int i = 0, n = key.length(); i < n; i++ )
+		{
+			char c = key.charAt( i );
+			if ( c < 0x80 )
+			{
+				out[pos++] = (byte) c;
+			}
+			else if ( c < 0x800 )
+			{
+				out[pos++] = (byte) (0xC0 | (c >> 6));
+				out[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if ( isPair( key, i ) )
+			{
+				int cp = Character.toCodePoint( c, key.charAt( ++i ) );
+				out[pos++] = (byte) (0xF0 | (cp >> 18));
+				out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				out[pos++] = (byte) (0x80 | (cp & 0x3F));
+			}
+			else if ( Character.isSurrogate( c ) )
+			{
+				out[pos++] = '?';
+			}
+			else
+			{
+				out[pos++] = (byte) (0xE0 | (c >> 12));
+				out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				out[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return pos;
+	}
+
+	private static boolean isPair( String key, int i )
+	{
+		return Character.isHighSurrogate( key.charAt( i ) ) &&
+			i + 1 < key.length() &&
+			Character.isLowSurrogate( key.charAt( i + 1 ) );
+	}
+
+	// Compare the key with its encoding in the arena without encoding it
+	private static boolean keyEquals( byte[] arena, int pos, String key )
+	{
+		int end = pos + 4 + readInt( arena, pos );
+		int p = pos + 4;
+		for ( int i = 0, n = key.length(); i < n; i++ )
+		{
+			char c = key.charAt( i );
+			if ( c < 0x80 )
+			{
+				if ( p >= end || arena[p++] != (byte) c )
+				{
+					return false;
+				}
+			}
+			else if ( c < 0x800 )
+			{
+				if ( p + 2 > end ||
+					arena[p++] != (byte) (0xC0 | (c >> 6)) ||
+					arena[p++] != (byte) (0x80 | (c & 0x3F)) )
+				{
+					return false;
+				}
+			}
+			else if ( isPair( key, i ) )
+			{
+				int cp = Character.toCodePoint( c, key.charAt( ++i ) );
+				if ( p + 4 > end ||
+					arena[p++] != (byte) (0xF0 | (cp >> 18)) ||
+					arena[p++] != (byte) (0x80 | ((cp >> 12) & 0x3F)) ||
+					arena[p++] != (byte) (0x80 | ((cp >> 6) & 0x3F)) ||
+					arena[p++] != (byte) (0x80 | (cp & 0x3F)) )
+				{
+					return false;
+				}
+			}
+			else if ( Character.isSurrogate( c ) )
+			{
+				if ( p >= end || arena[p++] != '?' )
+				{
+					return false;
+				}
+			}
+			else
+			{
+				if ( p + 3 > end ||
+					arena[p++] != (byte) (0xE0 | (c >> 12)) ||
+					arena[p++] != (byte) (0x80 | ((c >> 6) & 0x3F)) ||
+					arena[p++] != (byte) (0x80 | (c & 0x3F)) )
+				{
+					return false;
+				}
+			}
+		}
+		return p == end;
+	}
+
+	private static int readInt( byte[] b, int pos )
+	{
+		return (b[pos] << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+	}
+
+	private static void writeInt( byte[] b, int pos, int value )
+	{
+		b[pos] = (byte) (value >>> 24);
+		b[pos + 1] = (byte) (value >>> 16);
+		b[pos + 2] = (byte) (value >>> 8);
+		b[pos + 3] = (byte) value;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A storage engine behind MapWriter. get() and toMap() are safe to call
+ * from any thread at any time; MapWriter serializes every other call.
+ */
+interface NumberStore extends Closeable
+{
+	/**
+	 * @param key Key
+	 * @return Number, or null if absent
+	 */
+	Number get( String key );
+
+	/**
+	 * @param key          Key
+	 * @param defaultValue Returned if the key is absent
+	 * @return The value as a long, as Number.longValue() would give it
+	 */
+	default long getLong( String key, long defaultValue )
+	{
+		Number value = get( key );
+		return value == null ? defaultValue : value.longValue();
+	}
+
+	/**
+	 * Apply an update. It is persisted by the next flush at the latest.
+	 *
+	 * @param key   Key
+	 * @param value Number
+	 * @throws IOException if the store could not grow
+	 */
+	void put( String key, Number value ) throws IOException;
+
+	/**
+	 * Apply an update of a Long without boxing it
+	 *
+	 * @param key   Key
+	 * @param value Value
+	 * @throws IOException if the store could not grow
+	 */
+	default void putLong( String key, long value ) throws IOException
+	{
+		put( key, value );
+	}
+
+	/**
+	 * Write every update applied so far to the file
+	 *
+	 * @throws IOException on write failure
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Force flushed updates from the page cache to the disk
+	 *
+	 * @throws IOException on failure
+	 */
+	void sync() throws IOException;
+
+	/**
+	 * Take the updates applied so far so they can be written without
+	 * MapWriter's lock, which is held for this call only. The returned
+	 * flush runs after the lock is released, on one thread at a time, and
+	 * before the next call. Updates made meanwhile go to the next flush.
+	 *
+	 * @return Writes the taken updates, and syncs them if asked
+	 */
+	DetachedFlush detachFlush();
+
+	/**
+	 * Updates taken by detachFlush()
+	 */
+	@FunctionalInterface
+	interface DetachedFlush
+	{
+		/**
+		 * @param sync Also force the updates to the disk
+		 * @throws IOException on write failure
+		 */
+		void write( boolean sync ) throws IOException;
+	}
+
+	/**
+	 * @return A copy of every entry, which may or may not include updates
+	 * made while copying
+	 */
+	Map<String, Number> toMap();
+}
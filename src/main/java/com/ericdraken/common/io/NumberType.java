@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Encodes a Number as a type tag and 64 bits, so that binary stores give
+ * back the same boxed type that a JSON round trip would: Integer for
+ * small integers, Long for large ones, and Double for everything else.
+ * BigIntegers of 64 bits or more and BigDecimals do not fit in 64 bits
+ * and are BIG, which only NumberMap can hold, boxed, next to the bits of
+ * their longValue().
+ */
+enum NumberType
+{
+	INT( 1 ),
+	LONG( 2 ),
+	FLOAT( 3 ),
+	DOUBLE( 4 ),
+	BIG( 5 );
+
+	final byte tag;
+
+	NumberType( int tag )
+	{
+		this.tag = (byte) tag;
+	}
+
+	static NumberType of( Number value )
+	{
+		if ( value instanceof Integer || value instanceof Short || value instanceof Byte )
+		{
+			return INT;
+		}
+		if ( value instanceof Long )
+		{
+			return LONG;
+		}
+		if ( value instanceof Float )
+		{
+			return FLOAT;
+		}
+		if ( value instanceof BigInteger )
+		{
+			return ((BigInteger) value).bitLength() < 64 ? LONG : BIG;
+		}
+		if ( value instanceof BigDecimal )
+		{
+			return BIG;
+		}
+		if ( value instanceof Double )
+		{
+			return DOUBLE;
+		}
+		// AtomicLong, LongAdder and the like
+		return value.doubleValue() == value.longValue() ? LONG : DOUBLE;
+	}
+
+	/**
+	 * @param value Number
+	 * @return Its type, for stores which keep exactly 64 bits per value
+	 * @throws IllegalArgumentException if the value would lose precision
+	 */
+	static NumberType ofFixedWidth( Number value )
+	{
+		NumberType type = of( value );
+		if ( type == BIG )
+		{
+			throw new IllegalArgumentException( value + " cannot be stored exactly in 64 bits, use JSON storage" );
+		}
+		return type;
+	}
+
+	static NumberType ofTag( byte tag )
+	{
+		switch ( tag )
+		{
+			case 1:
+				return INT;
+			case 2:
+				return LONG;
+			case 3:
+				return FLOAT;
+			case 4:
+				return DOUBLE;
+			case 5:
+				return BIG;
+			default:
+				throw new IllegalArgumentException( "Unknown number type " + tag );
+		}
+	}
+
+	long toBits( Number value )
+	{
+		switch ( this )
+		{
+			case FLOAT:
+			case DOUBLE:
+				return Double.doubleToRawLongBits( value.doubleValue() );
+			default:
+				return value.longValue();
+		}
+	}
+
+	Number fromBits( long bits )
+	{
+		switch ( this )
+		{
+			case INT:
+				return (int) bits;
+			case LONG:
+				return bits;
+			case FLOAT:
+				return (float) Double.longBitsToDouble( bits );
+			case BIG:
+				throw new IllegalStateException( "BIG numbers are boxed, not encoded" );
+			default:
+				return Double.longBitsToDouble( bits );
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Spreads keys over N independent MapWriters, each with its own file,
+ * lock and persistence, so writes to different shards proceed in
+ * parallel and each rewrite or compaction touches 1/N of the map. Shard
+ * files sit beside the base file and are named base.i-of-N. Keys are
+ * assigned by String.hashCode(), which is stable across JVMs, so a given
+ * shard count always finds its keys again. Use reshard() offline to
+ * change the count.
+ */
+public class ShardedMapWriter implements Closeable
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private final MapWriter[] shards;
+
+	/**
+	 * Constructor with JSON shards
+	 *
+	 * @param base   Base file which shard file names are derived from
+	 * @param shards Number of shards
+	 */
+	public ShardedMapWriter( @Nonnull File base, int shards )
+	{
+		this( base, shards, MapWriter.Storage.JSON );
+	}
+
+	/**
+	 * @param base    Base file which shard file names are derived from
+	 * @param shards  Number of shards
+	 * @param storage Storage of every shard
+	 * @throws UncheckedIOException if a mapped or log shard cannot be opened
+	 */
+	public ShardedMapWriter( @Nonnull File base, int shards, @Nonnull MapWriter.Storage storage )
+	{
+		this( base, shards, file -> new MapWriter( file, storage ) );
+	}
+
+	/**
+	 * Constructor for shards with group commit or other builder options
+	 *
+	 * @param base    Base file which shard file names are derived from
+	 * @param shards  Number of shards
+	 * @param factory Opens the MapWriter of each shard file,
+	 *                e.g. file -> MapWriter.builder( file ).flushInterval( ... ).build()
+	 */
+	public ShardedMapWriter( @Nonnull File base, int shards, @Nonnull Function<File, MapWriter> factory )
+	{
+		if ( shards < 1 )
+		{
+			throw new IllegalArgumentException( "Shards must be positive" );
+		}
+
+		this.shards = new MapWriter[shards];
+		try
+		{
+			for ( int i = 0; i < shards; i++ )
+			{
+				this.shards[i] = factory.apply( shardFile( base, i, shards ) );
+			}
+		}
+		catch ( RuntimeException e )
+		{
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param base   Base file
+	 * @param shard  Shard index
+	 * @param shards Number of shards
+	 * @return The file of a shard
+	 */
+	public static File shardFile( @Nonnull File base, int shard, int shards )
+	{
+		return new File( base.getPath() + "." + shard + "-of-" + shards );
+	}
+
+	/**
+	 * @return Number of shards
+	 */
+	public int getShardCount()
+	{
+		return shards.length;
+	}
+
+	private static int shardOf( String key, int shards )
+	{
+		int h = key.hashCode() * 0x9E3779B9;
+		return Math.floorMod( h ^ (h >>> 16), shards );
+	}
+
+	private MapWriter shard( String key )
+	{
+		return shards[shardOf( key, shards.length )];
+	}
+
+	/**
+	 * @see MapWriter#writeInstantForKey(String, Instant)
+	 */
+	public boolean writeInstantForKey( String key, Instant instant )
+	{
+		return shard( key ).writeInstantForKey( key, instant );
+	}
+
+	/**
+	 * @see MapWriter#writeInstantForKey(String)
+	 */
+	public boolean writeInstantForKey( String key )
+	{
+		return shard( key ).writeInstantForKey( key );
+	}
+
+	/**
+	 * @see MapWriter#readInstantForKey(String)
+	 */
+	public Instant readInstantForKey( String key )
+	{
+		return shard( key ).readInstantForKey( key );
+	}
+
+	/**
+	 * @see MapWriter#readNumberForKey(String)
+	 */
+	public Number readNumberForKey( String key )
+	{
+		return shard( key ).readNumberForKey( key );
+	}
+
+	/**
+	 * @see MapWriter#writeNumberForKey(String, Number)
+	 */
+	public boolean writeNumberForKey( String key, Number value )
+	{
+		return shard( key ).writeNumberForKey( key, value );
+	}
+
+	/**
+	 * @see MapWriter#readLongForKey(String, long)
+	 */
+	public long readLongForKey( String key, long defaultValue )
+	{
+		return shard( key ).readLongForKey( key, defaultValue );
+	}
+
+	/**
+	 * @see MapWriter#writeLongForKey(String, long)
+	 */
+	public boolean writeLongForKey( String key, long value )
+	{
+		return shard( key ).writeLongForKey( key, value );
+	}
+
+	/**
+	 * Get a copy of every key and number across the shards
+	 *
+	 * @return Map
+	 */
+	public Map<String, Number> readAll()
+	{
+		Map<String, Number> map = new HashMap<>();
+		for ( MapWriter shard : shards )
+		{
+			map.putAll( shard.readAll() );
+		}
+		return map;
+	}
+
+	/**
+	 * Set many keys with one write per shard they fall in
+	 *
+	 * @param values Keys and numbers
+	 * @return boolean True if every shard wrote successfully
+	 */
+	public boolean writeAll( @Nonnull Map<String, ? extends Number> values )
+	{
+		List<Map<String, Number>> split = new ArrayList<>( shards.length );
+		for ( int i = 0; i < shards.length; i++ )
+		{
+			split.add( new HashMap<>() );
+		}
+		values.forEach( ( key, value ) -> split.get( shardOf( key, shards.length ) ).put( key, value ) );
+
+		boolean success = true;
+		for ( int i = 0; i < shards.length; i++ )
+		{
+			if ( !split.get( i ).isEmpty() )
+			{
+				success &= shards[i].writeAll( split.get( i ) );
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * @return A future which completes when every shard has flushed
+	 * @see MapWriter#flush()
+	 */
+	public CompletableFuture<Void> flush()
+	{
+		CompletableFuture<?>[] flushes = new CompletableFuture<?>[shards.length];
+		for ( int i = 0; i < shards.length; i++ )
+		{
+			flushes[i] = shards[i].flush();
+		}
+		return CompletableFuture.allOf( flushes );
+	}
+
+	/**
+	 * Move every entry from one shard count to another. Nothing may have
+	 * the shards open meanwhile. The new shards are written and closed
+	 * before the old shard files are deleted, so an interrupted reshard can
+	 * simply be run again.
+	 *
+	 * @param base    Base file
+	 * @param from    Current number of shards
+	 * @param to      New number of shards
+	 * @param storage Storage of the shards
+	 * @throws IOException if a shard could not be written or deleted
+	 */
+	public static void reshard( @Nonnull File base, int from, int to, @Nonnull MapWriter.Storage storage ) throws IOException
+	{
+		if ( from == to )
+		{
+			return;
+		}
+
+		try ( ShardedMapWriter target = new ShardedMapWriter( base, to, storage ) )
+		{
+			for ( int i = 0; i < from; i++ )
+			{
+				// A LOG shard which was never closed may have only its logs
+				File file = shardFile( base, i, from );
+				if ( !file.exists() && !wal( file, "" ).exists() && !wal( file, ".1" ).exists() )
+				{
+					continue;
+				}
+				try ( MapWriter source = new MapWriter( file, storage ) )
+				{
+					if ( !target.writeAll( source.readAll() ) )
+					{
+						throw new IOException( "Unable to write the entries of " + file.getAbsolutePath() );
+					}
+				}
+			}
+			target.flush().join();
+		}
+		catch ( UncheckedIOException e )
+		{
+			throw e.getCause();
+		}
+
+		for ( int i = 0; i < from; i++ )
+		{
+			File file = shardFile( base, i, from );
+			Files.deleteIfExists( file.toPath() );
+			Files.deleteIfExists( wal( file, "" ).toPath() );
+			Files.deleteIfExists( wal( file, ".1" ).toPath() );
+		}
+		logger.info( "Resharded {} from {} to {} shards", base.getAbsolutePath(), from, to );
+	}
+
+	// The live or rotated write-ahead log of a LOG shard
+	private static File wal( File file, String suffix )
+	{
+		return new File( file.getPath() + ".wal" + suffix );
+	}
+
+	@Override
+	public void close()
+	{
+		for ( MapWriter shard : shards )
+		{
+			if ( shard != null )
+			{
+				shard.close();
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for ( MapWriter shard : shards )
+		{
+			String s = shard.toString();
+			if ( !s.isEmpty() )
+			{
+				sb.append( sb.length() == 0 ? "" : System.lineSeparator() ).append( s );
+			}
+		}
+		return sb.toString();
+	}
+}
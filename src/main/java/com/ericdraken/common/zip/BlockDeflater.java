@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates one fixed-size block of a file independently of the others,
+ * the way pigz does, so the blocks of a large file can be compressed
+ * concurrently. Each block is primed with the last 32 KiB of the block
+ * before it, which keeps the ratio close to a single-threaded deflate.
+ * Every block but the last ends with a sync flush, which byte-aligns it
+ * without ending the stream, so the blocks concatenate into one valid
+ * raw DEFLATE stream. Block CRCs are joined with combine().
+ */
+final class BlockDeflater
+{
+	static final int BLOCK_SIZE = 1024 * 128;
+
+	// The DEFLATE window
+	static final int DICTIONARY_SIZE = 1024 * 32;
+
+	/**
+	 * A compressed block
+	 */
+	static final class Block
+	{
+		final long crc;
+		final int length;
+		final byte[] data;
+		final int dataLength;
+
+		Block( long crc, int length, byte[] data, int dataLength )
+		{
+			this.crc = crc;
+			this.length = length;
+			this.data = data;
+			this.dataLength = dataLength;
+		}
+	}
+
+	private BlockDeflater()
+	{
+	}
+
+	/**
+	 * An upper bound of the deflated size of a whole file, allowing for
+	 * stored blocks and the sync flush marker of every block
+	 *
+	 * @param size Uncompressed bytes
+	 * @return Maximum compressed bytes
+	 */
+	static long maxCompressedSize( long size )
+	{
+		long blocks = size / BLOCK_SIZE + 1;
+		return size + (size >> 10) + blocks * 16 + 64;
+	}
+
+	/**
+	 * Deflate one block of a file. Positional reads leave the channel
+	 * position alone, so blocks may be deflated concurrently.
+	 *
+	 * @param source   File
+	 * @param position Start of the block
+	 * @param length   Bytes in the block
+	 * @param last     Whether the block ends the stream
+	 * @param level    Deflater level
+	 * @return The compressed block
+	 * @throws IOException if the file could not be read
+	 */
+	static Block deflate( FileChannel source, long position, int length, boolean last, int level ) throws IOException
+	{
+		int dictionary = (int) Math.min( position, DICTIONARY_SIZE );
+		byte[] input = new byte[dictionary + length];
+		read( source, ByteBuffer.wrap( input ), position - dictionary );
+
+		CRC32 crc = new CRC32();
+		crc.update( input, dictionary, length );
+
+		Deflater deflater = new Deflater( level, true );
+		try
+		{
+			if ( dictionary > 0 )
+			{
+				deflater.setDictionary( input, 0, dictionary );
+			}
+			deflater.setInput( input, dictionary, length );
+
+			byte[] output = new byte[(int) Math.min( Integer.MAX_VALUE - 8, maxCompressedSize( length ) )];
+			int n = 0;
+			if ( last )
+			{
+				deflater.finish();
+				while ( !deflater.finished() )
+				{
+					if ( n == output.length )
+					{
+						output = Arrays.copyOf( output, output.length * 2 );
+					}
+					n += deflater.deflate( output, n, output.length - n );
+				}
+			}
+			else
+			{
+				// A full buffer means the flush may be incomplete
+				do
+				{
+					if ( n == output.length )
+					{
+						output = Arrays.copyOf( output, output.length * 2 );
+					}
+					n += deflater.deflate( output, n, output.length - n, Deflater.SYNC_FLUSH );
+				}
+				while ( n == output.length );
+			}
+			return new Block( crc.getValue(), length, output, n );
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	private static void read( FileChannel source, ByteBuffer buffer, long position ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+		{
+			int n = source.read( buffer, position );
+			if ( n < 0 )
+			{
+				throw new EOFException( "File shrank while it was being zipped" );
+			}
+			position += n;
+		}
+	}
+
+	/**
+	 * Combine the CRC32 of two consecutive pieces of data, as zlib's
+	 * crc32_combine() does, by applying length2 zero bytes to crc1 with
+	 * GF(2) matrix squaring
+	 *
+	 * @param crc1    CRC32 of the first piece
+	 * @param crc2    CRC32 of the second piece
+	 * @param length2 Length of the second piece
+	 * @return CRC32 of both pieces
+	 */
+	static long combine( long crc1, long crc2, long length2 )
+	{
+		if ( length2 <= 0 )
+		{
+			return crc1;
+		}
+
+		long[] even = new long[32];
+		long[] odd = new long[32];
+
+		// The operator for one zero bit
+		odd[0] = 0xEDB88320L;
+		long row = 1;
+		for ( int n = 1; n < 32; n++ )
+		{
+			odd[n] = row;
+			row <<= 1;
+		}
+
+		// Two and then four zero bits
+		square( even, odd );
+		square( odd, even );
+
+		// Apply length2 zero bytes, starting with one byte
+		do
+		{
+			square( even, odd );
+			if ( (length2 & 1) != 0 )
+			{
+				crc1 = times( even, crc1 );
+			}
+			length2 >>= 1;
+			if ( length2 == 0 )
+			{
+				break;
+			}
+
+			square( odd, even );
+			if ( (length2 & 1) != 0 )
+			{
+				crc1 = times( odd, crc1 );
+			}
+			length2 >>= 1;
+		}
+		while ( length2 != 0 );
+
+		return (crc1 ^ crc2) & 0xFFFFFFFFL;
+	}
+
+	private static long times( long[] matrix, long vector )
+	{
+		long sum = 0;
+		for ( int i = 0; vector != 0; i++, vector >>>= 1 )
+		{
+			if ( (vector & 1) != 0 )
+			{
+				sum ^= matrix[i];
+			}
+		}
+		return sum;
+	}
+
+	private static void square( long[] square, long[] matrix )
+	{
+		for ( int n = 0; n < 32; n++ )
+		{
+			square[n] = times( matrix, matrix[n] );
+		}
+	}
+}
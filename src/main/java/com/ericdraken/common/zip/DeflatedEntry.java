@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A file deflated on its own, ready to be stitched into an archive. The
+ * raw DEFLATE data stays in memory while it is small and spills to a
+ * temporary file once it passes SPILL_THRESHOLD, so many entries can be
+ * compressed at once without holding whole archives in the heap.
+ */
+class DeflatedEntry
+{
+	static final int SPILL_THRESHOLD = 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 1024 * 64;
+
+	private final long mtime;
+
+	private final long crc;
+
+	private final long size;
+
+	private final long compressedSize;
+
+	private final Buffer memory;
+
+	private final Path spill;
+
+	// Exposes the array so it can be written without a copy
+	private static final class Buffer extends ByteArrayOutputStream
+	{
+		Buffer()
+		{
+			super( BUFFER_SIZE );
+		}
+
+		byte[] array()
+		{
+			return buf;
+		}
+	}
+
+	private DeflatedEntry( long mtime, long crc, long size, long compressedSize, Buffer memory, Path spill )
+	{
+		this.mtime = mtime;
+		this.crc = crc;
+		this.size = size;
+		this.compressedSize = compressedSize;
+		this.memory = memory;
+		this.spill = spill;
+	}
+
+	/**
+	 * Deflate a file
+	 *
+	 * @param source File to compress
+	 * @param level  Deflater level
+	 * @return The compressed entry
+	 * @throws IOException if the file could not be read or spilled
+	 */
+	static DeflatedEntry deflate( Path source, int level ) throws IOException
+	{
+		long mtime = source.toFile().lastModified();
+		Deflater deflater = new Deflater( level, true );
+		CRC32 crc = new CRC32();
+		Buffer memory = new Buffer();
+		OutputStream out = memory;
+		Path spill = null;
+		try ( InputStream in = Files.newInputStream( source ) )
+		{
+			byte[] input = new byte[BUFFER_SIZE];
+			byte[] output = new byte[BUFFER_SIZE];
+			int n;
+			while ( (n = in.read( input )) != -1 )
+			{
+				crc.update( input, 0, n );
+				deflater.setInput( input, 0, n );
+				while ( !deflater.needsInput() )
+				{
+					out.write( output, 0, deflater.deflate( output ) );
+				}
+
+				if ( spill == null && memory.size() > SPILL_THRESHOLD )
+				{
+					spill = Files.createTempFile( "zip", ".deflate" );
+					out = new BufferedOutputStream( Files.newOutputStream( spill ), BUFFER_SIZE );
+					memory.writeTo( out );
+				}
+			}
+
+			deflater.finish();
+			while ( !deflater.finished() )
+			{
+				out.write( output, 0, deflater.deflate( output ) );
+			}
+			out.close();
+
+			return new DeflatedEntry( mtime, crc.getValue(), deflater.getBytesRead(), deflater.getBytesWritten(),
+				spill == null ? memory : null, spill );
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			out.close();
+			if ( spill != null )
+			{
+				Files.deleteIfExists( spill );
+			}
+			throw e;
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Write this entry to an archive
+	 *
+	 * @param writer Archive
+	 * @param name   Internal path
+	 * @throws IOException on failure
+	 */
+	void writeTo( ZipWriter writer, String name ) throws IOException
+	{
+		writer.putEntry( name, ZipEntry.DEFLATED, mtime, crc, compressedSize, size );
+		if ( spill == null )
+		{
+			writer.write( memory.array(), 0, memory.size() );
+			return;
+		}
+		try ( FileChannel channel = FileChannel.open( spill ) )
+		{
+			writer.transferFrom( channel, 0, compressedSize );
+		}
+	}
+
+	/**
+	 * Remove the spill file, if any
+	 */
+	void delete()
+	{
+		if ( spill != null )
+		{
+			spill.toFile().delete();
+		}
+	}
+}
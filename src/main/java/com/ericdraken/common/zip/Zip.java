@@ -9,10 +9,19 @@ import org.apache.commons.io.IOUtils;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -25,6 +34,14 @@ public class Zip
 
 	private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
 
+	private static final long MAP_SIZE = 1024 * 1024 * 64;
+
+	// Entries being deflated ahead of the one being written, per CPU
+	private static final int PENDING_ENTRIES_PER_CPU = 2;
+
+	// Blocks being deflated ahead of the one being written, per CPU
+	private static final int PENDING_BLOCKS_PER_CPU = 4;
+
 	private Zip()
 	{
 	}
@@ -45,7 +62,9 @@ public class Zip
 
 	/**
 	 * Zip a file to an archive and replace the archive completely. Use this method
-	 * to zip a a single file only as it will not append.
+	 * to zip a a single file only as it will not append. STORED entries are
+	 * copied into the archive by the kernel with transferTo once their CRC
+	 * has been computed over a mapping of the source.
 	 *
 	 * @param sourcePath Source file to zip
 	 * @param outPath Destination zip file
@@ -58,6 +77,20 @@ public class Zip
 		// Make the folders if not present
 		makeParentFolders( outPath.toFile() );
 
+		if ( method == ZipEntry.STORED )
+		{
+			try (
+				FileChannel source = FileChannel.open( sourcePath );
+				ZipWriter writer = new ZipWriter( outPath )
+			)
+			{
+				long size = source.size();
+				writer.putEntry( internalTargetPath, ZipEntry.STORED, sourcePath.toFile().lastModified(), crc32( source, size ), size, size );
+				writer.transferFrom( source, 0, size );
+			}
+			return;
+		}
+
 		try (
 			FileOutputStream fos = new FileOutputStream( outPath.toString() );
 			ZipOutputStream zipOut = new ZipOutputStream( fos );
@@ -79,7 +112,192 @@ public class Zip
 	}
 
 	/**
-	 * Unzip a file
+	 * Zip a large file with its blocks deflated in parallel on the common pool
+	 *
+	 * @see #zipFileParallel(Path, Path, String, Executor)
+	 */
+	public static void zipFileParallel( Path sourcePath, Path outPath, String internalTargetPath ) throws IOException
+	{
+		zipFileParallel( sourcePath, outPath, internalTargetPath, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Zip a file to an archive and replace the archive completely, deflating
+	 * 128 KiB blocks of the file concurrently on the executor. Each block is
+	 * primed with the 32 KiB before it and the blocks join into one ordinary
+	 * DEFLATE stream with a combined CRC32, so readers see the same format
+	 * as zipFile() produces, only slightly larger.
+	 *
+	 * @param sourcePath         Source file to zip
+	 * @param outPath            Destination zip file
+	 * @param internalTargetPath Internal path
+	 * @param executor           Runs the block deflate tasks
+	 * @throws IOException if the source could not be read or the archive written
+	 */
+	public static void zipFileParallel( Path sourcePath, Path outPath, String internalTargetPath, Executor executor ) throws IOException
+	{
+		// Make the folders if not present
+		makeParentFolders( outPath.toFile() );
+
+		List<CompletableFuture<BlockDeflater.Block>> pending = new ArrayList<>();
+		int window = Math.max( 2, Runtime.getRuntime().availableProcessors() * PENDING_BLOCKS_PER_CPU );
+		try (
+			FileChannel source = FileChannel.open( sourcePath );
+			ZipWriter writer = new ZipWriter( outPath )
+		)
+		{
+			long size = source.size();
+			int blocks = (int) Math.max( 1, (size + BlockDeflater.BLOCK_SIZE - 1) / BlockDeflater.BLOCK_SIZE );
+			writer.beginEntry( internalTargetPath, sourcePath.toFile().lastModified(), size, BlockDeflater.maxCompressedSize( size ) );
+
+			long crc = 0;
+			for ( int i = 0; i < blocks; i++ )
+			{
+				while ( pending.size() < blocks && pending.size() < i + window )
+				{
+					long position = (long) pending.size() * BlockDeflater.BLOCK_SIZE;
+					int length = (int) Math.min( BlockDeflater.BLOCK_SIZE, size - position );
+					boolean last = pending.size() == blocks - 1;
+					pending.add( CompletableFuture.supplyAsync( () -> {
+						try
+						{
+							return BlockDeflater.deflate( source, position, length, last, Deflater.DEFAULT_COMPRESSION );
+						}
+						catch ( IOException e )
+						{
+							throw new UncheckedIOException( e );
+						}
+					}, executor ) );
+				}
+
+				BlockDeflater.Block block = await( pending.get( i ) );
+				pending.set( i, null );
+				writer.write( block.data, 0, block.dataLength );
+				crc = BlockDeflater.combine( crc, block.crc, block.length );
+			}
+			writer.endEntry( crc );
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			// Skip blocks which have not started yet
+			for ( CompletableFuture<BlockDeflater.Block> future : pending )
+			{
+				if ( future != null )
+				{
+					future.cancel( false );
+				}
+			}
+			Files.deleteIfExists( outPath );
+			throw e;
+		}
+	}
+
+	/**
+	 * Zip many files to a new archive on the common pool
+	 *
+	 * @see #zipFiles(Map, Path, Executor)
+	 */
+	public static void zipFiles( Map<Path, String> sources, Path outPath ) throws IOException
+	{
+		zipFiles( sources, outPath, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Zip many files to an archive and replace the archive completely. Each
+	 * file is deflated on its own on the executor, into memory or a temporary
+	 * spill file, while a single writer stitches the finished entries into
+	 * the archive in iteration order. Only a few entries per CPU are deflated
+	 * ahead of the writer, which bounds memory and spill space.
+	 *
+	 * @param sources  Source files and their internal paths
+	 * @param outPath  Destination zip file
+	 * @param executor Runs the deflate tasks
+	 * @throws IOException if a source could not be read or the archive written
+	 */
+	public static void zipFiles( Map<Path, String> sources, Path outPath, Executor executor ) throws IOException
+	{
+		// Make the folders if not present
+		makeParentFolders( outPath.toFile() );
+
+		List<Map.Entry<Path, String>> entries = new ArrayList<>( sources.entrySet() );
+		List<CompletableFuture<DeflatedEntry>> pending = new ArrayList<>( entries.size() );
+		int window = Math.max( 2, Runtime.getRuntime().availableProcessors() * PENDING_ENTRIES_PER_CPU );
+		try ( ZipWriter writer = new ZipWriter( outPath ) )
+		{
+			for ( int i = 0; i < entries.size(); i++ )
+			{
+				while ( pending.size() < entries.size() && pending.size() < i + window )
+				{
+					Path source = entries.get( pending.size() ).getKey();
+					pending.add( CompletableFuture.supplyAsync( () -> {
+						try
+						{
+							return DeflatedEntry.deflate( source, Deflater.DEFAULT_COMPRESSION );
+						}
+						catch ( IOException e )
+						{
+							throw new UncheckedIOException( e );
+						}
+					}, executor ) );
+				}
+
+				DeflatedEntry entry = await( pending.get( i ) );
+				pending.set( i, null );
+				try
+				{
+					entry.writeTo( writer, entries.get( i ).getValue() );
+				}
+				finally
+				{
+					entry.delete();
+				}
+			}
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			// Clean up the spill files of entries still in flight
+			for ( CompletableFuture<DeflatedEntry> future : pending )
+			{
+				if ( future != null )
+				{
+					future.thenAccept( DeflatedEntry::delete );
+				}
+			}
+			Files.deleteIfExists( outPath );
+			throw e;
+		}
+	}
+
+	// CRC32 over mappings of the file, so the bytes are not copied to the heap
+	private static long crc32( FileChannel channel, long size ) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		for ( long position = 0; position < size; position += MAP_SIZE )
+		{
+			crc.update( channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( MAP_SIZE, size - position ) ) );
+		}
+		return crc.getValue();
+	}
+
+	private static <T> T await( CompletableFuture<T> future ) throws IOException
+	{
+		try
+		{
+			return future.join();
+		}
+		catch ( CompletionException e )
+		{
+			if ( e.getCause() instanceof UncheckedIOException )
+			{
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Unzip a file. STORED entries are copied out of the archive by the
+	 * kernel with transferTo from the offset of their data.
 	 *
 	 * @param zipFile
 	 * @param internalSourcePath
@@ -94,6 +312,29 @@ public class Zip
 		boolean overwrite
 	) throws IOException
 	{
+		try ( FileChannel archive = FileChannel.open( zipFile ) )
+		{
+			ZipReader.Entry entry = ZipReader.find( archive, internalSourcePath.toString() );
+			if ( entry != null && entry.method == ZipEntry.STORED )
+			{
+				try ( FileChannel out = FileChannel.open( outputFile, StandardOpenOption.WRITE,
+					overwrite ? StandardOpenOption.CREATE : StandardOpenOption.CREATE_NEW, StandardOpenOption.TRUNCATE_EXISTING ) )
+				{
+					long done = 0;
+					while ( done < entry.size )
+					{
+						long n = archive.transferTo( entry.dataOffset + done, entry.size - done, out );
+						if ( n <= 0 )
+						{
+							throw new EOFException( "Stored entry is truncated: " + internalSourcePath );
+						}
+						done += n;
+					}
+				}
+				return;
+			}
+		}
+
 		// Wrap the file system in a try-with-resources statement
 		// to auto-close it when finished and prevent a memory leak
 		try ( FileSystem fileSystem = FileSystems.newFileSystem( zipFile, null ) )
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * Finds where the data of an entry sits in an archive, which ZipFile
+ * does not expose, so stored entries can be copied straight out of the
+ * file. Reads the central directory, including Zip64 records, and then
+ * the local header, whose name and extra lengths may differ from the
+ * central ones.
+ */
+final class ZipReader
+{
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL = 0x06064b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+
+	private static final int ZIP64_EXTRA = 0x0001;
+
+	private static final long LIMIT32 = 0xFFFFFFFFL;
+
+	private static final int END_OF_CENTRAL_SIZE = 22;
+	private static final int MAX_COMMENT = 0xFFFF;
+
+	/**
+	 * Location and sizes of an entry
+	 */
+	static final class Entry
+	{
+		final int method;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		final long dataOffset;
+
+		Entry( int method, long crc, long compressedSize, long size, long dataOffset )
+		{
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.dataOffset = dataOffset;
+		}
+	}
+
+	private ZipReader()
+	{
+	}
+
+	/**
+	 * Find an entry by its internal path
+	 *
+	 * @param channel Archive
+	 * @param name    Internal path
+	 * @return The entry, or null if the archive has no such entry
+	 * @throws IOException if the archive could not be read or is malformed
+	 */
+	static Entry find( FileChannel channel, String name ) throws IOException
+	{
+		byte[] target = name.getBytes( StandardCharsets.UTF_8 );
+		ByteBuffer directory = readCentralDirectory( channel );
+		while ( directory.remaining() >= 46 )
+		{
+			int start = directory.position();
+			if ( directory.getInt( start ) != CENTRAL_HEADER )
+			{
+				throw new ZipException( "Malformed central directory" );
+			}
+			int nameLength = directory.getShort( start + 28 ) & 0xFFFF;
+			int extraLength = directory.getShort( start + 30 ) & 0xFFFF;
+			int commentLength = directory.getShort( start + 32 ) & 0xFFFF;
+			int next = start + 46 + nameLength + extraLength + commentLength;
+			if ( next > directory.limit() )
+			{
+				throw new ZipException( "Malformed central directory" );
+			}
+
+			if ( nameLength == target.length && Arrays.equals(
+				directory.array(), directory.arrayOffset() + start + 46, directory.arrayOffset() + start + 46 + nameLength,
+				target, 0, target.length ) )
+			{
+				int method = directory.getShort( start + 10 ) & 0xFFFF;
+				long crc = directory.getInt( start + 16 ) & LIMIT32;
+				long compressedSize = directory.getInt( start + 20 ) & LIMIT32;
+				long size = directory.getInt( start + 24 ) & LIMIT32;
+				long offset = directory.getInt( start + 42 ) & LIMIT32;
+
+				// Zip64 values appear in order, only for the fields which overflowed
+				int extra = start + 46 + nameLength;
+				int extraEnd = extra + extraLength;
+				while ( extra + 4 <= extraEnd )
+				{
+					int id = directory.getShort( extra ) & 0xFFFF;
+					int length = directory.getShort( extra + 2 ) & 0xFFFF;
+					if ( id == ZIP64_EXTRA )
+					{
+						int field = extra + 4;
+						if ( size == LIMIT32 )
+						{
+							size = directory.getLong( field );
+							field += 8;
+						}
+						if ( compressedSize == LIMIT32 )
+						{
+							compressedSize = directory.getLong( field );
+							field += 8;
+						}
+						if ( offset == LIMIT32 )
+						{
+							offset = directory.getLong( field );
+						}
+						break;
+					}
+					extra += 4 + length;
+				}
+
+				return new Entry( method, crc, compressedSize, size, dataOffset( channel, offset ) );
+			}
+			directory.position( next );
+		}
+		return null;
+	}
+
+	private static long dataOffset( FileChannel channel, long offset ) throws IOException
+	{
+		ByteBuffer local = read( channel, offset, 30 );
+		if ( local.getInt( 0 ) != LOCAL_HEADER )
+		{
+			throw new ZipException( "Malformed local header at " + offset );
+		}
+		return offset + 30 + (local.getShort( 26 ) & 0xFFFF) + (local.getShort( 28 ) & 0xFFFF);
+	}
+
+	private static ByteBuffer readCentralDirectory( FileChannel channel ) throws IOException
+	{
+		long fileSize = channel.size();
+		if ( fileSize < END_OF_CENTRAL_SIZE )
+		{
+			throw new ZipException( "zip file is empty" );
+		}
+
+		// The end record is followed only by a comment of up to 64 KiB
+		int tailLength = (int) Math.min( fileSize, END_OF_CENTRAL_SIZE + MAX_COMMENT );
+		long tailStart = fileSize - tailLength;
+		ByteBuffer tail = read( channel, tailStart, tailLength );
+		int end = tailLength - END_OF_CENTRAL_SIZE;
+		while ( end >= 0 && tail.getInt( end ) != END_OF_CENTRAL )
+		{
+			end--;
+		}
+		if ( end < 0 )
+		{
+			throw new ZipException( "zip END header not found" );
+		}
+
+		long length = tail.getInt( end + 12 ) & LIMIT32;
+		long offset = tail.getInt( end + 16 ) & LIMIT32;
+		long endPosition = tailStart + end;
+		if ( (length == LIMIT32 || offset == LIMIT32 || (tail.getShort( end + 10 ) & 0xFFFF) == 0xFFFF) && endPosition >= 20 )
+		{
+			ByteBuffer locator = read( channel, endPosition - 20, 20 );
+			if ( locator.getInt( 0 ) == ZIP64_LOCATOR )
+			{
+				ByteBuffer zip64 = read( channel, locator.getLong( 8 ), 56 );
+				if ( zip64.getInt( 0 ) != ZIP64_END_OF_CENTRAL )
+				{
+					throw new ZipException( "Malformed Zip64 end record" );
+				}
+				length = zip64.getLong( 40 );
+				offset = zip64.getLong( 48 );
+			}
+		}
+		if ( length > Integer.MAX_VALUE - 8 || offset + length > fileSize )
+		{
+			throw new ZipException( "Malformed central directory" );
+		}
+		return read( channel, offset, (int) length );
+	}
+
+	private static ByteBuffer read( FileChannel channel, long position, int length ) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+		while ( buffer.hasRemaining() )
+		{
+			if ( channel.read( buffer, position + buffer.position() ) < 0 )
+			{
+				throw new EOFException( "Unexpected end of zip file" );
+			}
+		}
+		return buffer.flip();
+	}
+}
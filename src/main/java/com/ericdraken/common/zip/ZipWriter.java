@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip archive whose entry data is already compressed, or
+ * stored, and whose CRC and sizes are known before the data is written,
+ * which ZipOutputStream cannot do. Local headers carry the sizes, so no
+ * data descriptors are needed; when the CRC and compressed size are only
+ * known afterwards, the local header is patched in place. Zip64 records
+ * are added when sizes, offsets or the entry count exceed the classic
+ * limits.
+ */
+class ZipWriter implements Closeable
+{
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL = 0x06064b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+
+	private static final int ZIP64_EXTRA = 0x0001;
+	private static final int TIMESTAMP_EXTRA = 0x5455;
+
+	private static final long LIMIT32 = 0xFFFFFFFFL;
+	private static final int LIMIT16 = 0xFFFF;
+
+	private static final int UTF8_FLAG = 0x0800;
+
+	// 1980-01-01, the earliest DOS time
+	private static final long DOS_TIME_MIN = (1 << 21) | (1 << 16);
+
+	private final FileChannel channel;
+
+	private final ByteBuffer header = ByteBuffer.allocate( 1024 ).order( ByteOrder.LITTLE_ENDIAN );
+
+	private final List<Entry> entries = new ArrayList<>();
+
+	private final Set<String> names = new HashSet<>();
+
+	private Entry current;
+
+	private long remaining;
+
+	private long written;
+
+	private static final class Entry
+	{
+		final byte[] name;
+		final int method;
+		final long dosTime;
+		final long mtimeSeconds;
+		long crc;
+		long compressedSize;
+		final long size;
+		final long offset;
+		boolean deferred;
+		boolean localZip64;
+
+		Entry( byte[] name, int method, long mtimeMillis, long crc, long compressedSize, long size, long offset )
+		{
+			this.name = name;
+			this.method = method;
+			this.dosTime = dosTime( mtimeMillis );
+			this.mtimeSeconds = Math.floorDiv( mtimeMillis, 1000 );
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.offset = offset;
+		}
+
+		boolean isUtf8()
+		{
+			for ( byte b : name )
+			{
+				if ( b < 0 )
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean zip64Sizes()
+		{
+			return size >= LIMIT32 || compressedSize >= LIMIT32;
+		}
+
+		int versionNeeded()
+		{
+			return zip64Sizes() || offset >= LIMIT32 ? 45 : method == ZipEntry.STORED ? 10 : 20;
+		}
+	}
+
+	ZipWriter( Path out ) throws IOException
+	{
+		channel = FileChannel.open( out, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+	}
+
+	/**
+	 * Start an entry. Exactly compressedSize bytes of data must follow.
+	 *
+	 * @param name           Internal path
+	 * @param method         ZipEntry.STORED or ZipEntry.DEFLATED
+	 * @param mtimeMillis    Last modified time
+	 * @param crc            CRC32 of the uncompressed data
+	 * @param compressedSize Bytes of data which will follow
+	 * @param size           Uncompressed bytes
+	 * @throws IOException on a write failure or a duplicate name
+	 */
+	void putEntry( String name, int method, long mtimeMillis, long crc, long compressedSize, long size ) throws IOException
+	{
+		if ( method == ZipEntry.STORED && compressedSize != size )
+		{
+			throw new ZipException( "Stored entry sizes differ: " + name );
+		}
+		startEntry( name, method, mtimeMillis, crc, compressedSize, size, compressedSize >= LIMIT32 || size >= LIMIT32 );
+		remaining = compressedSize;
+	}
+
+	/**
+	 * Start a deflated entry whose CRC and compressed size are only known
+	 * once its data is written. End it with endEntry().
+	 *
+	 * @param name              Internal path
+	 * @param mtimeMillis       Last modified time
+	 * @param size              Uncompressed bytes
+	 * @param maxCompressedSize Upper bound of the data, which decides whether
+	 *                          the local header needs Zip64 sizes
+	 * @throws IOException on a write failure or a duplicate name
+	 */
+	void beginEntry( String name, long mtimeMillis, long size, long maxCompressedSize ) throws IOException
+	{
+		startEntry( name, ZipEntry.DEFLATED, mtimeMillis, 0, 0, size, maxCompressedSize >= LIMIT32 || size >= LIMIT32 );
+		current.deferred = true;
+		remaining = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Patch the CRC and compressed size of the entry started by beginEntry()
+	 *
+	 * @param crc CRC32 of the uncompressed data
+	 * @throws IOException on a write failure, or if the data outgrew the header
+	 */
+	void endEntry( long crc ) throws IOException
+	{
+		if ( current == null || !current.deferred )
+		{
+			throw new ZipException( "No entry to end" );
+		}
+		current.crc = crc;
+		current.compressedSize = written;
+		current.deferred = false;
+		remaining = 0;
+		if ( !current.localZip64 && written >= LIMIT32 )
+		{
+			throw new ZipException( "Entry outgrew its header: " + new String( current.name, StandardCharsets.UTF_8 ) );
+		}
+
+		header.clear();
+		header.putInt( (int) crc );
+		header.putInt( (int) (current.localZip64 ? LIMIT32 : written) );
+		writeHeader( current.offset + 14 );
+		if ( current.localZip64 )
+		{
+			header.clear();
+			header.putLong( current.size );
+			header.putLong( written );
+			writeHeader( current.offset + 30 + current.name.length + 4 );
+		}
+	}
+
+	private void startEntry( String name, int method, long mtimeMillis, long crc, long compressedSize, long size, boolean zip64 ) throws IOException
+	{
+		if ( current != null && (remaining != 0 || current.deferred) )
+		{
+			throw new ZipException( "Entry " + new String( current.name, StandardCharsets.UTF_8 ) + " is incomplete" );
+		}
+		if ( !names.add( name ) )
+		{
+			throw new ZipException( "duplicate entry: " + name );
+		}
+
+		Entry entry = new Entry( name.getBytes( StandardCharsets.UTF_8 ), method, mtimeMillis, crc, compressedSize, size, channel.position() );
+		entry.localZip64 = zip64;
+
+		header.clear();
+		header.putInt( LOCAL_HEADER );
+		header.putShort( (short) (zip64 ? 45 : entry.versionNeeded()) );
+		header.putShort( (short) (entry.isUtf8() ? UTF8_FLAG : 0) );
+		header.putShort( (short) method );
+		header.putInt( (int) entry.dosTime );
+		header.putInt( (int) crc );
+		header.putInt( (int) (zip64 ? LIMIT32 : compressedSize) );
+		header.putInt( (int) (zip64 ? LIMIT32 : size) );
+		header.putShort( (short) entry.name.length );
+		header.putShort( (short) ((zip64 ? 20 : 0) + 9) );
+		putName( entry.name );
+		if ( zip64 )
+		{
+			header.putShort( (short) ZIP64_EXTRA );
+			header.putShort( (short) 16 );
+			header.putLong( size );
+			header.putLong( compressedSize );
+		}
+		putTimestamp( entry );
+		writeHeader();
+
+		entries.add( entry );
+		current = entry;
+		written = 0;
+	}
+
+	/**
+	 * Write entry data
+	 *
+	 * @param data Bytes
+	 * @throws IOException on failure
+	 */
+	void write( ByteBuffer data ) throws IOException
+	{
+		int length = data.remaining();
+		checkRemaining( length );
+		while ( data.hasRemaining() )
+		{
+			channel.write( data );
+		}
+		remaining -= length;
+		written += length;
+	}
+
+	/**
+	 * @see #write(ByteBuffer)
+	 */
+	void write( byte[] data, int offset, int length ) throws IOException
+	{
+		write( ByteBuffer.wrap( data, offset, length ) );
+	}
+
+	/**
+	 * Copy entry data from a file without passing it through the heap
+	 *
+	 * @param source   Source channel
+	 * @param position Offset in the source
+	 * @param count    Bytes to copy
+	 * @throws IOException on failure
+	 */
+	void transferFrom( FileChannel source, long position, long count ) throws IOException
+	{
+		checkRemaining( count );
+		long done = 0;
+		while ( done < count )
+		{
+			long n = source.transferTo( position + done, count - done, channel );
+			if ( n <= 0 && position + done >= source.size() )
+			{
+				throw new ZipException( "Source ended " + (count - done) + " bytes early" );
+			}
+			done += n;
+		}
+		remaining -= count;
+		written += count;
+	}
+
+	private void checkRemaining( long length ) throws ZipException
+	{
+		if ( current == null || length > remaining )
+		{
+			throw new ZipException( "More data than the entry declared" );
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			if ( current != null && (remaining != 0 || current.deferred) )
+			{
+				throw new ZipException( "Entry " + new String( current.name, StandardCharsets.UTF_8 ) + " is incomplete" );
+			}
+			writeCentralDirectory();
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private void writeCentralDirectory() throws IOException
+	{
+		long start = channel.position();
+		for ( Entry entry : entries )
+		{
+			boolean sizes64 = entry.zip64Sizes();
+			boolean offset64 = entry.offset >= LIMIT32;
+			int zip64Length = (sizes64 ? 16 : 0) + (offset64 ? 8 : 0);
+
+			header.clear();
+			header.putInt( CENTRAL_HEADER );
+			header.putShort( (short) entry.versionNeeded() );
+			header.putShort( (short) entry.versionNeeded() );
+			header.putShort( (short) (entry.isUtf8() ? UTF8_FLAG : 0) );
+			header.putShort( (short) entry.method );
+			header.putInt( (int) entry.dosTime );
+			header.putInt( (int) entry.crc );
+			header.putInt( (int) (sizes64 ? LIMIT32 : entry.compressedSize) );
+			header.putInt( (int) (sizes64 ? LIMIT32 : entry.size) );
+			header.putShort( (short) entry.name.length );
+			header.putShort( (short) ((zip64Length > 0 ? 4 + zip64Length : 0) + 9) );
+			header.putShort( (short) 0 ); // comment
+			header.putShort( (short) 0 ); // disk
+			header.putShort( (short) 0 ); // internal attributes
+			header.putInt( 0 ); // external attributes
+			header.putInt( (int) (offset64 ? LIMIT32 : entry.offset) );
+			putName( entry.name );
+			if ( zip64Length > 0 )
+			{
+				header.putShort( (short) ZIP64_EXTRA );
+				header.putShort( (short) zip64Length );
+				if ( sizes64 )
+				{
+					header.putLong( entry.size );
+					header.putLong( entry.compressedSize );
+				}
+				if ( offset64 )
+				{
+					header.putLong( entry.offset );
+				}
+			}
+			putTimestamp( entry );
+			writeHeader();
+		}
+		long end = channel.position();
+		long length = end - start;
+
+		boolean zip64 = entries.size() >= LIMIT16 || start >= LIMIT32 || length >= LIMIT32;
+		header.clear();
+		if ( zip64 )
+		{
+			header.putInt( ZIP64_END_OF_CENTRAL );
+			header.putLong( 44 );
+			header.putShort( (short) 45 );
+			header.putShort( (short) 45 );
+			header.putInt( 0 );
+			header.putInt( 0 );
+			header.putLong( entries.size() );
+			header.putLong( entries.size() );
+			header.putLong( length );
+			header.putLong( start );
+
+			header.putInt( ZIP64_LOCATOR );
+			header.putInt( 0 );
+			header.putLong( end );
+			header.putInt( 1 );
+		}
+		int count = Math.min( entries.size(), LIMIT16 );
+		header.putInt( END_OF_CENTRAL );
+		header.putShort( (short) 0 );
+		header.putShort( (short) 0 );
+		header.putShort( (short) count );
+		header.putShort( (short) count );
+		header.putInt( (int) Math.min( length, LIMIT32 ) );
+		header.putInt( (int) Math.min( start, LIMIT32 ) );
+		header.putShort( (short) 0 );
+		writeHeader();
+	}
+
+	private void putName( byte[] name ) throws ZipException
+	{
+		if ( name.length > LIMIT16 || name.length > header.remaining() - 64 )
+		{
+			throw new ZipException( "Entry name is too long" );
+		}
+		header.put( name );
+	}
+
+	// Extended timestamp with the modification time, as ZipOutputStream writes it
+	private void putTimestamp( Entry entry )
+	{
+		header.putShort( (short) TIMESTAMP_EXTRA );
+		header.putShort( (short) 5 );
+		header.put( (byte) 1 );
+		header.putInt( (int) entry.mtimeSeconds );
+	}
+
+	private void writeHeader() throws IOException
+	{
+		header.flip();
+		while ( header.hasRemaining() )
+		{
+			channel.write( header );
+		}
+	}
+
+	private void writeHeader( long position ) throws IOException
+	{
+		header.flip();
+		while ( header.hasRemaining() )
+		{
+			position += channel.write( header, position );
+		}
+	}
+
+	private static long dosTime( long millis )
+	{
+		LocalDateTime t = LocalDateTime.ofInstant( Instant.ofEpochMilli( millis ), ZoneId.systemDefault() );
+		if ( t.getYear() < 1980 )
+		{
+			return DOS_TIME_MIN;
+		}
+		return ((long) (t.getYear() - 1980) << 25) |
+			((long) t.getMonthValue() << 21) |
+			((long) t.getDayOfMonth() << 16) |
+			((long) t.getHour() << 11) |
+			((long) t.getMinute() << 5) |
+			((long) t.getSecond() >> 1);
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Java 21+ version which creates virtual threads
+ */
+final class VirtualThreads
+{
+	private VirtualThreads()
+	{
+	}
+
+	/**
+	 * @return True if threads from {@link #newThreadFactory(String)} are virtual
+	 */
+	static boolean isSupported()
+	{
+		return true;
+	}
+
+	/**
+	 * @param prefix Thread name prefix
+	 * @return A thread factory with NamedThreadFactory-style names
+	 */
+	static ThreadFactory newThreadFactory( String prefix )
+	{
+		return Thread.ofVirtual()
+			.name( NamedThreadFactory.newNamePrefix( prefix ), 1 )
+			.factory();
+	}
+}
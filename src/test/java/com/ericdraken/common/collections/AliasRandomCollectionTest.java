@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AliasRandomCollectionTest
+{
+	@Test
+	void empty()
+	{
+		AliasRandomCollection<Integer> collection = AliasRandomCollection.<Integer>builder().build();
+		assertEquals( 0, collection.size() );
+		assertEquals( 0, collection.getNumInitialElements() );
+		assertNull( collection.next() );
+	}
+
+	@Test
+	void next_One()
+	{
+		AliasRandomCollection<Integer> collection = AliasRandomCollection.<Integer>builder()
+			.add( 1, 1.0, 1 )
+			.build();
+
+		assertEquals( 1, Objects.requireNonNull( collection.next() ).intValue() );
+		assertEquals( 1, Objects.requireNonNull( collection.next() ).intValue() );
+	}
+
+	@Test
+	void add_IgnoresEmptyWeights()
+	{
+		AliasRandomCollection<Integer> collection = AliasRandomCollection.<Integer>builder()
+			.add( 1, 0.0, 1 )
+			.add( 0, 1.0, 2 )
+			.add( 2, 1.0, 3 )
+			.build();
+
+		assertEquals( 1, collection.size() );
+		assertEquals( 2, collection.getNumInitialElements() );
+		assertEquals( 3, Objects.requireNonNull( collection.next() ).intValue() );
+	}
+
+	@Test
+	void next_FollowsWeights()
+	{
+		AliasRandomCollection<Integer> collection = AliasRandomCollection.<Integer>builder()
+			.add( 1, 1.0, 0 )
+			.add( 1, 2.0, 1 )
+			.add( 1, 7.0, 2 )
+			.build();
+
+		int draws = 100_000;
+		int[] counts = new int[3];
+		SplittableRandom random = new SplittableRandom( 42 );
+		for ( int i = 0; i < draws; i++ )
+		{
+			counts[collection.next( random )]++;
+		}
+
+		assertEquals( 0.1, counts[0] / (double) draws, 0.01 );
+		assertEquals( 0.2, counts[1] / (double) draws, 0.01 );
+		assertEquals( 0.7, counts[2] / (double) draws, 0.01 );
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteSizeEstimatorTest
+{
+	@Test
+	void estimate_Scalars()
+	{
+		assertEquals( 0, ByteSizeEstimator.estimate( null ) );
+		assertEquals( 24, ByteSizeEstimator.estimate( 1L ) );
+		assertEquals( 1040, ByteSizeEstimator.estimate( new byte[1024] ) );
+		assertEquals( 24 + 24, ByteSizeEstimator.estimate( "abcd" ) );
+	}
+
+	@Test
+	void estimate_GrowsWithContent()
+	{
+		Map<String, Object> small = Map.of( "a", 1 );
+		Map<String, Object> large = Map.of( "a", 1, "b", List.of( "x".repeat( 1000 ), 2, 3 ) );
+		assertTrue( ByteSizeEstimator.estimate( large ) > ByteSizeEstimator.estimate( small ) + 2000 );
+	}
+
+	@Test
+	void estimate_JsonTree() throws Exception
+	{
+		JsonNode node = new ObjectMapper().readTree( "{\"name\":\"" + "x".repeat( 1000 ) + "\",\"tags\":[1,2,3]}" );
+		long size = ByteSizeEstimator.estimate( node );
+		assertTrue( size > 2000 && size < 3000, "size: " + size );
+	}
+
+	@Test
+	void estimate_GsonTree() throws Exception
+	{
+		String json = "{\"name\":\"" + "x".repeat( 1000 ) + "\",\"tags\":[1,2,3]}";
+		JsonElement element = JsonParser.parseString( json );
+		long size = ByteSizeEstimator.estimate( element );
+		assertTrue( size > 2000 && size < 3000, "size: " + size );
+
+		// Close to the same document as a Jackson tree
+		long jackson = ByteSizeEstimator.estimate( new ObjectMapper().readTree( json ) );
+		assertTrue( Math.abs( size - jackson ) < 500, size + " vs " + jackson );
+	}
+}
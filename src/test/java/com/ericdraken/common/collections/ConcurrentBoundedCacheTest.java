@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentBoundedCacheTest
+{
+	@Test
+	void put_EvictsBeyondMaximum()
+	{
+		ConcurrentBoundedCache<Integer, Integer> cache = new ConcurrentBoundedCache<>( 100 );
+		for ( int i = 0; i < 1000; i++ )
+		{
+			cache.put( i, i );
+		}
+		assertTrue( cache.size() <= 100 );
+		assertEquals( 1000 - cache.size(), cache.getEvictionCount() );
+	}
+
+	@Test
+	void mapOperations()
+	{
+		Map<String, Integer> cache = new ConcurrentBoundedCache<>( 10 );
+		assertNull( cache.put( "a", 1 ) );
+		assertEquals( Integer.valueOf( 1 ), cache.put( "a", 2 ) );
+		assertEquals( Integer.valueOf( 2 ), cache.putIfAbsent( "a", 3 ) );
+		assertTrue( cache.replace( "a", 2, 4 ) );
+		assertFalse( cache.remove( "a", 2 ) );
+		assertEquals( Integer.valueOf( 4 ), cache.get( "a" ) );
+
+		cache.put( "b", 5 );
+		Iterator<Map.Entry<String, Integer>> it = cache.entrySet().iterator();
+		it.next();
+		it.remove();
+		assertEquals( 1, cache.size() );
+
+		cache.clear();
+		assertTrue( cache.isEmpty() );
+		assertNull( cache.get( "a" ) );
+	}
+
+	@Test
+	void frequentKeysSurviveScans()
+	{
+		ConcurrentBoundedCache<Integer, Integer> cache = new ConcurrentBoundedCache<>( 100 );
+
+		// A hot set read repeatedly, then a scan of one-hit keys
+		for ( int i = 0; i < 50; i++ )
+		{
+			cache.put( i, i );
+			cache.get( i );
+			cache.get( i );
+		}
+		for ( int i = 1000; i < 5000; i++ )
+		{
+			cache.put( i, i );
+		}
+
+		int survivors = 0;
+		for ( int i = 0; i < 50; i++ )
+		{
+			survivors += cache.containsKey( i ) ? 1 : 0;
+		}
+		// Insertion-order eviction would have kept none of them
+		assertTrue( survivors > 40, "survivors: " + survivors );
+	}
+
+	@Test
+	void counters()
+	{
+		ConcurrentBoundedCache<Integer, Integer> cache = new ConcurrentBoundedCache<>( 10 );
+		cache.put( 1, 1 );
+		cache.get( 1 );
+		cache.get( 2 );
+		assertEquals( 1, cache.getHitCount() );
+		assertEquals( 1, cache.getMissCount() );
+		assertEquals( 0.5, cache.getHitRate() );
+	}
+
+	@Test
+	void concurrentReadersAndWriters() throws Exception
+	{
+		ConcurrentBoundedCache<Integer, Integer> cache = new ConcurrentBoundedCache<>( 256 );
+		int threads = 4;
+		ExecutorService exec = Executors.newFixedThreadPool( threads );
+		List<Future<?>> workers = new ArrayList<>();
+		for ( int t = 0; t < threads; t++ )
+		{
+			workers.add( exec.submit( () -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for ( int i = 0; i < 100_000; i++ )
+				{
+					int key = random.nextInt( 1024 );
+					if ( random.nextInt( 4 ) == 0 )
+					{
+						cache.put( key, key );
+					}
+					else
+					{
+						Integer value = cache.get( key );
+						assertTrue( value == null || value == key );
+					}
+				}
+			} ) );
+		}
+		try
+		{
+			// A failed assertion surfaces here instead of hanging the test
+			for ( Future<?> worker : workers )
+			{
+				worker.get( 60, TimeUnit.SECONDS );
+			}
+		}
+		finally
+		{
+			exec.shutdownNow();
+		}
+		assertTrue( cache.size() <= 256 );
+	}
+
+	@Test
+	void put_EvictsBeyondMaximumWeight()
+	{
+		ConcurrentBoundedCache<Integer, byte[]> cache = new ConcurrentBoundedCache<>( 1000, ( k, v ) -> v.length );
+		for ( int i = 0; i < 100; i++ )
+		{
+			cache.put( i, new byte[i % 2 == 0 ? 10 : 90] );
+			assertTrue( cache.getWeightedSize() <= 1000 );
+		}
+
+		long weight = cache.values().stream().mapToLong( v -> v.length ).sum();
+		assertEquals( weight, cache.getWeightedSize() );
+
+		// Replacing and removing adjust the weight too
+		cache.clear();
+		cache.put( 1, new byte[100] );
+		cache.put( 1, new byte[300] );
+		assertEquals( 300, cache.getWeightedSize() );
+		cache.remove( 1 );
+		assertEquals( 0, cache.getWeightedSize() );
+		assertEquals( "0 B", cache.getWeightedSizeAsBytes() );
+	}
+
+	@Test
+	void put_TooHeavyIsNotKept()
+	{
+		ConcurrentBoundedCache<String, String> cache = new ConcurrentBoundedCache<>( 100, ( k, v ) -> v.length() );
+		cache.put( "small", "x" );
+		cache.put( "huge", "x".repeat( 200 ) );
+		assertFalse( cache.containsKey( "huge" ) );
+		assertTrue( cache.getWeightedSize() <= 100 );
+
+		// Nothing else was evicted to make room
+		assertEquals( "x", cache.get( "small" ) );
+		assertEquals( 1, cache.getEvictionCount() );
+
+		// Too heavy a replacement removes the old value
+		assertEquals( "x", cache.put( "small", "y".repeat( 200 ) ) );
+		assertFalse( cache.containsKey( "small" ) );
+		assertEquals( 0, cache.getWeightedSize() );
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentRandomCollectionTest
+{
+	@Test
+	void next_Empty()
+	{
+		ConcurrentRandomCollection<Integer> collection = new ConcurrentRandomCollection<>();
+		assertNull( collection.next() );
+		assertEquals( 0, collection.size() );
+	}
+
+	@Test
+	void remove_Several()
+	{
+		ConcurrentRandomCollection<Integer> collection = new ConcurrentRandomCollection<>();
+		collection.add( 1, 1.0, 1 );
+		collection.add( 1, 1.0, 2 );
+		collection.add( 1, 1.0, 3 );
+
+		assertTrue( collection.remove( 1 ) );
+		assertTrue( collection.remove( 2 ) );
+		assertFalse( collection.remove( 2 ) );
+		assertEquals( 3, Objects.requireNonNull( collection.next() ).intValue() );
+
+		assertTrue( collection.remove( 3 ) );
+		assertNull( collection.next() );
+		assertEquals( 3, collection.getNumInitialElements() );
+	}
+
+	@Test
+	void setWeight()
+	{
+		ConcurrentRandomCollection<Integer> collection = new ConcurrentRandomCollection<>();
+		collection.add( 1, 1.0, 1 );
+		collection.add( 1, 1.0, 2 );
+
+		assertTrue( collection.setWeight( 1, 0.0 ) );
+		assertFalse( collection.setWeight( 1, 5.0 ) );
+		assertEquals( 1, collection.size() );
+		assertEquals( 1.0, collection.getTotalWeight(), 1e-9 );
+		assertEquals( 2, Objects.requireNonNull( collection.next() ).intValue() );
+	}
+
+	@Test
+	void next_FollowsWeightsAfterChurn()
+	{
+		ConcurrentRandomCollection<Integer> collection = new ConcurrentRandomCollection<>();
+
+		// Grow past the initial capacity and reuse freed slots
+		for ( int i = 0; i < 100; i++ )
+		{
+			collection.add( 1, 1.0, i );
+		}
+		for ( int i = 3; i < 100; i++ )
+		{
+			collection.remove( i );
+		}
+		collection.setWeight( 0, 1.0 );
+		collection.setWeight( 1, 2.0 );
+		collection.setWeight( 2, 7.0 );
+
+		int draws = 100_000;
+		int[] counts = new int[3];
+		for ( int i = 0; i < draws; i++ )
+		{
+			counts[Objects.requireNonNull( collection.next() )]++;
+		}
+
+		assertEquals( 0.1, counts[0] / (double) draws, 0.01 );
+		assertEquals( 0.2, counts[1] / (double) draws, 0.01 );
+		assertEquals( 0.7, counts[2] / (double) draws, 0.01 );
+	}
+
+	@Test
+	void next_WhileWriting() throws InterruptedException
+	{
+		ConcurrentRandomCollection<Integer> collection = new ConcurrentRandomCollection<>();
+		collection.add( 1, 1.0, -1 );
+
+		AtomicBoolean running = new AtomicBoolean( true );
+		AtomicInteger misses = new AtomicInteger();
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		CountDownLatch done = new CountDownLatch( 4 );
+		for ( int t = 0; t < 4; t++ )
+		{
+			new Thread( () -> {
+				try
+				{
+					while ( running.get() )
+					{
+						// The pinned element keeps the collection non-empty
+						if ( collection.next() == null )
+						{
+							misses.incrementAndGet();
+						}
+					}
+				}
+				catch ( RuntimeException e )
+				{
+					failure.compareAndSet( null, e );
+				}
+				finally
+				{
+					// A reader which throws must not leave the test waiting
+					done.countDown();
+				}
+			} ).start();
+		}
+
+		for ( int i = 0; i < 20_000; i++ )
+		{
+			collection.add( 1, 1.0 + i % 7, i % 500 );
+			if ( i % 3 == 0 )
+			{
+				collection.remove( (i / 2) % 500 );
+			}
+		}
+		running.set( false );
+		done.await();
+
+		if ( failure.get() != null )
+		{
+			throw failure.get();
+		}
+		assertEquals( 0, misses.get() );
+	}
+}
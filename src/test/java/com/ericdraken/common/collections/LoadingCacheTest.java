@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadingCacheTest
+{
+	private final AtomicLong now = new AtomicLong( 1000 );
+
+	private void sleep( Duration duration )
+	{
+		now.addAndGet( duration.toNanos() );
+	}
+
+	@Test
+	void get_LoadsOnce() throws ExecutionException
+	{
+		AtomicInteger loads = new AtomicInteger();
+		LoadingCache<String, Integer> cache = LoadingCache.<String, Integer>builder()
+			.build( key -> loads.incrementAndGet() );
+
+		assertEquals( 1, cache.get( "a" ).intValue() );
+		assertEquals( 1, cache.get( "a" ).intValue() );
+		assertEquals( 1, loads.get() );
+		assertEquals( 1, cache.getHitCount() );
+		assertEquals( 1, cache.getMissCount() );
+	}
+
+	@Test
+	void get_SingleFlight() throws InterruptedException
+	{
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch( 1 );
+		LoadingCache<String, Integer> cache = LoadingCache.<String, Integer>builder()
+			.build( key -> {
+				release.await();
+				return loads.incrementAndGet();
+			} );
+
+		List<Thread> threads = new ArrayList<>();
+		AtomicInteger sum = new AtomicInteger();
+		for ( int i = 0; i < 8; i++ )
+		{
+			Thread t = new Thread( () -> {
+				try
+				{
+					sum.addAndGet( cache.get( "dns" ) );
+				}
+				catch ( ExecutionException e )
+				{
+					throw new IllegalStateException( e );
+				}
+			} );
+			t.start();
+			threads.add( t );
+		}
+		Thread.sleep( 100 );
+		release.countDown();
+		for ( Thread t : threads )
+		{
+			t.join();
+		}
+
+		assertEquals( 1, loads.get() );
+		assertEquals( 8, sum.get() );
+	}
+
+	@Test
+	void get_LoaderFailure()
+	{
+		LoadingCache<String, Integer> cache = LoadingCache.<String, Integer>builder()
+			.build( key -> {
+				throw new IOException( "unreachable" );
+			} );
+
+		ExecutionException e = assertThrows( ExecutionException.class, () -> cache.get( "a" ) );
+		assertTrue( e.getCause() instanceof IOException );
+		assertEquals( 0, cache.size() );
+	}
+
+	@Test
+	void expireAfterWrite()
+	{
+		LoadingCache<String, Integer> cache = LoadingCache.<String, Integer>builder()
+			.expireAfterWrite( Duration.ofSeconds( 5 ) )
+			.ticker( now::get )
+			.build( key -> 1 );
+
+		cache.put( "a", 1 );
+		sleep( Duration.ofSeconds( 4 ) );
+		assertEquals( 1, cache.getIfPresent( "a" ).intValue() );
+
+		// Expired entries are never returned, even before they are reclaimed
+		sleep( Duration.ofSeconds( 2 ) );
+		assertNull( cache.getIfPresent( "a" ) );
+		assertEquals( 1, cache.size() );
+
+		sleep( Duration.ofSeconds( 2 ) );
+		cache.cleanUp();
+		assertEquals( 0, cache.size() );
+		assertEquals( 1, cache.getExpiredCount() );
+	}
+
+	@Test
+	void expireAfterWrite_EvictedValuesAreReleased()
+	{
+		LoadingCache<Integer, byte[]> cache = LoadingCache.<Integer, byte[]>builder()
+			.maximumSize( 10 )
+			.expireAfterWrite( Duration.ofHours( 1 ) )
+			.ticker( now::get )
+			.build( key -> new byte[1024] );
+
+		List<WeakReference<byte[]>> values = new ArrayList<>();
+		for ( int i = 0; i < 1000; i++ )
+		{
+			byte[] value = new byte[1024];
+			values.add( new WeakReference<>( value ) );
+			cache.put( i, value );
+		}
+		assertTrue( cache.getEvictionCount() >= 990 );
+
+		// Long before they would expire, the timers must not hold evicted values
+		int released = 0;
+		for ( int attempt = 0; attempt < 10 && released < 990; attempt++ )
+		{
+			System.gc();
+			released = (int) values.stream().filter( ref -> ref.get() == null ).count();
+		}
+		assertTrue( released >= 990, released + " released" );
+	}
+
+	@Test
+	void expireAfterAccess()
+	{
+		LoadingCache<String, Integer> cache = LoadingCache.<String, Integer>builder()
+			.expireAfterAccess( Duration.ofSeconds( 5 ) )
+			.ticker( now::get )
+			.build( key -> 1 );
+
+		cache.put( "a", 1 );
+		for ( int i = 0; i < 10; i++ )
+		{
+			sleep( Duration.ofSeconds( 3 ) );
+			assertNotNull( cache.getIfPresent( "a" ) );
+			cache.cleanUp();
+		}
+		sleep( Duration.ofSeconds( 8 ) );
+		cache.cleanUp();
+		assertEquals( 0, cache.size() );
+	}
+
+	@Test
+	void expire_LongDurations()
+	{
+		// Cascades down from the coarser levels of the wheel
+		LoadingCache<String, Integer> cache = LoadingCache.<String, Integer>builder()
+			.expireAfterWrite( Duration.ofHours( 3 ) )
+			.ticker( now::get )
+			.build( key -> 1 );
+
+		cache.put( "a", 1 );
+		for ( int i = 0; i < 179; i++ )
+		{
+			sleep( Duration.ofMinutes( 1 ) );
+			cache.cleanUp();
+		}
+		assertEquals( 1, cache.size() );
+
+		sleep( Duration.ofMinutes( 2 ) );
+		cache.cleanUp();
+		assertEquals( 0, cache.size() );
+	}
+
+	@Test
+	void refreshAfterWrite() throws ExecutionException
+	{
+		AtomicInteger loads = new AtomicInteger();
+		LoadingCache<String, Integer> cache = LoadingCache.<String, Integer>builder()
+			.refreshAfterWrite( Duration.ofSeconds( 10 ) )
+			.refreshExecutor( Runnable::run )
+			.ticker( now::get )
+			.build( key -> loads.incrementAndGet() );
+
+		assertEquals( 1, cache.get( "a" ).intValue() );
+		sleep( Duration.ofSeconds( 11 ) );
+
+		// The stale value is returned while the refresh runs
+		assertEquals( 1, cache.get( "a" ).intValue() );
+		assertEquals( 2, cache.get( "a" ).intValue() );
+		assertEquals( 2, cache.getLoadCount() );
+	}
+}
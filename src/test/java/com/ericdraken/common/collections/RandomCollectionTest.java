@@ -6,6 +6,7 @@ package com.ericdraken.common.collections;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
 import java.util.Objects;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -114,4 +115,72 @@ class RandomCollectionTest
 		// Still 2, not 1
 		assertEquals( 2, collection.getNumInitialElements() );
 	}
-}
\ No newline at end of file
+
+	@Test
+	void next_Batch()
+	{
+		RandomCollection<Integer> collection = new RandomCollection<>();
+		collection.add( 1, 1.0, 0 );
+		collection.add( 1, 2.0, 1 );
+		collection.add( 1, 7.0, 2 );
+
+		int draws = 100_000;
+		int[] counts = new int[3];
+		collection.next( draws ).forEach( i -> counts[i]++ );
+
+		assertEquals( 0.1, counts[0] / (double) draws, 0.01 );
+		assertEquals( 0.2, counts[1] / (double) draws, 0.01 );
+		assertEquals( 0.7, counts[2] / (double) draws, 0.01 );
+	}
+
+	@Test
+	void next_BatchIsShuffled()
+	{
+		RandomCollection<Integer> collection = new RandomCollection<>();
+		collection.add( 1, 1.0, 0 );
+		collection.add( 1, 1.0, 1 );
+
+		// Unshuffled, every 0 would come before every 1
+		List<Integer> batch = collection.next( 1000 );
+		assertTrue( batch.subList( 0, 500 ).contains( 1 ) );
+		assertTrue( batch.subList( 500, 1000 ).contains( 0 ) );
+	}
+
+	@Test
+	void fill_Empty()
+	{
+		RandomCollection<Integer> collection = new RandomCollection<>();
+		Integer[] out = { 1, 2 };
+		collection.fill( out );
+		assertArrayEquals( new Integer[]{ null, null }, out );
+	}
+
+	@Test
+	void stream()
+	{
+		RandomCollection<Integer> collection = new RandomCollection<>();
+		collection.add( 1, 1.0, 1 );
+		collection.add( 1, 1.0, 2 );
+
+		assertEquals( 10_000, collection.stream( 10_000 ).filter( Objects::nonNull ).count() );
+		assertEquals( 0, collection.stream( 0 ).count() );
+	}
+
+	@Test
+	void sample_Distinct()
+	{
+		RandomCollection<Integer> collection = new RandomCollection<>();
+		for ( int i = 0; i < 10; i++ )
+		{
+			collection.add( 1, 1.0 + i, i );
+		}
+
+		List<Integer> sample = collection.sample( 5 );
+		assertEquals( 5, sample.size() );
+		assertEquals( 5, sample.stream().distinct().count() );
+
+		// Asking for more than there are returns them all
+		assertEquals( 10, collection.sample( 20 ).size() );
+		assertEquals( 10, collection.size() );
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeightedReservoirTest
+{
+	@Test
+	void offer_SkipsUnweighted()
+	{
+		WeightedReservoir<String> reservoir = new WeightedReservoir<>( 2 );
+		assertFalse( reservoir.offer( "zero", 0.0 ) );
+		assertFalse( reservoir.offer( "nan", Double.NaN ) );
+		assertTrue( reservoir.offer( "one", 1.0 ) );
+
+		assertEquals( 1, reservoir.getCount() );
+		assertEquals( List.of( "one" ), reservoir.getSample() );
+	}
+
+	@Test
+	void sample_Stream()
+	{
+		// An unbounded stream is fine as long as it is limited lazily
+		Stream<Integer> items = Stream.iterate( 0, i -> i + 1 ).limit( 100_000 );
+		List<Integer> sample = WeightedReservoir.sample( items, i -> 1.0, 10 );
+
+		assertEquals( 10, sample.size() );
+		assertEquals( 10, sample.stream().distinct().count() );
+	}
+
+	@Test
+	void sample_FavoursHeavyItems()
+	{
+		// Item 0 weighs as much as the other 99 together
+		int trials = 10_000;
+		int hits = 0;
+		Random random = new Random( 42 );
+		for ( int t = 0; t < trials; t++ )
+		{
+			WeightedReservoir<Integer> reservoir = new WeightedReservoir<>( 1, random );
+			IntStream.range( 0, 100 ).forEach( i -> reservoir.offer( i, i == 0 ? 99.0 : 1.0 ) );
+			if ( reservoir.getSample().get( 0 ) == 0 )
+			{
+				hits++;
+			}
+		}
+		assertEquals( 0.5, hits / (double) trials, 0.02 );
+	}
+}
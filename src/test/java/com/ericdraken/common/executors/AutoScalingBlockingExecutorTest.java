@@ -81,4 +81,43 @@ class AutoScalingBlockingExecutorTest
 		}
 		assertEquals( 5, exec.getPoolSize() );	// All threads recovered
 	}
-}
\ No newline at end of file
+
+	@Test
+	void testWindowedTicks() throws InterruptedException
+	{
+		// Tick manually, so schedule the background ticks far away
+		AutoScalingBlockingExecutor exec = new AutoScalingBlockingExecutor( 4, 50, 1_000_000L );
+		assertEquals( 4, exec.getCurrPoolSize() );
+
+		// Too few samples, so no change
+		exec.execute( () -> CheckedBooleanSupplier.falsy( () -> { sleep(100); return true; } ) );
+		sleep(200);
+		exec.tick();
+		assertEquals( 4, exec.getCurrPoolSize() );
+
+		// A slow window shrinks the pool multiplicatively
+		for ( int i = 0; i < 5; i++ )
+		{
+			exec.execute( () -> CheckedBooleanSupplier.falsy( () -> { sleep(100); return true; } ) );
+		}
+		sleep(500);
+		exec.tick();
+		assertEquals( 3, exec.getCurrPoolSize() );
+
+		// The window was cleared, so the slow samples don't shrink it again
+		exec.tick();
+		assertEquals( 3, exec.getCurrPoolSize() );
+
+		// A single slow outlier among fast tasks is ignored at p95
+		exec.execute( () -> CheckedBooleanSupplier.falsy( () -> { sleep(100); return true; } ) );
+		for ( int i = 0; i < 30; i++ )
+		{
+			exec.execute( () -> {} );
+		}
+		sleep(300);
+		exec.tick();
+		assertEquals( 4, exec.getCurrPoolSize() );
+
+		exec.waitAndShutdown();
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockingExecutorTest
+{
+	@Test
+	void striped_RunsAllTasks() throws InterruptedException
+	{
+		BlockingExecutor exec = new BlockingExecutor( 4, "striped", BlockingExecutor.Mode.STRIPED );
+		LongAdder done = new LongAdder();
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+
+		// Several producers contend for the permits
+		Thread[] producers = new Thread[4];
+		for ( int p = 0; p < producers.length; p++ )
+		{
+			producers[p] = new Thread( () -> {
+				for ( int i = 0; i < 10_000; i++ )
+				{
+					exec.execute( () -> {
+						maxInFlight.accumulateAndGet( inFlight.incrementAndGet(), Math::max );
+						done.increment();
+						inFlight.decrementAndGet();
+					} );
+				}
+			} );
+			producers[p].start();
+		}
+		for ( Thread producer : producers )
+		{
+			producer.join();
+		}
+
+		exec.waitAndShutdown();
+		assertEquals( 40_000, done.sum() );
+		assertTrue( maxInFlight.get() <= 4 );
+		assertEquals( 4, exec.permits.availablePermits() );
+	}
+
+	@Test
+	void striped_BlocksWhenFull() throws InterruptedException
+	{
+		BlockingExecutor exec = new BlockingExecutor( 2, "striped", BlockingExecutor.Mode.STRIPED );
+		CountDownLatch gate = new CountDownLatch( 1 );
+
+		Runnable blocker = () -> {
+			try
+			{
+				gate.await();
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+		};
+		exec.execute( blocker );
+		exec.execute( blocker );
+
+		// The third submission must wait for a permit
+		Thread producer = new Thread( () -> exec.execute( () -> {} ) );
+		producer.start();
+		producer.join( 200 );
+		assertTrue( producer.isAlive() );
+
+		gate.countDown();
+		producer.join( 5000 );
+		assertFalse( producer.isAlive() );
+
+		exec.waitAndShutdown();
+	}
+
+	@Test
+	void waitAndShutdown_NoPollingDelay()
+	{
+		BlockingExecutor exec = new BlockingExecutor( 2, "quiescent" );
+		exec.execute( () -> {} );
+		exec.execute( () -> {} );
+
+		long start = System.nanoTime();
+		exec.waitAndShutdown();
+		assertTrue( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) < 150 );
+		assertTrue( exec.isTerminated() );
+		assertEquals( 0, exec.getOutstandingCount() );
+	}
+
+	@Test
+	void awaitQuiescence_Timeout() throws InterruptedException
+	{
+		BlockingExecutor exec = new BlockingExecutor( 1, "quiescent" );
+		CountDownLatch gate = new CountDownLatch( 1 );
+		exec.execute( () -> {
+			try
+			{
+				gate.await();
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+		} );
+
+		assertFalse( exec.awaitQuiescence( Duration.ofMillis( 50 ) ) );
+		assertEquals( 1, exec.getOutstandingCount() );
+
+		gate.countDown();
+		assertTrue( exec.awaitQuiescence( Duration.ofSeconds( 5 ) ) );
+		exec.waitAndShutdown();
+	}
+
+	@Test
+	void waitAndShutdown_Interrupted() throws InterruptedException
+	{
+		BlockingExecutor exec = new BlockingExecutor( 1, "quiescent" );
+		exec.execute( () -> {
+			try
+			{
+				Thread.sleep( 10_000 );
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+		} );
+
+		AtomicBoolean stillInterrupted = new AtomicBoolean();
+		Thread waiter = new Thread( () -> {
+			exec.waitAndShutdown();
+			stillInterrupted.set( Thread.currentThread().isInterrupted() );
+		} );
+		waiter.start();
+		waiter.interrupt();
+		waiter.join( 5000 );
+
+		assertFalse( waiter.isAlive() );
+		assertTrue( stillInterrupted.get() );
+		assertTrue( exec.awaitTermination( 5, TimeUnit.SECONDS ) );
+	}
+
+	@Test
+	void metrics() throws Exception
+	{
+		BlockingExecutor exec = new BlockingExecutor( 2, "metered" );
+		InMemoryExecutorMetrics metrics = new InMemoryExecutorMetrics();
+		exec.setMetrics( metrics );
+		assertEquals( 2, metrics.getPoolSize() );
+		assertEquals( 0, metrics.getPoolSizeChanges() );
+		ObjectName name = ExecutorMetricsExporter.register( "metered", metrics );
+		try
+		{
+			for ( int i = 0; i < 20; i++ )
+			{
+				exec.execute( () -> {
+					try
+					{
+						Thread.sleep( 5 );
+					}
+					catch ( InterruptedException e )
+					{
+						Thread.currentThread().interrupt();
+					}
+				} );
+			}
+			exec.setCorePoolSize( 1 );
+			exec.waitAndShutdown();
+
+			assertEquals( 20, metrics.getTasksCompleted() );
+			assertEquals( 20, metrics.getQueueWait().getCount() );
+			assertEquals( 20, metrics.getPermitUtilization().getCount() );
+			assertTrue( metrics.getProducerBlockedCount() > 0 );
+			assertTrue( metrics.getRunTimeP50Micros() >= 5000 );
+			assertEquals( 1, metrics.getPoolSizeChanges() );
+			assertEquals( 1, metrics.getPoolSize() );
+
+			// Also readable over JMX
+			assertEquals( 20L, ManagementFactory.getPlatformMBeanServer().getAttribute( name, "TasksCompleted" ) );
+
+			assertThrows( RejectedExecutionException.class, () -> exec.execute( () -> {} ) );
+			assertEquals( 1, metrics.getTasksRejected() );
+		}
+		finally
+		{
+			ExecutorMetricsExporter.unregister( name );
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ForkJoinBlockingExecutorTest
+{
+	@Test
+	void fanOut_RunsAllSubtasks()
+	{
+		// Far more subtasks than permits must not deadlock
+		ForkJoinBlockingExecutor exec = new ForkJoinBlockingExecutor( 2, "fanout" );
+		LongAdder leaves = new LongAdder();
+
+		exec.execute( new Node( exec, 4, 6, leaves ) );
+		exec.execute( new Node( exec, 4, 6, leaves ) );
+		exec.waitAndShutdown();
+
+		assertTrue( exec.isTerminated() );
+		assertEquals( 2 * (long) Math.pow( 4, 6 ), leaves.sum() );
+	}
+
+	@Test
+	void external_BlocksWhenFull() throws InterruptedException
+	{
+		ForkJoinBlockingExecutor exec = new ForkJoinBlockingExecutor( 2, "bounded" );
+		CountDownLatch gate = new CountDownLatch( 1 );
+		Runnable blocker = () -> {
+			try
+			{
+				gate.await();
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+		};
+		exec.execute( blocker );
+		exec.execute( blocker );
+
+		// The third external submission must wait for a permit
+		Thread producer = new Thread( () -> exec.execute( () -> {} ) );
+		producer.start();
+		producer.join( 200 );
+		assertTrue( producer.isAlive() );
+
+		gate.countDown();
+		producer.join( 5000 );
+		assertFalse( producer.isAlive() );
+		exec.waitAndShutdown();
+	}
+
+	@Test
+	void threadNames()
+	{
+		ForkJoinBlockingExecutor exec = new ForkJoinBlockingExecutor( 1, "stealer" );
+		StringBuilder name = new StringBuilder();
+		exec.execute( () -> name.append( Thread.currentThread().getName() ) );
+		exec.waitAndShutdown();
+
+		assertTrue( name.toString().matches( "stealer-\\d+-thread-1" ), name.toString() );
+	}
+
+	// A directory-like node which submits its children from inside the pool
+	private static class Node implements Runnable
+	{
+		private final ForkJoinBlockingExecutor exec;
+		private final int fanOut;
+		private final int depth;
+		private final LongAdder leaves;
+
+		Node( ForkJoinBlockingExecutor exec, int fanOut, int depth, LongAdder leaves )
+		{
+			this.exec = exec;
+			this.fanOut = fanOut;
+			this.depth = depth;
+			this.leaves = leaves;
+		}
+
+		@Override
+		public void run()
+		{
+			if ( depth == 0 )
+			{
+				leaves.increment();
+				return;
+			}
+			for ( int i = 0; i < fanOut; i++ )
+			{
+				exec.execute( new Node( exec, fanOut, depth - 1, leaves ) );
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest
+{
+	@Test
+	void percentiles()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		for ( int i = 1; i <= 1000; i++ )
+		{
+			histogram.record( i );
+		}
+		assertEquals( 1000, histogram.getCount() );
+
+		// Within the ~3% sub-bucket precision
+		assertEquals( 500, histogram.getValueAtPercentile( 50 ), 500 * 0.032 );
+		assertEquals( 950, histogram.getValueAtPercentile( 95 ), 950 * 0.032 );
+		assertEquals( 990, histogram.getValueAtPercentile( 99 ), 990 * 0.032 );
+		assertEquals( 1000, histogram.getValueAtPercentile( 100 ), 1000 * 0.032 );
+	}
+
+	@Test
+	void empty()
+	{
+		assertEquals( 0, new LatencyHistogram().getValueAtPercentile( 99 ) );
+	}
+
+	@Test
+	void bucketsCoverAllValues()
+	{
+		long[] values = { 0, 1, 31, 32, 33, 63, 64, 1000, 123_456_789L, Long.MAX_VALUE };
+		for ( long value : values )
+		{
+			long reported = LatencyHistogram.highestEquivalentValue( LatencyHistogram.indexOf( value ) );
+			assertTrue( reported >= value && reported - value <= Math.max( 1, value / 32 ), value + " -> " + reported );
+		}
+	}
+
+	@Test
+	void rollingWindow()
+	{
+		RollingLatencyHistogram rolling = new RollingLatencyHistogram( 2 );
+		rolling.record( 10 );
+		rolling.rotate();
+		rolling.record( 20 );
+		assertEquals( 2, rolling.snapshot().getCount() );
+
+		// The first value falls out of the window
+		rolling.rotate();
+		assertEquals( 1, rolling.snapshot().getCount() );
+		assertEquals( 20, rolling.snapshot().getValueAtPercentile( 100 ) );
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import com.ericdraken.common.executors.PriorityBlockingExecutor.Priority;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PriorityBlockingExecutorTest
+{
+	@Test
+	void servesHigherPriorityFirst() throws InterruptedException
+	{
+		PriorityBlockingExecutor exec = new PriorityBlockingExecutor( 1, "priority", budgets( 4 ) );
+		CountDownLatch gate = new CountDownLatch( 1 );
+		List<String> order = new CopyOnWriteArrayList<>();
+
+		// Occupy the only thread so the rest queue up
+		exec.execute( () -> await( gate ), Priority.INTERACTIVE );
+		exec.execute( () -> order.add( "normal" ), Priority.NORMAL );
+		exec.execute( () -> order.add( "interactive-late" ), Priority.INTERACTIVE, Instant.now().plusSeconds( 60 ) );
+		exec.execute( () -> order.add( "interactive-soon" ), Priority.INTERACTIVE, Instant.now().plusSeconds( 30 ) );
+
+		gate.countDown();
+		exec.waitAndShutdown();
+		assertEquals( List.of( "interactive-soon", "interactive-late", "normal" ), order );
+	}
+
+	@Test
+	void dropsExpiredTasks() throws Exception
+	{
+		PriorityBlockingExecutor exec = new PriorityBlockingExecutor( 1, "deadline", budgets( 4 ) );
+		CountDownLatch gate = new CountDownLatch( 1 );
+		List<String> ran = new CopyOnWriteArrayList<>();
+
+		exec.execute( () -> await( gate ) );
+		Future<String> future = exec.submit( () -> "late", Priority.NORMAL, Instant.now().plusMillis( 50 ) );
+		exec.execute( () -> ran.add( "on time" ), Priority.NORMAL, Instant.now().plusSeconds( 60 ) );
+
+		// Already expired, so never queued
+		exec.execute( () -> ran.add( "expired" ), Priority.NORMAL, Instant.now().minusSeconds( 1 ) );
+
+		Thread.sleep( 100 );
+		gate.countDown();
+		exec.waitAndShutdown();
+
+		assertEquals( List.of( "on time" ), ran );
+		assertTrue( future.isCancelled() );
+		assertEquals( 2, exec.getExpiredCount() );
+		assertEquals( 0, exec.getOutstandingCount() );
+	}
+
+	@Test
+	void bulkCannotStarveInteractive() throws InterruptedException
+	{
+		Map<Priority, Integer> budgets = budgets( 2 );
+		budgets.put( Priority.BULK, 1 );
+		PriorityBlockingExecutor exec = new PriorityBlockingExecutor( 2, "budget", budgets );
+		CountDownLatch gate = new CountDownLatch( 1 );
+
+		exec.execute( () -> await( gate ), Priority.BULK );
+
+		// A second bulk task must wait for the bulk permit
+		Thread bulkProducer = new Thread( () -> exec.execute( () -> {}, Priority.BULK ) );
+		bulkProducer.start();
+		bulkProducer.join( 200 );
+		assertTrue( bulkProducer.isAlive() );
+
+		// But interactive work still gets the free thread
+		CountDownLatch interactive = new CountDownLatch( 1 );
+		exec.execute( interactive::countDown, Priority.INTERACTIVE );
+		interactive.await();
+
+		gate.countDown();
+		bulkProducer.join( 5000 );
+		assertFalse( bulkProducer.isAlive() );
+		exec.waitAndShutdown();
+	}
+
+	// Enough permits per class for the tasks to queue behind one thread
+	private static Map<Priority, Integer> budgets( int permits )
+	{
+		Map<Priority, Integer> budgets = new EnumMap<>( Priority.class );
+		for ( Priority priority : Priority.values() )
+		{
+			budgets.put( priority, permits );
+		}
+		return budgets;
+	}
+
+	private static void await( CountDownLatch gate )
+	{
+		try
+		{
+			gate.await();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
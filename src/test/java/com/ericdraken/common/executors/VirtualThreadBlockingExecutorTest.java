@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.executors;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Thread.sleep;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VirtualThreadBlockingExecutorTest
+{
+	@Test
+	void boundsInFlightTasks()
+	{
+		VirtualThreadBlockingExecutor exec = new VirtualThreadBlockingExecutor( 50, "io" );
+		LongAdder done = new LongAdder();
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+
+		for ( int i = 0; i < 500; i++ )
+		{
+			exec.execute( () -> {
+				maxInFlight.accumulateAndGet( inFlight.incrementAndGet(), Math::max );
+				try
+				{
+					sleep( 5 );
+				}
+				catch ( InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+				}
+				inFlight.decrementAndGet();
+				done.increment();
+			} );
+		}
+
+		exec.waitAndShutdown();
+		assertTrue( exec.isTerminated() );
+		assertEquals( 500, done.sum() );
+		assertTrue( maxInFlight.get() <= 50 );
+	}
+
+	@Test
+	void threadNames()
+	{
+		VirtualThreadBlockingExecutor exec = new VirtualThreadBlockingExecutor( 1, "named" );
+		StringBuilder name = new StringBuilder();
+		exec.execute( () -> name.append( Thread.currentThread().getName() ) );
+		exec.waitAndShutdown();
+
+		assertTrue( name.toString().matches( "named-\\d+-thread-1" ), name.toString() );
+	}
+
+	@Test
+	void rejectsAfterShutdown()
+	{
+		VirtualThreadBlockingExecutor exec = new VirtualThreadBlockingExecutor( 1, "closed" );
+		exec.shutdown();
+		assertThrows( RejectedExecutionException.class, () -> exec.execute( () -> {} ) );
+	}
+}
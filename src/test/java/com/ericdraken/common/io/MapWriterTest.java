@@ -10,10 +10,25 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class MapWriterTest
 {
@@ -95,4 +110,487 @@ class MapWriterTest
 			assertEquals( 123, p.readNumberForKey( "123" ) );
 		}
 	}
-}
\ No newline at end of file
+
+	@Test
+	void mappedWriteCloseOpenReadTest()
+	{
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.MAPPED ) )
+		{
+			assertTrue( p.writeNumberForKey( "int", 123 ) );
+			assertTrue( p.writeNumberForKey( "long", 1L << 40 ) );
+			assertTrue( p.writeNumberForKey( "double", 1.5 ) );
+			assertTrue( p.writeNumberForKey( "int", 456 ) );
+			assertNull( p.readNumberForKey( "missing" ) );
+		}
+
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.MAPPED ) )
+		{
+			assertEquals( 456, p.readNumberForKey( "int" ) );
+			assertEquals( 1L << 40, p.readNumberForKey( "long" ) );
+			assertEquals( 1.5, p.readNumberForKey( "double" ) );
+		}
+	}
+
+	@Test
+	void mappedReadLongForKeyTest()
+	{
+		String longKey = "k".repeat( 1000 );
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.MAPPED ) )
+		{
+			p.writeLongForKey( "long", 1L << 40 );
+			p.writeNumberForKey( "double", 2.75 );
+			p.writeLongForKey( "\u00fc\u4e2d\ud83d\ude00", 7 );
+			p.writeLongForKey( longKey, 8 );
+
+			assertEquals( 1L << 40, p.readLongForKey( "long", -1 ) );
+			assertEquals( 2, p.readLongForKey( "double", -1 ) );
+			assertEquals( 7, p.readLongForKey( "\u00fc\u4e2d\ud83d\ude00", -1 ) );
+			assertEquals( 8, p.readLongForKey( longKey, -1 ) );
+			assertEquals( -1, p.readLongForKey( "missing", -1 ) );
+			assertEquals( -1, p.readLongForKey( "lon", -1 ) );
+		}
+	}
+
+	@Test
+	void mappedGrowTest()
+	{
+		int n = 5000;
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.MAPPED ) )
+		{
+			for ( int i = 0; i < n; i++ )
+			{
+				assertTrue( p.writeNumberForKey( "key-" + i + "-" + "x".repeat( i % 100 ), i ) );
+			}
+			for ( int i = 0; i < n; i++ )
+			{
+				assertEquals( i, p.readNumberForKey( "key-" + i + "-" + "x".repeat( i % 100 ) ) );
+			}
+		}
+
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.MAPPED ) )
+		{
+			for ( int i = 0; i < n; i++ )
+			{
+				assertEquals( i, p.readNumberForKey( "key-" + i + "-" + "x".repeat( i % 100 ) ) );
+			}
+		}
+	}
+
+	@Test
+	void mappedConvertsJsonTest() throws IOException
+	{
+		Files.writeString( file.toPath(), "{ \"a\" : 1, \"b\" : 2.5, \"\u00fc\" : 3 }", StandardCharsets.UTF_8 );
+
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.MAPPED ) )
+		{
+			assertEquals( 1, p.readNumberForKey( "a" ) );
+			assertEquals( 2.5, p.readNumberForKey( "b" ) );
+			assertEquals( 3, p.readNumberForKey( "\u00fc" ) );
+		}
+	}
+
+	@Test
+	void mappedKeepsMalformedJsonTest() throws IOException
+	{
+		String truncated = "{\"a\":1,\"b\":2,\"c\"";
+		Files.writeString( file.toPath(), truncated, StandardCharsets.UTF_8 );
+
+		assertThrows( UncheckedIOException.class, () -> new MapWriter( file, MapWriter.Storage.MAPPED ) );
+		assertEquals( truncated, Files.readString( file.toPath(), StandardCharsets.UTF_8 ) );
+	}
+
+	@Test
+	void exportImportJsonTest() throws IOException
+	{
+		File json = File.createTempFile( "exportImportJsonTest", "json" );
+		json.deleteOnExit();
+
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.MAPPED ) )
+		{
+			p.writeNumberForKey( "123", 123 );
+			p.exportJson( json );
+		}
+
+		// The export is readable by the JSON storage
+		try ( MapWriter p = new MapWriter( json ) )
+		{
+			assertEquals( 123, p.readNumberForKey( "123" ) );
+		}
+
+		File other = File.createTempFile( "exportImportJsonTest", "map" );
+		other.deleteOnExit();
+		try ( MapWriter p = new MapWriter( other, MapWriter.Storage.MAPPED ) )
+		{
+			assertTrue( p.importJson( json ) );
+			assertEquals( 123, p.readNumberForKey( "123" ) );
+
+			// Nothing to import from a missing or malformed file
+			assertFalse( p.importJson( new File( other.getPath() + ".missing" ) ) );
+			Files.writeString( json.toPath(), "{\"a\":1,", StandardCharsets.UTF_8 );
+			assertFalse( p.importJson( json ) );
+			assertNull( p.readNumberForKey( "a" ) );
+		}
+	}
+
+	@Test
+	void logWriteCloseOpenReadTest() throws IOException
+	{
+		File wal = new File( file.getPath() + ".wal" );
+
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.LOG ) )
+		{
+			assertTrue( p.writeNumberForKey( "123", 123 ) );
+			assertTrue( p.writeNumberForKey( "long", 1L << 40 ) );
+			assertTrue( wal.length() > 0 );
+		}
+
+		// Closing compacts into a plain JSON snapshot
+		assertFalse( wal.exists() );
+		try ( MapWriter p = new MapWriter( file ) )
+		{
+			assertEquals( 123, p.readNumberForKey( "123" ) );
+			assertEquals( 1L << 40, p.readNumberForKey( "long" ) );
+		}
+	}
+
+	@Test
+	void logReplayTest() throws IOException
+	{
+		File wal = new File( file.getPath() + ".wal" );
+		wal.deleteOnExit();
+
+		// Never closed, as after a crash
+		MapWriter crashed = new MapWriter( file, MapWriter.Storage.LOG );
+		crashed.writeNumberForKey( "a", 1 );
+		crashed.writeNumberForKey( "b", 2.5 );
+		crashed.writeNumberForKey( "a", 3 );
+
+		// A torn record at the end is dropped
+		Files.write( wal.toPath(), new byte[]{ 0, 0, 0, 20, 1, 2 }, StandardOpenOption.APPEND );
+
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.LOG ) )
+		{
+			assertEquals( 3, p.readNumberForKey( "a" ) );
+			assertEquals( 2.5, p.readNumberForKey( "b" ) );
+			assertTrue( p.writeNumberForKey( "c", 4 ) );
+		}
+
+		try ( MapWriter p = new MapWriter( file ) )
+		{
+			assertEquals( 3, p.readNumberForKey( "a" ) );
+			assertEquals( 4, p.readNumberForKey( "c" ) );
+		}
+	}
+
+	@Test
+	void bigNumbersRoundTripTest()
+	{
+		BigDecimal decimal = new BigDecimal( "12345678901234567890.123456789" );
+		BigInteger integer = BigInteger.TWO.pow( 70 );
+		try ( MapWriter p = new MapWriter( file ) )
+		{
+			p.writeNumberForKey( "decimal", decimal );
+			p.writeNumberForKey( "integer", integer );
+			p.writeNumberForKey( "double", 0.1 );
+		}
+
+		// Loading and saving again keeps every digit
+		try ( MapWriter p = new MapWriter( file ) )
+		{
+			p.writeNumberForKey( "other", 1 );
+		}
+		try ( MapWriter p = new MapWriter( file ) )
+		{
+			assertEquals( 0, decimal.compareTo( (BigDecimal) p.readNumberForKey( "decimal" ) ) );
+			assertEquals( integer, p.readNumberForKey( "integer" ) );
+			assertEquals( 0.1, p.readNumberForKey( "double" ) );
+		}
+
+		// Binary stores refuse what they cannot hold exactly
+		try ( MapWriter p = new MapWriter( new File( file.getPath() + ".mapped" ), MapWriter.Storage.MAPPED ) )
+		{
+			assertThrows( IllegalArgumentException.class, () -> p.writeNumberForKey( "integer", integer ) );
+		}
+		finally
+		{
+			new File( file.getPath() + ".mapped" ).delete();
+		}
+	}
+
+	@Test
+	void logRotatedRecoveryTest() throws IOException
+	{
+		File wal = new File( file.getPath() + ".wal" );
+		File rotated = new File( file.getPath() + ".wal.1" );
+		wal.deleteOnExit();
+		rotated.deleteOnExit();
+
+		// Crash after the log was rotated but before its snapshot landed
+		LogNumberStore crashed = new LogNumberStore( file );
+		crashed.put( "a", 1 );
+		crashed.flush();
+		crashed.sync();
+		Files.move( wal.toPath(), rotated.toPath() );
+
+		// Recover, then crash again before any compaction
+		LogNumberStore recovered = new LogNumberStore( file );
+		assertEquals( 1, recovered.get( "a" ) );
+		assertFalse( rotated.exists() );
+
+		try ( LogNumberStore store = new LogNumberStore( file ) )
+		{
+			assertEquals( 1, store.get( "a" ) );
+		}
+	}
+
+	@Test
+	void logCompactionTest() throws IOException
+	{
+		File wal = new File( file.getPath() + ".wal" );
+		wal.deleteOnExit();
+
+		int n = 2000;
+		try ( LogNumberStore store = new LogNumberStore( file, 1024 ) )
+		{
+			for ( int i = 0; i < n; i++ )
+			{
+				store.put( "key-" + (i % 100), i );
+				store.flush();
+			}
+		}
+		assertFalse( wal.exists() );
+
+		try ( LogNumberStore store = new LogNumberStore( file ) )
+		{
+			assertEquals( 100, store.toMap().size() );
+			assertEquals( n - 1, store.get( "key-99" ) );
+		}
+	}
+
+	@Test
+	void groupCommitFlushTest() throws Exception
+	{
+		try ( MapWriter p = MapWriter.builder( file )
+			.flushInterval( Duration.ofHours( 1 ) )
+			.fsync( true )
+			.build() )
+		{
+			assertTrue( p.writeNumberForKey( "123", 123 ) );
+			assertEquals( 123, p.readNumberForKey( "123" ) );
+
+			// Nothing is written until a flush
+			assertEquals( 0, file.length() );
+
+			CompletableFuture<Void> flushed = p.flush();
+			flushed.get( 10, TimeUnit.SECONDS );
+			assertTrue( file.length() > 0 );
+
+			// Nothing is pending
+			assertTrue( p.flush().isDone() );
+		}
+	}
+
+	@Test
+	void groupCommitAfterUpdatesTest() throws Exception
+	{
+		for ( MapWriter.Storage storage : MapWriter.Storage.values() )
+		{
+			File file = File.createTempFile( "groupCommitAfterUpdatesTest", "map" );
+			file.deleteOnExit();
+
+			try ( MapWriter p = MapWriter.builder( file )
+				.storage( storage )
+				.flushInterval( Duration.ofMillis( 5 ) )
+				.flushAfterUpdates( 10 )
+				.build() )
+			{
+				Thread[] threads = new Thread[4];
+				for ( int t = 0; t < threads.length; t++ )
+				{
+					int offset = t * 1000;
+					threads[t] = new Thread( () -> {
+						for ( int i = 0; i < 1000; i++ )
+						{
+							p.writeNumberForKey( "key-" + (offset + i), offset + i );
+						}
+					} );
+					threads[t].start();
+				}
+				for ( Thread thread : threads )
+				{
+					thread.join();
+				}
+				p.flush().get( 10, TimeUnit.SECONDS );
+			}
+
+			try ( MapWriter p = new MapWriter( file, storage ) )
+			{
+				for ( int i = 0; i < 4000; i++ )
+				{
+					assertEquals( i, p.readNumberForKey( "key-" + i ), storage.name() );
+				}
+			}
+		}
+	}
+
+	@Test
+	void groupCommitCloseTest()
+	{
+		try ( MapWriter p = MapWriter.builder( file )
+			.flushInterval( Duration.ofHours( 1 ) )
+			.build() )
+		{
+			p.writeNumberForKey( "123", 123 );
+		}
+
+		// Closing flushes pending writes
+		try ( MapWriter p = new MapWriter( file ) )
+		{
+			assertEquals( 123, p.readNumberForKey( "123" ) );
+		}
+	}
+
+	@Test
+	void writeAllReadAllTest()
+	{
+		Map<String, Number> values = new HashMap<>();
+		for ( int i = 0; i < 3000; i++ )
+		{
+			values.put( "key-" + i, i );
+		}
+
+		for ( MapWriter.Storage storage : MapWriter.Storage.values() )
+		{
+			try ( MapWriter p = new MapWriter( file, storage ) )
+			{
+				assertTrue( p.writeAll( values ) );
+				assertEquals( values, p.readAll(), storage.name() );
+			}
+
+			try ( MapWriter p = new MapWriter( file, storage ) )
+			{
+				assertEquals( values, p.readAll(), storage.name() );
+			}
+		}
+	}
+
+	@Test
+	void concurrentReadsTest() throws Exception
+	{
+		for ( MapWriter.Storage storage : MapWriter.Storage.values() )
+		{
+			File file = File.createTempFile( "concurrentReadsTest", "map" );
+			file.deleteOnExit();
+
+			try ( MapWriter p = new MapWriter( file, storage ) )
+			{
+				// Each reader checks that a key, once seen, never goes backwards
+				AtomicReference<String> failure = new AtomicReference<>();
+				Thread[] readers = new Thread[4];
+				for ( int t = 0; t < readers.length; t++ )
+				{
+					readers[t] = new Thread( () -> {
+						long last = -1;
+						while ( last < 999 )
+						{
+							Number n = p.readNumberForKey( "counter" );
+							long value = n == null ? -1 : n.longValue();
+							if ( value < last )
+							{
+								failure.set( "went from " + last + " to " + value );
+								return;
+							}
+							last = value;
+						}
+					} );
+					readers[t].start();
+				}
+
+				// New keys force the mapped store to grow under the readers
+				for ( int i = 0; i < 1000; i++ )
+				{
+					p.writeNumberForKey( "counter", i );
+					p.writeNumberForKey( "key-" + i, i );
+				}
+				for ( Thread reader : readers )
+				{
+					reader.join( 60_000 );
+				}
+				assertNull( failure.get(), storage.name() );
+				assertEquals( 999, p.readNumberForKey( "counter" ) );
+			}
+		}
+	}
+
+	@Test
+	void writeReadLongForKeyTest()
+	{
+		for ( MapWriter.Storage storage : MapWriter.Storage.values() )
+		{
+			try ( MapWriter p = new MapWriter( file, storage ) )
+			{
+				assertTrue( p.writeLongForKey( "long", 1L << 40 ) );
+				assertTrue( p.writeNumberForKey( "double", 2.5 ) );
+				assertEquals( 1L << 40, p.readLongForKey( "long", 0 ), storage.name() );
+				assertEquals( 2, p.readLongForKey( "double", 0 ), storage.name() );
+				assertEquals( -1, p.readLongForKey( "missing", -1 ), storage.name() );
+			}
+
+			try ( MapWriter p = new MapWriter( file, storage ) )
+			{
+				assertEquals( 1L << 40, p.readNumberForKey( "long" ), storage.name() );
+			}
+		}
+	}
+
+	@Test
+	void mappedUncleanCloseTest()
+	{
+		// Never closed, as after a crash
+		MapWriter crashed = new MapWriter( file, MapWriter.Storage.MAPPED );
+		for ( int i = 0; i < 1000; i++ )
+		{
+			crashed.writeNumberForKey( "key-" + i, i );
+		}
+
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.MAPPED ) )
+		{
+			assertEquals( 999, p.readNumberForKey( "key-999" ) );
+			assertTrue( p.writeNumberForKey( "new", 1 ) );
+			assertEquals( 1001, p.readAll().size() );
+		}
+
+		// Closed cleanly, the header counts are trusted
+		try ( MapWriter p = new MapWriter( file, MapWriter.Storage.MAPPED ) )
+		{
+			assertTrue( p.writeNumberForKey( "newer", 2 ) );
+			assertEquals( 1, p.readNumberForKey( "new" ) );
+			assertEquals( 1002, p.readAll().size() );
+		}
+	}
+
+	@Test
+	void jsonStreamingLoadTest() throws IOException
+	{
+		Files.writeString( file.toPath(), "{ \"int\" : 1, \"long\" : 12345678901, \"double\" : 1.5, " +
+			"\"string\" : \"x\", \"object\" : { \"a\" : 1 }, \"array\" : [ 1, [ 2 ] ], \"null\" : null, " +
+			"\"last\" : 2 }", StandardCharsets.UTF_8 );
+
+		try ( MapWriter p = new MapWriter( file ) )
+		{
+			assertEquals( 1, p.readNumberForKey( "int" ) );
+			assertEquals( 12345678901L, p.readNumberForKey( "long" ) );
+			assertEquals( 1.5, p.readNumberForKey( "double" ) );
+			assertEquals( 2, p.readNumberForKey( "last" ) );
+			assertNull( p.readNumberForKey( "object" ) );
+			assertEquals( 4, p.readAll().size() );
+		}
+
+		// Malformed files start a new map
+		Files.writeString( file.toPath(), "{ \"a\" : 1, ", StandardCharsets.UTF_8 );
+		try ( MapWriter p = new MapWriter( file ) )
+		{
+			assertNull( p.readNumberForKey( "a" ) );
+		}
+	}
+}
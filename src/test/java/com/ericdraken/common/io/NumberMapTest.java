@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NumberMapTest
+{
+	private static final String[] KEYS = {
+		"", "a", "caf\u00e9", "\u65e5\u672c", "\ud83d\ude00 face", "lone \ud83d high", "lone \ude00 low", "end \ud83d"
+	};
+
+	@Test
+	void encode_MatchesGetBytes()
+	{
+		for ( String key : KEYS )
+		{
+			byte[] expected = key.getBytes( StandardCharsets.UTF_8 );
+			assertEquals( expected.length, NumberMap.encodedLength( key ), key );
+
+			byte[] actual = new byte[expected.length];
+			assertEquals( expected.length, NumberMap.encode( key, actual, 0 ) );
+			assertArrayEquals( expected, actual );
+		}
+	}
+
+	@Test
+	void putGet_KeepsTypes()
+	{
+		NumberMap map = new NumberMap();
+		map.put( "int", 1 );
+		map.put( "long", 1L << 40 );
+		map.put( "float", 1.5f );
+		map.put( "double", 2.5 );
+		map.putLong( "putLong", 7 );
+
+		assertEquals( Integer.valueOf( 1 ), map.get( "int" ) );
+		assertEquals( Long.valueOf( 1L << 40 ), map.get( "long" ) );
+		assertEquals( Float.valueOf( 1.5f ), map.get( "float" ) );
+		assertEquals( Double.valueOf( 2.5 ), map.get( "double" ) );
+		assertEquals( Long.valueOf( 7 ), map.get( "putLong" ) );
+		assertNull( map.get( "missing" ) );
+
+		assertEquals( 2, map.getLong( "double", -1 ) );
+		assertEquals( -1, map.getLong( "missing", -1 ) );
+		assertEquals( 5, map.size() );
+	}
+
+	@Test
+	void putGet_BigNumbersAreExact()
+	{
+		BigDecimal decimal = new BigDecimal( "0.1000000000000000000000001" );
+		BigInteger integer = BigInteger.TWO.pow( 70 );
+
+		NumberMap map = new NumberMap();
+		map.put( "decimal", decimal );
+		map.put( "integer", integer );
+		map.put( "small", BigInteger.TEN );
+
+		// Rehashes and removals move the boxes with their slots
+		for ( int i = 0; i < 1000; i++ )
+		{
+			map.putLong( "key-" + i, i );
+		}
+		for ( int i = 0; i < 1000; i += 2 )
+		{
+			map.remove( "key-" + i );
+		}
+
+		assertEquals( decimal, map.get( "decimal" ) );
+		assertEquals( integer, map.get( "integer" ) );
+		assertEquals( 10L, map.get( "small" ) );
+		assertEquals( 0, map.getLong( "decimal", -1 ) );
+		assertEquals( decimal, map.toMap().get( "decimal" ) );
+
+		map.putLong( "decimal", 5 );
+		assertEquals( 5L, map.get( "decimal" ) );
+	}
+
+	@Test
+	void putGet_Utf8Keys()
+	{
+		NumberMap map = new NumberMap();
+		for ( int i = 0; i < KEYS.length; i++ )
+		{
+			map.putLong( KEYS[i], i );
+		}
+		for ( int i = 0; i < KEYS.length; i++ )
+		{
+			assertEquals( i, map.getLong( KEYS[i], -1 ), KEYS[i] );
+		}
+
+		// Keys come back as String.getBytes() would decode them
+		Map<String, Number> copy = map.toMap();
+		assertEquals( KEYS.length, copy.size() );
+		assertEquals( 4L, copy.get( "\ud83d\ude00 face" ) );
+	}
+
+	@Test
+	void remove_KeepsProbeChains()
+	{
+		NumberMap map = new NumberMap();
+		Map<String, Number> expected = new HashMap<>();
+		for ( int i = 0; i < 10_000; i++ )
+		{
+			map.putLong( "key-" + i, i );
+			expected.put( "key-" + i, (long) i );
+		}
+		for ( int i = 0; i < 10_000; i += 2 )
+		{
+			assertTrue( map.remove( "key-" + i ) );
+			expected.remove( "key-" + i );
+		}
+		assertFalse( map.remove( "key-0" ) );
+
+		assertEquals( expected.size(), map.size() );
+		assertEquals( expected, map.toMap() );
+		for ( int i = 0; i < 10_000; i++ )
+		{
+			assertEquals( i % 2 == 0 ? -1 : i, map.getLong( "key-" + i, -1 ) );
+		}
+
+		// Null removes, as it would for a JSON map
+		map.put( "key-1", null );
+		assertNull( map.get( "key-1" ) );
+	}
+
+	@Test
+	void getLong_ConcurrentWithWriter() throws InterruptedException
+	{
+		NumberMap map = new NumberMap();
+		AtomicReference<String> failure = new AtomicReference<>();
+		Thread reader = new Thread( () -> {
+			long last = -1;
+			while ( last < 99_999 )
+			{
+				long value = map.getLong( "counter", -1 );
+				if ( value < last )
+				{
+					failure.set( "went from " + last + " to " + value );
+					return;
+				}
+				last = value;
+			}
+		} );
+		reader.start();
+
+		// New keys force rehashes under the reader
+		for ( int i = 0; i < 100_000; i++ )
+		{
+			map.putLong( "counter", i );
+			if ( i % 4 == 0 )
+			{
+				map.putLong( "key-" + i, i );
+			}
+		}
+		reader.join( 60_000 );
+		assertFalse( reader.isAlive() );
+		assertNull( failure.get() );
+	}
+}
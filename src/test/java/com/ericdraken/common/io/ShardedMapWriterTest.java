@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020. Eric Draken - ericdraken.com
+ */
+
+package com.ericdraken.common.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedMapWriterTest
+{
+	private File dir;
+
+	private File base;
+
+	@BeforeEach
+	void setUp() throws IOException
+	{
+		dir = Files.createTempDirectory( "ShardedMapWriterTest" ).toFile();
+		base = new File( dir, "jobs.json" );
+	}
+
+	@AfterEach
+	void tearDown() throws IOException
+	{
+		try ( Stream<Path> paths = Files.walk( dir.toPath() ) )
+		{
+			paths.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+		}
+	}
+
+	@Test
+	void writeCloseOpenReadTest()
+	{
+		try ( ShardedMapWriter p = new ShardedMapWriter( base, 4 ) )
+		{
+			for ( int i = 0; i < 100; i++ )
+			{
+				assertTrue( p.writeNumberForKey( "key-" + i, i ) );
+			}
+			p.writeInstantForKey( "instant", Instant.ofEpochSecond( 123 ) );
+		}
+
+		// Every shard received some keys
+		for ( int i = 0; i < 4; i++ )
+		{
+			assertTrue( ShardedMapWriter.shardFile( base, i, 4 ).length() > 2 );
+		}
+
+		try ( ShardedMapWriter p = new ShardedMapWriter( base, 4 ) )
+		{
+			for ( int i = 0; i < 100; i++ )
+			{
+				assertEquals( i, p.readNumberForKey( "key-" + i ) );
+			}
+			assertEquals( Instant.ofEpochSecond( 123 ), p.readInstantForKey( "instant" ) );
+			assertEquals( Instant.EPOCH, p.readInstantForKey( "not found" ) );
+			assertEquals( 101, p.readAll().size() );
+		}
+	}
+
+	@Test
+	void writeAll_GroupCommit() throws Exception
+	{
+		Map<String, Number> values = new HashMap<>();
+		for ( int i = 0; i < 1000; i++ )
+		{
+			values.put( "key-" + i, (long) i );
+		}
+
+		try ( ShardedMapWriter p = new ShardedMapWriter( base, 3,
+			file -> MapWriter.builder( file ).storage( MapWriter.Storage.LOG ).flushInterval( Duration.ofHours( 1 ) ).build() ) )
+		{
+			assertTrue( p.writeAll( values ) );
+			p.flush().get();
+			assertEquals( values, p.readAll() );
+		}
+	}
+
+	@Test
+	void reshard() throws IOException
+	{
+		try ( ShardedMapWriter p = new ShardedMapWriter( base, 2, MapWriter.Storage.MAPPED ) )
+		{
+			for ( int i = 0; i < 500; i++ )
+			{
+				p.writeLongForKey( "key-" + i, i );
+			}
+		}
+
+		ShardedMapWriter.reshard( base, 2, 5, MapWriter.Storage.MAPPED );
+		assertFalse( ShardedMapWriter.shardFile( base, 0, 2 ).exists() );
+
+		try ( ShardedMapWriter p = new ShardedMapWriter( base, 5, MapWriter.Storage.MAPPED ) )
+		{
+			assertEquals( 500, p.readAll().size() );
+			for ( int i = 0; i < 500; i++ )
+			{
+				assertEquals( i, p.readLongForKey( "key-" + i, -1 ) );
+			}
+		}
+	}
+
+	@Test
+	void reshard_UnclosedLogShards() throws IOException
+	{
+		// Never closed, so the shards have a log but no snapshot yet
+		ShardedMapWriter p = new ShardedMapWriter( base, 2, MapWriter.Storage.LOG );
+		for ( int i = 0; i < 50; i++ )
+		{
+			p.writeLongForKey( "key-" + i, i );
+		}
+		assertFalse( ShardedMapWriter.shardFile( base, 0, 2 ).exists() );
+
+		ShardedMapWriter.reshard( base, 2, 3, MapWriter.Storage.LOG );
+		assertFalse( new File( ShardedMapWriter.shardFile( base, 0, 2 ).getPath() + ".wal" ).exists() );
+
+		try ( ShardedMapWriter q = new ShardedMapWriter( base, 3, MapWriter.Storage.LOG ) )
+		{
+			assertEquals( 50, q.readAll().size() );
+			for ( int i = 0; i < 50; i++ )
+			{
+				assertEquals( i, q.readLongForKey( "key-" + i, -1 ) );
+			}
+		}
+	}
+
+	@Test
+	void invalidShardCount()
+	{
+		assertThrows( IllegalArgumentException.class, () -> new ShardedMapWriter( base, 0 ) );
+	}
+}
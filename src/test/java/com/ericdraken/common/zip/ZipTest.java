@@ -9,9 +9,19 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -102,6 +112,279 @@ public class ZipTest
 		}
 	}
 
+	@Test
+	void zipFilesTest() throws IOException
+	{
+		Path dir = Files.createTempDirectory( "zipFiles" );
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try
+		{
+			Map<Path, String> sources = new LinkedHashMap<>();
+			Random random = new Random( 42 );
+			for ( int i = 0; i < 200; i++ )
+			{
+				byte[] data = new byte[random.nextInt( 10_000 )];
+				for ( int j = 0; j < data.length; j++ )
+				{
+					data[j] = (byte) ('a' + random.nextInt( 4 ));
+				}
+				Path source = dir.resolve( "file-" + i + ".txt" );
+				Files.write( source, data );
+				sources.put( source, "dir-" + (i % 7) + "/file-" + i + ".txt" );
+			}
+
+			// Incompressible and large enough to spill
+			byte[] noise = new byte[DeflatedEntry.SPILL_THRESHOLD * 3];
+			random.nextBytes( noise );
+			Path large = dir.resolve( "noise.bin" );
+			Files.write( large, noise );
+			sources.put( large, "noise.bin" );
+
+			Path empty = Files.createFile( dir.resolve( "empty" ) );
+			sources.put( empty, "caf\u00e9/empty" );
+
+			assertTrue( large.toFile().setLastModified( 1_600_000_000_000L ) );
+
+			Path out = dir.resolve( "out/archive.zip" );
+			Zip.zipFiles( sources, out, executor );
+
+			try ( ZipFile zipFile = new ZipFile( out.toFile() ) )
+			{
+				assertEquals( sources.size(), zipFile.size() );
+				for ( Map.Entry<Path, String> source : sources.entrySet() )
+				{
+					ZipEntry entry = zipFile.getEntry( source.getValue() );
+					assertNotNull( entry, source.getValue() );
+					assertEquals( ZipEntry.DEFLATED, entry.getMethod() );
+					assertArrayEquals( Files.readAllBytes( source.getKey() ), zipFile.getInputStream( entry ).readAllBytes() );
+				}
+				assertEquals( 1_600_000_000_000L, zipFile.getEntry( "noise.bin" ).getLastModifiedTime().toMillis() );
+			}
+
+			// Entries come out in iteration order
+			try ( ZipFile zipFile = new ZipFile( out.toFile() ) )
+			{
+				assertEquals( "dir-0/file-0.txt", zipFile.entries().nextElement().getName() );
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+			deleteRecursively( dir );
+		}
+	}
+
+	@Test
+	void zipFiles_DuplicateName() throws IOException
+	{
+		Path dir = Files.createTempDirectory( "zipFiles" );
+		try
+		{
+			Path a = Files.write( dir.resolve( "a" ), new byte[]{ 1 } );
+			Path b = Files.write( dir.resolve( "b" ), new byte[]{ 2 } );
+			Map<Path, String> sources = new LinkedHashMap<>();
+			sources.put( a, "same" );
+			sources.put( b, "same" );
+
+			Path out = dir.resolve( "archive.zip" );
+			assertThrows( ZipException.class, () -> Zip.zipFiles( sources, out ) );
+			assertFalse( Files.exists( out ) );
+		}
+		finally
+		{
+			deleteRecursively( dir );
+		}
+	}
+
+	@Test
+	void zipFiles_Zip64EntryCount() throws IOException
+	{
+		Path dir = Files.createTempDirectory( "zipFiles" );
+		try
+		{
+			Path source = Files.write( dir.resolve( "a" ), new byte[]{ 1, 2, 3 } );
+			Path out = dir.resolve( "archive.zip" );
+
+			// More entries than the classic end record can count
+			int count = 70_000;
+			try ( ZipWriter writer = new ZipWriter( out ) )
+			{
+				for ( int i = 0; i < count; i++ )
+				{
+					DeflatedEntry.deflate( source, Deflater.BEST_SPEED ).writeTo( writer, "entry-" + i );
+				}
+			}
+
+			try ( ZipFile zipFile = new ZipFile( out.toFile() ) )
+			{
+				assertEquals( count, zipFile.size() );
+				ZipEntry last = zipFile.getEntry( "entry-" + (count - 1) );
+				assertArrayEquals( new byte[]{ 1, 2, 3 }, zipFile.getInputStream( last ).readAllBytes() );
+			}
+		}
+		finally
+		{
+			deleteRecursively( dir );
+		}
+	}
+
+	@Test
+	void zipFileParallelTest() throws IOException
+	{
+		Path dir = Files.createTempDirectory( "zipFileParallel" );
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try
+		{
+			// Text-like data which repeats across block boundaries, and an uneven tail
+			Random random = new Random( 42 );
+			byte[] data = new byte[BlockDeflater.BLOCK_SIZE * 10 + 12_345];
+			for ( int i = 0; i < data.length; i++ )
+			{
+				data[i] = (byte) (random.nextInt( 8 ) == 0 ? random.nextInt( 256 ) : 'a' + (i / 7) % 26);
+			}
+			Path source = Files.write( dir.resolve( "large.txt" ), data );
+			Path out = dir.resolve( "parallel.zip" );
+			Path sequential = dir.resolve( "sequential.zip" );
+
+			Zip.zipFileParallel( source, out, "large.txt", executor );
+			Zip.zipFile( source, sequential, "large.txt" );
+
+			CRC32 crc = new CRC32();
+			crc.update( data );
+			try ( ZipFile zipFile = new ZipFile( out.toFile() ) )
+			{
+				ZipEntry entry = zipFile.getEntry( "large.txt" );
+				assertEquals( crc.getValue(), entry.getCrc() );
+				assertEquals( data.length, entry.getSize() );
+				assertArrayEquals( data, zipFile.getInputStream( entry ).readAllBytes() );
+
+				// Priming keeps the ratio close to a single stream
+				long single = Zip.getZipEntry( sequential, "large.txt" ).getCompressedSize();
+				assertTrue( entry.getCompressedSize() < single * 1.05, entry.getCompressedSize() + " vs " + single );
+			}
+
+			// Empty files still make a valid stream
+			Path empty = Files.createFile( dir.resolve( "empty" ) );
+			Zip.zipFileParallel( empty, out, "empty", executor );
+			try ( ZipFile zipFile = new ZipFile( out.toFile() ) )
+			{
+				assertEquals( 0, zipFile.getInputStream( zipFile.getEntry( "empty" ) ).readAllBytes().length );
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+			deleteRecursively( dir );
+		}
+	}
+
+	@Test
+	void combineCrcTest()
+	{
+		Random random = new Random( 7 );
+		for ( int length : new int[]{ 0, 1, 31, 32_768, 100_001 } )
+		{
+			byte[] a = new byte[random.nextInt( 1000 )];
+			byte[] b = new byte[length];
+			random.nextBytes( a );
+			random.nextBytes( b );
+
+			CRC32 crcA = new CRC32();
+			crcA.update( a );
+			CRC32 crcB = new CRC32();
+			crcB.update( b );
+			CRC32 both = new CRC32();
+			both.update( a );
+			both.update( b );
+
+			assertEquals( both.getValue(), BlockDeflater.combine( crcA.getValue(), crcB.getValue(), b.length ) );
+		}
+	}
+
+	@Test
+	void zipFile_StoredTest() throws IOException
+	{
+		Path dir = Files.createTempDirectory( "zipFileStored" );
+		try
+		{
+			byte[] data = new byte[3 * 1024 * 1024 + 7];
+			new Random( 42 ).nextBytes( data );
+			Path source = Files.write( dir.resolve( "image.jpg" ), data );
+			Path out = dir.resolve( "stored.zip" );
+
+			Zip.zipFile( source, out, "images/image.jpg", ZipEntry.STORED );
+
+			CRC32 crc = new CRC32();
+			crc.update( data );
+			try ( ZipFile zipFile = new ZipFile( out.toFile() ) )
+			{
+				ZipEntry entry = zipFile.getEntry( "images/image.jpg" );
+				assertEquals( ZipEntry.STORED, entry.getMethod() );
+				assertEquals( crc.getValue(), entry.getCrc() );
+				assertEquals( data.length, entry.getCompressedSize() );
+				assertArrayEquals( data, zipFile.getInputStream( entry ).readAllBytes() );
+			}
+
+			Path check = dir.resolve( "check.jpg" );
+			Zip.unzipFile( out, Paths.get( "images/image.jpg" ), check, false );
+			assertArrayEquals( data, Files.readAllBytes( check ) );
+
+			assertThrows( FileAlreadyExistsException.class, () -> Zip.unzipFile( out, Paths.get( "images/image.jpg" ), check, false ) );
+			Zip.unzipFile( out, Paths.get( "images/image.jpg" ), check, true );
+			assertArrayEquals( data, Files.readAllBytes( check ) );
+		}
+		finally
+		{
+			deleteRecursively( dir );
+		}
+	}
+
+	@Test
+	void unzipFile_StoredFromZipOutputStream() throws IOException
+	{
+		Path dir = Files.createTempDirectory( "unzipStored" );
+		try
+		{
+			byte[] stored = "stored bytes".getBytes( StandardCharsets.US_ASCII );
+			byte[] deflated = "deflated bytes deflated bytes".getBytes( StandardCharsets.US_ASCII );
+			Path archive = dir.resolve( "mixed.zip" );
+			try ( ZipOutputStream zipOut = new ZipOutputStream( Files.newOutputStream( archive ) ) )
+			{
+				zipOut.putNextEntry( new ZipEntry( "a/deflated.txt" ) );
+				zipOut.write( deflated );
+
+				CRC32 crc = new CRC32();
+				crc.update( stored );
+				ZipEntry entry = new ZipEntry( "b/stored.txt" );
+				entry.setMethod( ZipEntry.STORED );
+				entry.setSize( stored.length );
+				entry.setCrc( crc.getValue() );
+				entry.setExtra( new byte[]{ (byte) 0xCA, (byte) 0xFE, 2, 0, 9, 9 } );
+				zipOut.putNextEntry( entry );
+				zipOut.write( stored );
+			}
+
+			Path check = dir.resolve( "check" );
+			Zip.unzipFile( archive, Paths.get( "b/stored.txt" ), check, true );
+			assertArrayEquals( stored, Files.readAllBytes( check ) );
+
+			Zip.unzipFile( archive, Paths.get( "a/deflated.txt" ), check, true );
+			assertArrayEquals( deflated, Files.readAllBytes( check ) );
+		}
+		finally
+		{
+			deleteRecursively( dir );
+		}
+	}
+
+	private static void deleteRecursively( Path dir ) throws IOException
+	{
+		try ( Stream<Path> paths = Files.walk( dir ) )
+		{
+			paths.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+		}
+	}
+
 	private Path relativize( final File base, final File file )
 	{
 		String srcPath = base.getParentFile().getAbsolutePath();